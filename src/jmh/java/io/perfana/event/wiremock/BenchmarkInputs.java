@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.UUID;
+
+/**
+ * Realistic inputs for the benchmarks: the bundled afterburner stubs and synthetic large imports.
+ */
+class BenchmarkInputs {
+
+    static final String STUBS_DIR = "src/test/resources/wiremock-stubs";
+
+    private BenchmarkInputs() {
+    }
+
+    static String afterburnerStubs() throws IOException {
+        return Files.readString(Paths.get(STUBS_DIR, "afterburner-stubs.json"));
+    }
+
+    /**
+     * An import file with the given number of mappings, using replacement tokens
+     * <code>${delay-0}</code> to <code>${delay-(tokens-1)}</code> in turn.
+     */
+    static String syntheticImport(int mappings, int tokens) {
+        StringBuilder json = new StringBuilder(mappings * 300);
+        json.append("{\n  \"mappings\" : [");
+        for (int i = 0; i < mappings; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\n    \"id\" : \"").append(new UUID(0, i)).append("\",\n")
+                .append("    \"request\" : { \"urlPath\" : \"/synthetic/").append(i).append("\", \"method\" : \"GET\" },\n")
+                .append("    \"response\" : { \"status\" : 200, \"body\" : \"synthetic response ").append(i).append("\",\n")
+                .append("      \"fixedDelayMilliseconds\" : ${delay-").append(i % tokens).append("} }\n  }");
+        }
+        json.append("]\n}");
+        return json.toString();
+    }
+
+    /**
+     * Event settings like <code>file=name;delay-0=100;delay-1=101</code>.
+     */
+    static String settings(String file, int tokens) {
+        StringBuilder settings = new StringBuilder("file=").append(file);
+        for (int i = 0; i < tokens; i++) {
+            settings.append(";delay-").append(i).append('=').append(100 + i);
+        }
+        return settings.toString();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.api.EventLogger;
+
+/**
+ * Keeps benchmark output clean and avoids measuring console output.
+ */
+class QuietEventLogger implements EventLogger {
+
+    static final QuietEventLogger INSTANCE = new QuietEventLogger();
+
+    @Override
+    public void info(String message) {
+    }
+
+    @Override
+    public void warn(String message) {
+    }
+
+    @Override
+    public void error(String message) {
+        System.err.println(message);
+    }
+
+    @Override
+    public void error(String message, Throwable throwable) {
+        System.err.println(message + ": " + throwable);
+    }
+
+    @Override
+    public void debug(String message) {
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return false;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.perfana.eventscheduler.EventMessageBusSimple;
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+/**
+ * Full custom event round trip against an in-process wiremock server: settings, files, templating and upload.
+ * The sample time mode reports percentiles, such as the p99 event apply latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WiremockEventBenchmark {
+
+    /**
+     * The afterburner stubs have a single <code>${delay}</code> token, the synthetic imports 1 or 10 tokens.
+     */
+    @Param({"afterburner", "synthetic-10k-1-token", "synthetic-10k-10-tokens"})
+    public String input;
+
+    @Param({"false", "true"})
+    public boolean preloadFiles;
+
+    private WireMockServer wireMockServer;
+    private Path filesDir;
+    private WiremockEvent event;
+    private CustomEvent importEvent;
+    private CustomEvent mappingEvent;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        wireMockServer = new WireMockServer(options().dynamicPort().disableRequestJournal());
+        wireMockServer.start();
+
+        filesDir = Files.createTempDirectory("wiremock-benchmark");
+        String importSettings;
+        switch (input) {
+            case "afterburner":
+                Files.writeString(filesDir.resolve("import.json"), BenchmarkInputs.afterburnerStubs());
+                importSettings = "file=import.json;delay=4000";
+                break;
+            case "synthetic-10k-1-token":
+                Files.writeString(filesDir.resolve("import.json"), BenchmarkInputs.syntheticImport(10_000, 1));
+                importSettings = BenchmarkInputs.settings("import.json", 1);
+                break;
+            case "synthetic-10k-10-tokens":
+                Files.writeString(filesDir.resolve("import.json"), BenchmarkInputs.syntheticImport(10_000, 10));
+                importSettings = BenchmarkInputs.settings("import.json", 10);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown input: " + input);
+        }
+        // a fixed id, so each post replaces the same stub instead of adding one
+        String mapping = Files.readString(Paths.get(BenchmarkInputs.STUBS_DIR, "wiremock-delay.json"));
+        Files.writeString(filesDir.resolve("mapping.json"), mapping.replaceFirst("\\{", "{\n  \"id\": \"" + new UUID(0, 1) + "\","));
+
+        importEvent = new CustomEvent(Duration.ZERO, WiremockEvent.EVENT_WIREMOCK_CHANGE_IMPORT, "benchmark", importSettings);
+        mappingEvent = new CustomEvent(Duration.ZERO, WiremockEvent.EVENT_WIREMOCK_CHANGE_MAPPINGS, "benchmark", "file=mapping.json;delay=4000");
+
+        WiremockEventConfig eventConfig = new WiremockEventConfig();
+        eventConfig.setName("benchmarkWiremockEvent");
+        eventConfig.setWiremockFilesDir(filesDir.toString());
+        eventConfig.setWiremockUrl(wireMockServer.baseUrl());
+        eventConfig.setPreloadFiles(preloadFiles);
+        // the preloader only pre-renders the events of the schedule script
+        eventConfig.setScheduleScript(
+            "PT1S|" + WiremockEvent.EVENT_WIREMOCK_CHANGE_IMPORT + "|" + importSettings + "\n" +
+            "PT2S|" + WiremockEvent.EVENT_WIREMOCK_CHANGE_MAPPINGS + "|file=mapping.json;delay=4000");
+        eventConfig.setContinueOnUploadError(false);
+        TestConfig testConfig = TestConfig.builder().testRunId("benchmark").build();
+
+        event = new WiremockEvent(eventConfig.toContext(), testConfig.toContext(), new EventMessageBusSimple(), QuietEventLogger.INSTANCE);
+        event.beforeTest();
+    }
+
+    /**
+     * Start each iteration with an empty wiremock, so stubs do not pile up over the iterations.
+     */
+    @Setup(Level.Iteration)
+    public void resetMappings() {
+        wireMockServer.resetMappings();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        event.afterTest();
+        wireMockServer.stop();
+        for (File file : filesDir.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(filesDir);
+    }
+
+    @Benchmark
+    public void changeImport() {
+        event.customEvent(importEvent);
+    }
+
+    @Benchmark
+    public void changeMapping() {
+        event.customEvent(mappingEvent);
+    }
+}
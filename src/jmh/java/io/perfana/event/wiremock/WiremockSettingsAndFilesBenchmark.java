@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of parsing the event settings and of reading a wiremock file, from disk and through the template cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WiremockSettingsAndFilesBenchmark {
+
+    @Param({"1", "10", "50"})
+    public int tokens;
+
+    private String settings;
+    private File file;
+    private WiremockTemplateCache templateCache;
+
+    @Setup
+    public void setup() throws IOException {
+        settings = BenchmarkInputs.settings("afterburner-stubs.json", tokens);
+        file = Paths.get(BenchmarkInputs.STUBS_DIR, "afterburner-stubs.json").toFile();
+        templateCache = new WiremockTemplateCache();
+        templateCache.get(file);
+    }
+
+    @Benchmark
+    public Map<String, String> parseSettings() {
+        return WiremockEvent.parseSettings(settings);
+    }
+
+    @Benchmark
+    public String readFile() throws IOException {
+        return Files.readString(file.toPath());
+    }
+
+    @Benchmark
+    public WiremockTemplate readFileFromTemplateCache() throws IOException {
+        return templateCache.get(file);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of applying the replacements to a wiremock file: parsing, rendering and the regex based
+ * replaceAll that was used before the templates, as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WiremockTemplateBenchmark {
+
+    @Param({"afterburner", "synthetic-10k"})
+    public String input;
+
+    @Param({"1", "10", "50"})
+    public int tokens;
+
+    private String text;
+    private WiremockTemplate template;
+    private Map<String, String> replacements;
+
+    @Setup
+    public void setup() throws IOException {
+        text = "afterburner".equals(input)
+                ? BenchmarkInputs.afterburnerStubs()
+                : BenchmarkInputs.syntheticImport(10_000, tokens);
+        template = WiremockTemplate.parse(text);
+        replacements = new LinkedHashMap<>();
+        replacements.put("delay", "4000");
+        for (int i = 0; i < tokens; i++) {
+            replacements.put("delay-" + i, String.valueOf(100 + i));
+        }
+    }
+
+    @Benchmark
+    public byte[] render() {
+        return template.render(replacements);
+    }
+
+    @Benchmark
+    public byte[] parseAndRender() {
+        return WiremockTemplate.parse(text).render(replacements);
+    }
+
+    @Benchmark
+    public String replaceAllBaseline() {
+        String result = text;
+        for (Map.Entry<String, String> token : replacements.entrySet()) {
+            String replacement = token.getValue() == null ? "null" : token.getValue();
+            result = result.replaceAll("\\$\\{" + token.getKey() + "}", replacement);
+        }
+        return result;
+    }
+}
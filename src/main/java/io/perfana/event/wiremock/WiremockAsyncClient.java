@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Uploads wiremock files to one wiremock node, with a future per file.
+ */
+interface WiremockAsyncClient {
+
+    String getBaseUrl();
+
+    /**
+     * @return a future that completes when the node accepted the file, or completes exceptionally
+     * with a {@link WiremockClientException} when the upload failed
+     */
+    CompletableFuture<Void> uploadAsync(WiremockPayload payload, String uriPath);
+}
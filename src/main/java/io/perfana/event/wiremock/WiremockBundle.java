@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read only, memory-mapped view of a bundle made by {@link WiremockBundlePacker}: all json files of a
+ * wiremock files dir in one file, with an index, the parsed template segments and optionally gzip compressed copies.
+ * <p>
+ * Layout: magic, the data of all files, the index, and a trailer with the index offset and the magic.
+ * An index entry holds the relative path, offset and length of the source and of the compressed copy
+ * (length -1 when absent), the placeholder keys and the byte lengths of the literal segments.
+ */
+class WiremockBundle {
+
+    static final byte[] MAGIC = "WMBUNDL1".getBytes(StandardCharsets.US_ASCII);
+    static final int TRAILER_LENGTH = Long.BYTES + MAGIC.length;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final Map<String, Entry> files;
+    private final Map<String, List<Entry>> directories;
+
+    private WiremockBundle(File file, ByteBuffer buffer, Map<String, Entry> files, Map<String, List<Entry>> directories) {
+        this.file = file;
+        this.buffer = buffer;
+        this.files = files;
+        this.directories = directories;
+    }
+
+    static WiremockBundle open(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new WiremockEventException("wiremock bundle is larger than 2 GB: " + file);
+            }
+            if (size < MAGIC.length + TRAILER_LENGTH) {
+                throw new WiremockEventException("not a wiremock bundle: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return read(file, buffer);
+        } catch (IOException e) {
+            throw new WiremockEventException("cannot open wiremock bundle " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static WiremockBundle read(File file, ByteBuffer buffer) {
+        ByteBuffer in = buffer.duplicate();
+        checkMagic(file, in, 0);
+        checkMagic(file, in, in.limit() - MAGIC.length);
+        long indexOffset = in.getLong(in.limit() - TRAILER_LENGTH);
+        if (indexOffset < MAGIC.length || indexOffset > in.limit() - TRAILER_LENGTH) {
+            throw new WiremockEventException("corrupt wiremock bundle, invalid index offset: " + file);
+        }
+        in.position((int) indexOffset);
+
+        int count = in.getInt();
+        Map<String, Entry> files = new HashMap<>(count * 2);
+        Map<String, List<Entry>> directories = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String path = readString(in);
+            int sourceOffset = in.getInt();
+            int sourceLength = in.getInt();
+            int compressedOffset = in.getInt();
+            int compressedLength = in.getInt();
+            int keyCount = in.getInt();
+            List<String> keys = new ArrayList<>(keyCount);
+            for (int k = 0; k < keyCount; k++) {
+                keys.add(readString(in));
+            }
+            int[] literalLengths = new int[keyCount + 1];
+            for (int l = 0; l < literalLengths.length; l++) {
+                literalLengths[l] = in.getInt();
+            }
+            Entry entry = new Entry(buffer, path, sourceOffset, sourceLength, compressedOffset, compressedLength, keys, literalLengths);
+            files.put(path, entry);
+            directories.computeIfAbsent(parent(path), k -> new ArrayList<>()).add(entry);
+        }
+        directories.values().forEach(entries -> entries.sort((a, b) -> a.getName().compareTo(b.getName())));
+        return new WiremockBundle(file, buffer, files, directories);
+    }
+
+    private static void checkMagic(File file, ByteBuffer in, int position) {
+        byte[] magic = new byte[MAGIC.length];
+        in.position(position);
+        in.get(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new WiremockEventException("not a wiremock bundle, or made by another version: " + file);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the path relative to the files dir with '/' separators, as used in the bundle index
+     */
+    static String normalize(String relativePath) {
+        String path = Paths.get(relativePath).normalize().toString().replace(File.separatorChar, '/');
+        return path.equals(".") ? "" : path;
+    }
+
+    private static String parent(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash == -1 ? "" : path.substring(0, slash);
+    }
+
+    /**
+     * @return the file, or null when not in the bundle
+     */
+    Entry file(String relativePath) {
+        return files.get(normalize(relativePath));
+    }
+
+    /**
+     * @return the files directly in the directory sorted by name, or null when the directory is not in the bundle
+     */
+    List<Entry> directory(String relativePath) {
+        List<Entry> entries = directories.get(normalize(relativePath));
+        return entries == null ? null : Collections.unmodifiableList(entries);
+    }
+
+    int size() {
+        return files.size();
+    }
+
+    long getByteSize() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public String toString() {
+        return "WiremockBundle{" + file + ", files=" + files.size() + ", bytes=" + buffer.capacity() + '}';
+    }
+
+    /**
+     * A file in the bundle. The template is created from the mapped bytes on first use.
+     */
+    static class Entry {
+        private final ByteBuffer buffer;
+        private final String path;
+        private final int sourceOffset;
+        private final int sourceLength;
+        private final int compressedOffset;
+        private final int compressedLength;
+        private final List<String> keys;
+        private final int[] literalLengths;
+        private volatile WiremockTemplate template;
+
+        private Entry(ByteBuffer buffer, String path, int sourceOffset, int sourceLength, int compressedOffset, int compressedLength,
+                      List<String> keys, int[] literalLengths) {
+            this.buffer = buffer;
+            this.path = path;
+            this.sourceOffset = sourceOffset;
+            this.sourceLength = sourceLength;
+            this.compressedOffset = compressedOffset;
+            this.compressedLength = compressedLength;
+            this.keys = keys;
+            this.literalLengths = literalLengths;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        String getName() {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        WiremockTemplate getTemplate() {
+            WiremockTemplate current = template;
+            if (current == null) {
+                current = WiremockTemplate.fromSegments(copy(sourceOffset, sourceLength), literalLengths, keys);
+                template = current;
+            }
+            return current;
+        }
+
+        /**
+         * @return the gzip compressed source, or null when the bundle has no compressed copy
+         */
+        byte[] getCompressed() {
+            return compressedLength < 0 ? null : copy(compressedOffset, compressedLength);
+        }
+
+        private byte[] copy(int offset, int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer in = buffer.duplicate();
+            in.position(offset);
+            in.get(bytes);
+            return bytes;
+        }
+    }
+}
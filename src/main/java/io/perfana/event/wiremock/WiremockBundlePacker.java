@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Packs all json files of a wiremock files dir into one bundle, read with {@link WiremockBundle}.
+ * <p>
+ * Usage: <code>WiremockBundlePacker &lt;wiremockFilesDir&gt; &lt;bundle file&gt; [--gzip]</code>,
+ * or <code>./gradlew packWiremockBundle</code>.
+ */
+public class WiremockBundlePacker {
+
+    static final String OPTION_GZIP = "--gzip";
+
+    private WiremockBundlePacker() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3 || (args.length == 3 && !OPTION_GZIP.equals(args[2]))) {
+            System.err.println("usage: WiremockBundlePacker <wiremockFilesDir> <bundle file> [" + OPTION_GZIP + "]");
+            System.exit(1);
+        }
+        File rootDir = new File(args[0]);
+        File bundle = new File(args[1]);
+        long startNanos = System.nanoTime();
+        int count = pack(rootDir, bundle, args.length == 3);
+        System.out.printf("packed %d file(s) of %s into %s (%d bytes) in %d ms%n",
+                count, rootDir, bundle, bundle.length(), (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    /**
+     * @return the number of files packed
+     */
+    static int pack(File rootDir, File bundle, boolean compress) throws IOException {
+        if (!rootDir.isDirectory()) {
+            throw new WiremockEventException("directory not found: " + rootDir);
+        }
+        Path root = rootDir.toPath().toAbsolutePath().normalize();
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(root)) {
+            files = paths.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().endsWith(".json"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        File parent = bundle.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        indexOut.writeInt(files.size());
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(bundle.toPath())))) {
+            out.write(WiremockBundle.MAGIC);
+            for (Path file : files) {
+                byte[] source = Files.readAllBytes(file);
+                WiremockTemplate template = WiremockTemplate.parse(new String(source, StandardCharsets.UTF_8));
+
+                int sourceOffset = offset(out);
+                out.write(template.getSource());
+                int compressedOffset = -1;
+                int compressedLength = -1;
+                if (compress) {
+                    byte[] compressed = gzip(template.getSource());
+                    compressedOffset = offset(out);
+                    compressedLength = compressed.length;
+                    out.write(compressed);
+                }
+
+                writeString(indexOut, WiremockBundle.normalize(root.relativize(file).toString()));
+                indexOut.writeInt(sourceOffset);
+                indexOut.writeInt(template.getSource().length);
+                indexOut.writeInt(compressedOffset);
+                indexOut.writeInt(compressedLength);
+                List<String> keys = template.getKeys();
+                indexOut.writeInt(keys.size());
+                for (String key : keys) {
+                    writeString(indexOut, key);
+                }
+                for (int length : template.getLiteralLengths()) {
+                    indexOut.writeInt(length);
+                }
+            }
+            int indexOffset = offset(out);
+            out.write(index.toByteArray());
+            out.writeLong(indexOffset);
+            out.write(WiremockBundle.MAGIC);
+            offset(out);
+        }
+        return files.size();
+    }
+
+    /**
+     * @return the number of bytes written so far, which saturates at Integer.MAX_VALUE
+     */
+    private static int offset(DataOutputStream out) {
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new WiremockEventException("wiremock bundle is larger than 2 GB");
+        }
+        return out.size();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 8));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Chunked import of very large import files: the <code>mappings</code> array is read with a streaming parser
+ * and sent in chunks of <code>chunkSize</code> mappings, with at most <code>maxInFlight</code> chunks
+ * in flight per node. Each node reads the files with its own parser, so only the chunks in flight are in memory
+ * and a slow node does not hold back the other nodes.
+ * An import that replaces all mappings cannot be chunked: each chunk would delete the mappings of the chunks before it.
+ */
+class WiremockChunkedImport {
+
+    private final int chunkSize;
+    private final int maxInFlight;
+    private final Duration eventDeadline;
+    private final WiremockDispatcher dispatcher;
+    private final WiremockMetrics metrics;
+    private final EventLogger logger;
+    private final ExecutorService executor;
+
+    WiremockChunkedImport(int chunkSize, int maxInFlight, Duration eventDeadline, WiremockDispatcher dispatcher, WiremockMetrics metrics, EventLogger logger) {
+        this.chunkSize = chunkSize;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.eventDeadline = eventDeadline;
+        this.dispatcher = dispatcher;
+        this.metrics = metrics;
+        this.logger = logger;
+        this.executor = Executors.newCachedThreadPool(new WiremockDispatcher.DaemonThreadFactory("wiremock-chunk-"));
+    }
+
+    /**
+     * Send all chunks of all payloads to the target nodes. Each node has its own producer that reads the files,
+     * so a slow node does not hold back the others. A node that fails a chunk gets no further chunks.
+     */
+    List<WiremockNodeResult> importChunked(String description, List<WiremockClient> targets, List<WiremockPayload> payloads,
+                                           BiConsumer<WiremockClient, WiremockPayload> upload) {
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + eventDeadline.toNanos();
+
+        List<Node> nodes = new ArrayList<>(targets.size());
+        targets.forEach(client -> nodes.add(new Node(client, maxInFlight)));
+
+        AtomicInteger chunkCount = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(nodes.size());
+        for (Node node : nodes) {
+            executor.execute(() -> {
+                try {
+                    chunkCount.accumulateAndGet(produce(node, payloads, upload, deadlineNanos), Math::max);
+                } finally {
+                    node.done = true;
+                    done.countDown();
+                }
+            });
+        }
+
+        try {
+            if (!done.await(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                nodes.stream().filter(node -> !node.done).forEach(node -> node.result.timedOut());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WiremockEventException("interrupted while waiting for wiremock nodes: " + description, e);
+        }
+
+        List<WiremockNodeResult> results = new ArrayList<>(nodes.size());
+        nodes.forEach(node -> results.add(node.result));
+        return dispatcher.report(description + " in " + chunkCount.get() + " chunk(s) of " + chunkSize, results, startNanos);
+    }
+
+    /**
+     * Read the chunks of all payloads and send them to one node, then wait for its chunks in flight.
+     * @return the number of chunks read
+     */
+    private int produce(Node node, List<WiremockPayload> payloads, BiConsumer<WiremockClient, WiremockPayload> upload, long deadlineNanos) {
+        int count = 0;
+        try {
+            for (WiremockPayload payload : payloads) {
+                try (Chunks chunks = new Chunks(payload, chunkSize)) {
+                    WiremockPayload chunk;
+                    while (!node.failed && (chunk = chunks.next()) != null) {
+                        count++;
+                        send(node, chunk, upload, deadlineNanos);
+                    }
+                }
+            }
+            if (node.inFlight.tryAcquire(maxInFlight, Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                node.inFlight.release(maxInFlight);
+                node.result.completed(node.lastCompletedNanos.get() - node.startNanos);
+            }
+            else {
+                node.result.timedOut();
+            }
+        } catch (WiremockEventException e) {
+            node.result.failed(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            node.result.timedOut();
+        }
+        return count;
+    }
+
+    private void send(Node node, WiremockPayload chunk, BiConsumer<WiremockClient, WiremockPayload> upload, long deadlineNanos) throws InterruptedException {
+        if (!node.inFlight.tryAcquire(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+            node.result.timedOut();
+            node.failed = true;
+            return;
+        }
+        if (node.failed) {
+            // a chunk in flight failed while waiting
+            node.inFlight.release();
+            return;
+        }
+        executor.execute(() -> {
+            long chunkStartNanos = System.nanoTime();
+            try {
+                upload.accept(node.client, chunk);
+                node.result.uploaded();
+            } catch (Exception e) {
+                logger.error("chunk " + chunk.getName() + " failed on " + node.client.getBaseUrl() + ": " + e.getMessage());
+                node.result.failed(e);
+                node.failed = true;
+            } finally {
+                long now = System.nanoTime();
+                metrics.recordTime(WiremockMetrics.Phase.CHUNK, node.client.getBaseUrl(), now - chunkStartNanos);
+                node.lastCompletedNanos.accumulateAndGet(now, Math::max);
+                node.inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * @return true when the import options of the payload ask to delete all mappings not in the import
+     */
+    static boolean isReplacing(WiremockPayload payload) {
+        return Chunks.readImportOptions(payload).path(WiremockMappings.DELETE_ALL_NOT_IN_IMPORT).asBoolean(false);
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class Node {
+        private final WiremockClient client;
+        private final WiremockNodeResult result;
+        private final Semaphore inFlight;
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong lastCompletedNanos = new AtomicLong(startNanos);
+        private volatile boolean failed;
+        private volatile boolean done;
+
+        private Node(WiremockClient client, int maxInFlight) {
+            this.client = client;
+            this.result = new WiremockNodeResult(client.getBaseUrl());
+            this.inFlight = new Semaphore(maxInFlight);
+        }
+    }
+
+    /**
+     * Reads the mappings of an import file one by one and returns them as imports of at most <code>chunkSize</code> mappings.
+     */
+    static class Chunks implements Closeable {
+        private final WiremockPayload payload;
+        private final int chunkSize;
+        private final JsonParser parser;
+        private final JsonNode duplicatePolicy;
+        private boolean inMappings;
+        private boolean done;
+        private int index;
+
+        Chunks(WiremockPayload payload, int chunkSize) {
+            this.payload = payload;
+            this.chunkSize = Math.max(1, chunkSize);
+            // the import options can come after the mappings, and apply to all chunks
+            JsonNode options = readImportOptions(payload);
+            this.duplicatePolicy = options.get("duplicatePolicy");
+            try {
+                this.parser = WiremockMappings.OBJECT_MAPPER.getFactory().createParser(payload.openStream());
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw new WiremockEventException("not an import file, expected a json object: " + payload.getName());
+                }
+            } catch (IOException e) {
+                throw new WiremockEventException("cannot read import file " + payload.getName() + ": " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * @return the next chunk, or null when all mappings are read
+         */
+        WiremockPayload next() {
+            if (done) {
+                return null;
+            }
+            try {
+                List<ObjectNode> mappings = new ArrayList<>(chunkSize);
+                while (mappings.size() < chunkSize) {
+                    if (!inMappings && !advanceToMappings()) {
+                        done = true;
+                        break;
+                    }
+                    JsonToken token = parser.nextToken();
+                    if (token == JsonToken.END_ARRAY) {
+                        inMappings = false;
+                        continue;
+                    }
+                    JsonNode mapping = parser.readValueAsTree();
+                    if (mapping != null && mapping.isObject()) {
+                        mappings.add((ObjectNode) mapping);
+                    }
+                }
+                if (mappings.isEmpty()) {
+                    return null;
+                }
+                ObjectNode options = WiremockMappings.OBJECT_MAPPER.createObjectNode();
+                options.set("duplicatePolicy", duplicatePolicy != null ? duplicatePolicy : options.textNode("OVERWRITE"));
+                options.put(WiremockMappings.DELETE_ALL_NOT_IN_IMPORT, false);
+                index++;
+                return new WiremockPayload(payload.getName() + "#" + index, WiremockMappings.toImport(mappings, options));
+            } catch (IOException e) {
+                throw new WiremockEventException("cannot read import file " + payload.getName() + ": " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Skip the other fields up to the start of the next <code>mappings</code> array.
+         * @return false at the end of the document
+         */
+        private boolean advanceToMappings() throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (WiremockMappings.MAPPINGS.equals(field) && value == JsonToken.START_ARRAY) {
+                    inMappings = true;
+                    return true;
+                }
+                parser.skipChildren();
+            }
+            if (token != JsonToken.END_OBJECT) {
+                throw new WiremockEventException("unexpected json in import file " + payload.getName() + ": " + token);
+            }
+            return false;
+        }
+
+        /**
+         * Skims the whole file for the <code>importOptions</code>, without reading the mappings into memory.
+         * @return the import options, or an empty object when there are none
+         */
+        static JsonNode readImportOptions(WiremockPayload payload) {
+            try (JsonParser skim = WiremockMappings.OBJECT_MAPPER.getFactory().createParser(payload.openStream())) {
+                if (skim.nextToken() != JsonToken.START_OBJECT) {
+                    throw new WiremockEventException("not an import file, expected a json object: " + payload.getName());
+                }
+                while (skim.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = skim.getCurrentName();
+                    if (skim.nextToken() == JsonToken.START_OBJECT && WiremockMappings.IMPORT_OPTIONS.equals(field)) {
+                        return skim.readValueAsTree();
+                    }
+                    skim.skipChildren();
+                }
+                return WiremockMappings.OBJECT_MAPPER.createObjectNode();
+            } catch (IOException e) {
+                throw new WiremockEventException("cannot read import file " + payload.getName() + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
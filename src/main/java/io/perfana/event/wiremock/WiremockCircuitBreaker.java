@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.api.EventLogger;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Health of one wiremock node: calls to the node are retried with jittered backoff on transient failures,
+ * and after a number of consecutive failures the circuit opens and calls fail fast until a background
+ * probe finds the node healthy again.
+ */
+class WiremockCircuitBreaker {
+
+    enum State { CLOSED, OPEN }
+
+    private final String node;
+    private final int failureThreshold;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final EventLogger logger;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private long openNanos;
+    private int opened;
+    private long successes;
+    private long failures;
+    private long retries;
+    private long skipped;
+
+    /**
+     * @param failureThreshold consecutive failures that open the circuit, 0 never opens the circuit
+     * @param maxRetries retries of a call that failed with a transient failure, 0 for no retries
+     */
+    WiremockCircuitBreaker(String node, int failureThreshold, int maxRetries, long backoffMillis, EventLogger logger) {
+        this.node = node;
+        this.failureThreshold = failureThreshold;
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+        this.logger = logger;
+    }
+
+    /**
+     * Run the call, with retries on transient failures.
+     * @throws WiremockClientException when the call failed, or immediately when the circuit is open
+     */
+    void execute(Runnable call) {
+        checkClosed();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                call.run();
+                success();
+                return;
+            } catch (WiremockClientException e) {
+                if (!retry(e, attempt)) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(backoff(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new WiremockClientException("interrupted while retrying call to " + node, e);
+            }
+        }
+    }
+
+    /**
+     * Async variant of {@link #execute(Runnable)}, the backoff does not hold a thread.
+     */
+    CompletableFuture<Void> executeAsync(Supplier<CompletableFuture<Void>> call) {
+        try {
+            checkClosed();
+        } catch (WiremockClientException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return executeAsync(call, 0);
+    }
+
+    private CompletableFuture<Void> executeAsync(Supplier<CompletableFuture<Void>> call, int attempt) {
+        return call.get().handle((ignore, error) -> {
+            if (error == null) {
+                success();
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            WiremockClientException exception = cause instanceof WiremockClientException
+                    ? (WiremockClientException) cause
+                    : new WiremockClientException("call to " + node + " failed", cause);
+            if (!retry(exception, attempt)) {
+                return CompletableFuture.<Void>failedFuture(exception);
+            }
+            Executor delayed = CompletableFuture.delayedExecutor(backoff(attempt), TimeUnit.MILLISECONDS);
+            return CompletableFuture.supplyAsync(() -> null, delayed).thenCompose(next -> executeAsync(call, attempt + 1));
+        }).thenCompose(future -> future);
+    }
+
+    private synchronized void checkClosed() {
+        if (state == State.OPEN) {
+            skipped++;
+            throw new WiremockClientException("circuit breaker open for " + node + ", call skipped");
+        }
+    }
+
+    private synchronized void success() {
+        successes++;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Count the failure and decide if the call is retried.
+     */
+    private synchronized boolean retry(WiremockClientException e, int attempt) {
+        failures++;
+        consecutiveFailures++;
+        if (failureThreshold > 0 && consecutiveFailures >= failureThreshold && state == State.CLOSED) {
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+            opened++;
+            logger.warn(String.format("circuit breaker opened for %s after %d consecutive failures: %s", node, consecutiveFailures, e.getMessage()));
+        }
+        boolean retry = state == State.CLOSED && attempt < maxRetries && isTransient(e);
+        if (retry) {
+            retries++;
+            logger.debug(String.format("retry %d of %d to %s: %s", attempt + 1, maxRetries, node, e.getMessage()));
+        }
+        return retry;
+    }
+
+    /**
+     * A background probe succeeded: close the circuit.
+     */
+    synchronized void probeSucceeded() {
+        if (state == State.OPEN) {
+            openNanos += System.nanoTime() - openedAtNanos;
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            logger.info("circuit breaker closed for " + node + ", node is healthy again");
+        }
+    }
+
+    synchronized boolean isOpen() {
+        return state == State.OPEN;
+    }
+
+    String getNode() {
+        return node;
+    }
+
+    /**
+     * Full jitter: a random wait between 0 and the exponential backoff for this attempt.
+     */
+    private long backoff(int attempt) {
+        long max = backoffMillis << Math.min(attempt, 10);
+        return max <= 0 ? 0 : ThreadLocalRandom.current().nextLong(max + 1);
+    }
+
+    /**
+     * Only failures where wiremock cannot have applied the request are transient: no connection could be made,
+     * or the node answered 503 or 429. A read timeout or a dropped connection after the request is sent is not retried,
+     * since a repeated POST of a mapping without id adds the stub twice.
+     */
+    static boolean isTransient(WiremockClientException e) {
+        int statusCode = e.getStatusCode();
+        if (statusCode != 0) {
+            return statusCode == 503 || statusCode == 429;
+        }
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof ConnectTimeoutException || cause instanceof HttpConnectTimeoutException
+                    || cause instanceof NoRouteToHostException || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long openMillis = TimeUnit.NANOSECONDS.toMillis(openNanos + (state == State.OPEN ? System.nanoTime() - openedAtNanos : 0));
+        return "node " + node +
+            ": state=" + state +
+            ", successes=" + successes +
+            ", failures=" + failures +
+            ", retries=" + retries +
+            ", skipped=" + skipped +
+            ", opened=" + opened +
+            ", openMillis=" + openMillis;
+    }
+}
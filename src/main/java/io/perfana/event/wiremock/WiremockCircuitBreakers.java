@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The circuit breakers of all wiremock nodes, with a background probe that brings open nodes back.
+ */
+class WiremockCircuitBreakers {
+
+    private final Map<String, WiremockCircuitBreaker> breakers = new LinkedHashMap<>();
+    private final Map<String, WiremockClient> clients = new LinkedHashMap<>();
+    private final EventLogger logger;
+    private final ScheduledExecutorService prober;
+
+    WiremockCircuitBreakers(List<WiremockClient> clients, WiremockEventContext context, EventLogger logger) {
+        this.logger = logger;
+        for (WiremockClient client : clients) {
+            this.clients.put(client.getBaseUrl(), client);
+            breakers.put(client.getBaseUrl(), new WiremockCircuitBreaker(client.getBaseUrl(), context.getCircuitBreakerFailures(),
+                    context.getUploadRetries(), context.getUploadRetryBackoffMillis(), logger));
+        }
+        if (context.getCircuitBreakerFailures() > 0) {
+            long probeSeconds = Math.max(1, context.getCircuitBreakerProbeSeconds());
+            prober = Executors.newSingleThreadScheduledExecutor(new WiremockDispatcher.DaemonThreadFactory("wiremock-probe-"));
+            prober.scheduleWithFixedDelay(this::probeOpenNodes, probeSeconds, probeSeconds, TimeUnit.SECONDS);
+        }
+        else {
+            prober = null;
+        }
+    }
+
+    WiremockCircuitBreaker get(String node) {
+        return breakers.get(node);
+    }
+
+    private void probeOpenNodes() {
+        breakers.values().stream()
+                .filter(WiremockCircuitBreaker::isOpen)
+                .forEach(breaker -> {
+                    try {
+                        clients.get(breaker.getNode()).prewarm();
+                        breaker.probeSucceeded();
+                    } catch (Exception e) {
+                        logger.debug("probe of " + breaker.getNode() + " failed: " + e.getMessage());
+                    }
+                });
+    }
+
+    String report() {
+        StringBuilder report = new StringBuilder("wiremock node health:");
+        breakers.values().forEach(breaker -> report.append(System.lineSeparator()).append("  ").append(breaker));
+        return report.toString();
+    }
+
+    void shutdown() {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+    }
+}
@@ -16,56 +16,61 @@
 package io.perfana.event.wiremock;
 
 import io.perfana.eventscheduler.api.EventLogger;
-import org.apache.http.HttpHost;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
-class WiremockClient {
+class WiremockClient implements WiremockAsyncClient {
 
     private static final Charset CHARSET_UTF8 = StandardCharsets.UTF_8;
+    private static final ContentType CONTENT_TYPE = ContentType.create("text/plain", CHARSET_UTF8);
 
     private final HttpClient httpClient;
     private final String baseUrl;
     private final EventLogger logger;
-
-    WiremockClient(String url, EventLogger logger, boolean useProxy) {
-        this.httpClient = createHttpClient(useProxy);
+    private final WiremockMetrics metrics;
+    private volatile boolean compressUploads = false;
+
+    /**
+     * @param httpClient can be shared between the clients of multiple nodes, it is not closed by this client
+     */
+    WiremockClient(String url, EventLogger logger, HttpClient httpClient, WiremockMetrics metrics) {
+        this.httpClient = httpClient;
         this.baseUrl = url;
         this.logger = logger;
+        this.metrics = metrics;
     }
 
-    private HttpClient createHttpClient(boolean useProxy) {
-
-        HttpClientBuilder httpClientBuilder = HttpClients.custom();
-
-        if (useProxy) {
-            HttpHost httpProxy = new HttpHost("localhost", 8888);
-            DefaultProxyRoutePlanner routePlanner = new DefaultProxyRoutePlanner(httpProxy);
-            httpClientBuilder.setRoutePlanner(routePlanner);
-        }
-
-        return httpClientBuilder.build();
+    @Override
+    public String getBaseUrl() {
+        return baseUrl;
     }
 
     private static String responseToString(HttpResponse response) throws IOException {
+        if (response.getEntity() == null) {
+            return "";
+        }
         StringBuilder result = new StringBuilder(1024);
         try (BufferedReader rd = new BufferedReader(
                 new InputStreamReader(response.getEntity().getContent()))) {
@@ -79,16 +84,25 @@ class WiremockClient {
     }
 
     private HttpResponse executeRequest(HttpUriRequest request) throws IOException {
-        HttpResponse response = httpClient.execute(request);
+        HttpClientContext context = HttpClientContext.create();
+        HttpResponse response = httpClient.execute(request, context);
+        recordTime(WiremockMetrics.Phase.SEND, context.getAttribute(WiremockTimingRequestExecutor.SEND_NANOS));
+        recordTime(WiremockMetrics.Phase.SERVER_RESPONSE, context.getAttribute(WiremockTimingRequestExecutor.SERVER_RESPONSE_NANOS));
         int statusCode = response.getStatusLine().getStatusCode();
         if (statusCode < 200 || statusCode > 299) {
             String result = extractResponseBody(response);
             throw new WiremockClientException(String.format("Unexpected status code: %s for request: %s, %s",
-                    response.getStatusLine(), request, result));
+                    response.getStatusLine(), request, result), statusCode);
         }
         return response;
     }
 
+    private void recordTime(WiremockMetrics.Phase phase, Object nanos) {
+        if (nanos instanceof Long) {
+            metrics.recordTime(phase, baseUrl, (Long) nanos);
+        }
+    }
+
     private static String extractResponseBody(HttpResponse response) throws IOException {
         if (response == null) { return "null"; }
 
@@ -97,6 +111,18 @@ class WiremockClient {
     }
 
     void uploadFileWithReplacements(String fileContents, Map<String, String> replacements, String uriPath) {
+        if (replacements == null) {
+            logger.info("No replacements provided, skipping replacements.");
+        }
+
+        byte[] body = replacements == null
+                ? fileContents.getBytes(CHARSET_UTF8)
+                : WiremockTemplate.parse(fileContents).render(replacements);
+
+        upload(new WiremockPayload("contents", body), uriPath);
+    }
+
+    void upload(WiremockPayload payload, String uriPath) {
         String uri = String.format("%s%s", baseUrl, uriPath);
 
         try {
@@ -104,26 +130,141 @@ class WiremockClient {
 
             HttpPost httpPost = new HttpPost(uriBuilder.build());
 
-            if (replacements == null) {
-                logger.info("No replacements provided, skipping replacements.");
+            if (logger.isDebugEnabled()) {
+                logger.debug("About to send to " + uriPath + ": " + (payload.isStreaming() ? payload : reduceLength(payload.getBody(), 2048)));
             }
 
-            String replaced = replacements == null ? fileContents : injectReplacements(fileContents, replacements);
-
-            logger.debug("About to send to " + uriPath + ": " + reduceLength(replaced, 2048));
-
-            StringEntity data = new StringEntity(replaced, CHARSET_UTF8);
-
-            httpPost.setEntity(data);
+            HttpEntity entity = compressUploads ? payload.createCompressedEntity(CONTENT_TYPE) : payload.createEntity(CONTENT_TYPE);
+            httpPost.setEntity(entity);
 
             HttpResponse response = executeRequest(httpPost);
             String result = responseToString(response);
             logger.debug(result);
+
+            metrics.recordBytes(baseUrl, sentBytes(entity));
+
+            if (compressUploads && logger.isDebugEnabled()) {
+                logCompression(payload, entity, uriPath);
+            }
         } catch (URISyntaxException | IOException e) {
             throw new WiremockClientException("call to wiremock failed", e);
         }
     }
 
+    /**
+     * Blocking upload: the returned future is already completed.
+     */
+    @Override
+    public CompletableFuture<Void> uploadAsync(WiremockPayload payload, String uriPath) {
+        try {
+            upload(payload, uriPath);
+            return CompletableFuture.completedFuture(null);
+        } catch (WiremockClientException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void logCompression(WiremockPayload payload, HttpEntity entity, String uriPath) {
+        if (payload.isStreaming()) {
+            logger.debug(String.format("uploaded %s to %s%s: streamed gzip compressed", payload.getName(), baseUrl, uriPath));
+            return;
+        }
+        logger.debug(String.format("uploaded %s to %s%s: %d bytes, %d bytes gzip compressed",
+                payload.getName(), baseUrl, uriPath, payload.getContentLength(), sentBytes(entity)));
+    }
+
+    /**
+     * @return the bytes sent, 0 for a streamed file that is compressed while it is sent: its compressed size is not known
+     */
+    private static long sentBytes(HttpEntity entity) {
+        if (entity instanceof WiremockFileEntity) {
+            return ((WiremockFileEntity) entity).getWrittenBytes();
+        }
+        return Math.max(0, entity.getContentLength());
+    }
+
+    boolean isCompressUploads() {
+        return compressUploads;
+    }
+
+    void setCompressUploads(boolean compressUploads) {
+        this.compressUploads = compressUploads;
+    }
+
+    /**
+     * Sends a small gzip compressed request to a side effect free admin endpoint to find
+     * out if this wiremock node accepts compressed request bodies.
+     *
+     * @return true when the node accepts gzip compressed request bodies
+     */
+    boolean probeCompression() {
+        String uri = String.format("%s%s", baseUrl, "/__admin/requests/count");
+
+        try {
+            HttpPost httpPost = new HttpPost(new URIBuilder(uri).build());
+            WiremockPayload probe = new WiremockPayload("compression-probe", "{ \"method\": \"ANY\" }".getBytes(CHARSET_UTF8));
+            httpPost.setEntity(probe.createCompressedEntity(ContentType.APPLICATION_JSON));
+            // a node that does not understand the compressed body might not read it: do not reuse this connection
+            httpPost.setHeader("Connection", "close");
+            HttpResponse response = httpClient.execute(httpPost);
+            int statusCode = response.getStatusLine().getStatusCode();
+            String result = response.getEntity() == null ? "" : extractResponseBody(response);
+            logger.debug("compression probe result " + baseUrl + ": " + response.getStatusLine() + " " + result);
+            return statusCode >= 200 && statusCode <= 299 && result.contains("count");
+        } catch (URISyntaxException | IOException e) {
+            logger.warn("compression probe to " + baseUrl + " failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Opens a connection to the wiremock node with a light-weight admin call, so the first event does not have to.
+     */
+    void prewarm() {
+        String uri = String.format("%s%s", baseUrl, "/__admin/mappings?limit=1");
+
+        try {
+            HttpGet httpGet = new HttpGet(new URIBuilder(uri).build());
+            HttpResponse response = executeRequest(httpGet);
+            EntityUtils.consume(response.getEntity());
+        } catch (URISyntaxException | IOException e) {
+            throw new WiremockClientException("prewarm call to wiremock failed", e);
+        }
+    }
+
+    /**
+     * @return the body of an admin GET call, such as all mappings or the settings
+     */
+    String getAdmin(String uriPath) {
+        String uri = String.format("%s%s", baseUrl, uriPath);
+
+        try {
+            HttpGet httpGet = new HttpGet(new URIBuilder(uri).build());
+            HttpResponse response = executeRequest(httpGet);
+            return EntityUtils.toString(response.getEntity(), CHARSET_UTF8);
+        } catch (URISyntaxException | IOException e) {
+            throw new WiremockClientException("get call to wiremock failed", e);
+        }
+    }
+
+    /**
+     * Call a stub, not an admin endpoint, and measure the time until the complete response is received.
+     * @return the response time in nanos
+     */
+    long timeStubCall(String path) {
+        String uri = String.format("%s%s", baseUrl, path);
+
+        try {
+            HttpGet httpGet = new HttpGet(new URIBuilder(uri).build());
+            long startNanos = System.nanoTime();
+            HttpResponse response = httpClient.execute(httpGet);
+            EntityUtils.consume(response.getEntity());
+            return System.nanoTime() - startNanos;
+        } catch (URISyntaxException | IOException e) {
+            throw new WiremockClientException("stub call to wiremock failed", e);
+        }
+    }
+
     void deleteAllAtPath(String uriPath) {
         String uri = String.format("%s%s", baseUrl, uriPath);
 
@@ -142,22 +283,72 @@ class WiremockClient {
         }
     }
 
-    private static String reduceLength(String text, int maxLength) {
-        if (text.length() > maxLength) {
-            return text.substring(0, maxLength) + "...";
+    /**
+     * Switch a wiremock scenario to a new state by calling a staged switch stub: a 404 means the stub is not staged.
+     */
+    void switchScenario(String switchPath) {
+        String uri = String.format("%s%s", baseUrl, switchPath);
+
+        try {
+            HttpPut httpPut = new HttpPut(new URIBuilder(uri).build());
+            HttpResponse response = executeRequest(httpPut);
+            EntityUtils.consume(response.getEntity());
+        } catch (URISyntaxException | IOException e) {
+            throw new WiremockClientException("switch scenario call to wiremock failed", e);
+        }
+    }
+
+    /**
+     * @return the number of requests in the request journal of the node
+     */
+    long countRequests() {
+        String uri = String.format("%s%s", baseUrl, "/__admin/requests/count");
+
+        try {
+            HttpPost httpPost = new HttpPost(new URIBuilder(uri).build());
+            httpPost.setEntity(new ByteArrayEntity("{ \"method\": \"ANY\" }".getBytes(CHARSET_UTF8), ContentType.APPLICATION_JSON));
+            HttpResponse response = executeRequest(httpPost);
+            try (InputStream in = response.getEntity().getContent()) {
+                return WiremockMappings.parse(in).path("count").asLong();
+            }
+        } catch (URISyntaxException | IOException e) {
+            throw new WiremockClientException("count requests call to wiremock failed", e);
         }
-        return text;
     }
 
-    private String injectReplacements(String fileContents, Map<String, String> replacements) {
-        return replacements.entrySet().stream()
-                .map(token -> (Function<String, String>) s -> replaceAllTokensInString(s, token))
-                .reduce(Function.identity(), Function::andThen)
-                .apply(fileContents);
+    /**
+     * Empty the request journal of the node.
+     */
+    void resetRequests() {
+        String uri = String.format("%s%s", baseUrl, "/__admin/requests");
+
+        try {
+            HttpDelete httpDelete = new HttpDelete(new URIBuilder(uri).build());
+            HttpResponse response = executeRequest(httpDelete);
+            EntityUtils.consume(response.getEntity());
+        } catch (URISyntaxException | IOException e) {
+            throw new WiremockClientException("reset requests call to wiremock failed", e);
+        }
+    }
+
+    void deleteMapping(String id) {
+        String uri = String.format("%s/__admin/mappings/%s", baseUrl, id);
+
+        try {
+            HttpDelete httpDelete = new HttpDelete(new URIBuilder(uri).build());
+            logger.debug("About to delete mapping " + id);
+
+            HttpResponse response = executeRequest(httpDelete);
+            EntityUtils.consume(response.getEntity());
+        } catch (URISyntaxException | IOException e) {
+            throw new WiremockClientException("delete mapping call to wiremock failed", e);
+        }
     }
 
-    private String replaceAllTokensInString(String text, Map.Entry<String, String> token) {
-        String replacement = token.getValue() == null ? "null" : token.getValue();
-        return text.replaceAll("\\$\\{" + token.getKey() + "}", replacement);
+    private static String reduceLength(byte[] body, int maxLength) {
+        if (body.length > maxLength) {
+            return new String(body, 0, maxLength, CHARSET_UTF8) + "...";
+        }
+        return new String(body, CHARSET_UTF8);
     }
 }
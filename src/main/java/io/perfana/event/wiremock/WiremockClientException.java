@@ -16,11 +16,28 @@
 package io.perfana.event.wiremock;
 
 public class WiremockClientException extends RuntimeException {
+
+    private final int statusCode;
+
     public WiremockClientException(String message) {
         super(message);
+        this.statusCode = 0;
     }
 
     public WiremockClientException(String message, Throwable cause) {
         super(message, cause);
+        this.statusCode = 0;
+    }
+
+    public WiremockClientException(String message, int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @return the http status code of the wiremock response, or 0 when there was no response
+     */
+    public int getStatusCode() {
+        return statusCode;
     }
 }
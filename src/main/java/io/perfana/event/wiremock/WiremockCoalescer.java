@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Collects the mapping and import events that arrive within a short window and merges them into
+ * one import, so each node gets one request per window instead of one request per file per event.
+ * For the same mapping (same id, or else the same request) the latest event wins.
+ */
+class WiremockCoalescer {
+
+    private final long windowMillis;
+    private final Consumer<Batch> flush;
+    private final EventLogger logger;
+    private final ScheduledExecutorService scheduler;
+    private List<Change> pending;
+
+    WiremockCoalescer(long windowMillis, Consumer<Batch> flush, EventLogger logger) {
+        this.windowMillis = windowMillis;
+        this.flush = flush;
+        this.logger = logger;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new WiremockDispatcher.DaemonThreadFactory("wiremock-coalesce-"));
+    }
+
+    /**
+     * @return false when the change cannot be merged (streamed files) and should be sent directly
+     */
+    boolean add(String description, Duration scheduledDelay, List<WiremockPayload> payloads, Map<String, String> settings) {
+        if (payloads.stream().anyMatch(WiremockPayload::isStreaming)) {
+            return false;
+        }
+        synchronized (this) {
+            if (pending == null) {
+                pending = new ArrayList<>();
+                scheduler.schedule(this::flushPending, windowMillis, TimeUnit.MILLISECONDS);
+            }
+            pending.add(new Change(description, scheduledDelay, payloads, settings));
+        }
+        return true;
+    }
+
+    private void flushPending() {
+        List<Change> changes;
+        synchronized (this) {
+            changes = pending;
+            pending = null;
+        }
+        if (changes == null || changes.isEmpty()) {
+            return;
+        }
+        try {
+            Batch batch = merge(changes);
+            logger.info(String.format("coalesced %d event(s) into one import of %d mapping(s): %s",
+                    changes.size(), batch.mappingCount, batch.description));
+            flush.accept(batch);
+        } catch (Exception e) {
+            logger.error("coalesced import failed: " + e.getMessage());
+        }
+    }
+
+    static Batch merge(List<Change> changes) {
+        List<WiremockPayload> payloads = changes.stream()
+                .flatMap(change -> change.payloads.stream())
+                .collect(Collectors.toList());
+        ObjectNode merged = WiremockMappings.merge(payloads, false);
+
+        String description = changes.stream().map(change -> change.description).collect(Collectors.joining(", "));
+        String name = payloads.stream()
+                .map(WiremockPayload::getName)
+                .distinct()
+                .collect(Collectors.joining("+"));
+        WiremockPayload payload = new WiremockPayload(name, WiremockMappings.toBytes(merged));
+        Change first = changes.get(0);
+        Change last = changes.get(changes.size() - 1);
+        return new Batch(description, first.scheduledDelay, payload, last.settings, merged.get(WiremockMappings.MAPPINGS).size());
+    }
+
+    /**
+     * Send the pending changes now and wait until they are sent, also when a flush is already running.
+     * Call before a change that bypasses the window is sent, so the older buffered changes do not overwrite it.
+     * Must not be called from the flush callback.
+     */
+    void flush() {
+        try {
+            // the single scheduler thread runs the flushes in order, so this also waits for a running flush
+            scheduler.submit(this::flushPending).get(windowMillis + TimeUnit.MINUTES.toMillis(1), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("flush of coalesced events interrupted");
+        } catch (Exception e) {
+            logger.warn("flush of coalesced events failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Send the pending changes now, then stop.
+     */
+    void close() {
+        flush();
+        scheduler.shutdownNow();
+    }
+
+    static class Change {
+        private final String description;
+        private final Duration scheduledDelay;
+        private final List<WiremockPayload> payloads;
+        private final Map<String, String> settings;
+
+        Change(String description, Duration scheduledDelay, List<WiremockPayload> payloads, Map<String, String> settings) {
+            this.description = description;
+            this.scheduledDelay = scheduledDelay;
+            this.payloads = payloads;
+            this.settings = settings;
+        }
+    }
+
+    static class Batch {
+        private final String description;
+        private final Duration scheduledDelay;
+        private final WiremockPayload payload;
+        private final Map<String, String> settings;
+        private final int mappingCount;
+
+        private Batch(String description, Duration scheduledDelay, WiremockPayload payload, Map<String, String> settings, int mappingCount) {
+            this.description = description;
+            this.scheduledDelay = scheduledDelay;
+            this.payload = payload;
+            this.settings = settings;
+            this.mappingCount = mappingCount;
+        }
+
+        String getDescription() {
+            return description;
+        }
+
+        /**
+         * @return the scheduled delay of the first event in the batch
+         */
+        Duration getScheduledDelay() {
+            return scheduledDelay;
+        }
+
+        List<WiremockPayload> getPayloads() {
+            return Collections.singletonList(payload);
+        }
+
+        /**
+         * @return the settings of the last event in the batch
+         */
+        Map<String, String> getSettings() {
+            return settings;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A value (such as a delay) as a function of the time since the start of the curve: a ramp, 
+ * staircase steps, a sine wave or (repeated) spikes.
+ */
+class WiremockCurve {
+
+    enum Shape { RAMP, STEP, SINE, SPIKE }
+
+    static final Set<String> KEYS = Set.of("shape", "from", "to", "duration", "period", "steps", "repeat");
+
+    private final Shape shape;
+    private final double from;
+    private final double to;
+    private final long durationMillis;
+    private final long periodMillis;
+    private final int steps;
+    private final int repeat;
+
+    private WiremockCurve(Shape shape, double from, double to, long durationMillis, long periodMillis, int steps, int repeat) {
+        this.shape = shape;
+        this.from = from;
+        this.to = to;
+        this.durationMillis = durationMillis;
+        this.periodMillis = periodMillis;
+        this.steps = steps;
+        this.repeat = repeat;
+    }
+
+    /**
+     * Create a curve from <code>shape</code>, <code>from</code>, <code>to</code>, <code>duration</code> and,
+     * depending on the shape, <code>period</code>, <code>steps</code> and <code>repeat</code>.
+     * For a sine <code>from</code> and <code>to</code> are the minimum and maximum, for a spike the baseline and the peak.
+     */
+    static WiremockCurve parse(Map<String, String> spec) {
+        Shape shape = parseShape(required(spec, "shape"));
+        double from = parseNumber(spec, "from", required(spec, "from"));
+        double to = parseNumber(spec, "to", required(spec, "to"));
+        long durationMillis = parseDuration(spec, "duration", required(spec, "duration"));
+        long periodMillis = spec.containsKey("period") ? parseDuration(spec, "period", spec.get("period")) : 0;
+        int steps = spec.containsKey("steps") ? (int) parseNumber(spec, "steps", spec.get("steps")) : 0;
+        int repeat = spec.containsKey("repeat") ? (int) parseNumber(spec, "repeat", spec.get("repeat")) : 1;
+
+        if (durationMillis <= 0) {
+            throw new WiremockEventException("duration must be positive in " + spec);
+        }
+        if (shape == Shape.SINE && periodMillis <= 0) {
+            throw new WiremockEventException("sine needs a positive period in " + spec);
+        }
+        if (shape == Shape.STEP && steps <= 0) {
+            throw new WiremockEventException("step needs a positive number of steps in " + spec);
+        }
+        if (shape == Shape.SPIKE) {
+            if (repeat <= 0) {
+                throw new WiremockEventException("spike needs a positive repeat in " + spec);
+            }
+            if (repeat > 1 && periodMillis <= durationMillis) {
+                throw new WiremockEventException("repeated spike needs a period longer than the duration in " + spec);
+            }
+        }
+        return new WiremockCurve(shape, from, to, durationMillis, periodMillis, steps, repeat);
+    }
+
+    /**
+     * @return the value at this many millis since the start of the curve
+     */
+    double valueAt(long millis) {
+        long t = Math.max(0, millis);
+        switch (shape) {
+            case RAMP:
+                return from + (to - from) * Math.min(1.0, (double) t / durationMillis);
+            case STEP:
+                long level = Math.min(steps, t * steps / durationMillis);
+                return from + (to - from) * level / steps;
+            case SINE:
+                double mid = (from + to) / 2;
+                double amplitude = (to - from) / 2;
+                return mid + amplitude * Math.sin(2 * Math.PI * t / periodMillis);
+            case SPIKE:
+                long spikeIndex = repeat == 1 ? 0 : t / periodMillis;
+                long inSpike = repeat == 1 ? t : t % periodMillis;
+                return spikeIndex < repeat && inSpike < durationMillis ? to : from;
+            default:
+                throw new IllegalStateException("unknown shape " + shape);
+        }
+    }
+
+    /**
+     * @return the number of value changes, each at {@link #changeAt(long, long)}
+     */
+    long changes(long stepMillis) {
+        switch (shape) {
+            case STEP:
+                return steps + 1L;
+            case SPIKE:
+                return 2L * repeat;
+            default:
+                return (durationMillis + stepMillis - 1) / stepMillis + 1;
+        }
+    }
+
+    /**
+     * @return the millis since the start of the curve of change number <code>index</code>
+     */
+    long changeAt(long index, long stepMillis) {
+        switch (shape) {
+            case STEP:
+                return index * durationMillis / steps;
+            case SPIKE:
+                return (index / 2) * periodMillis + (index % 2 == 0 ? 0 : durationMillis);
+            default:
+                return Math.min(index * stepMillis, durationMillis);
+        }
+    }
+
+    Shape getShape() {
+        return shape;
+    }
+
+    long getDurationMillis() {
+        return shape == Shape.SPIKE && repeat > 1 ? (repeat - 1) * periodMillis + durationMillis : durationMillis;
+    }
+
+    private static Shape parseShape(String name) {
+        try {
+            return Shape.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new WiremockEventException("unknown shape: " + name + ", use ramp, step, sine or spike");
+        }
+    }
+
+    private static String required(Map<String, String> spec, String key) {
+        String value = spec.get(key);
+        if (value == null || value.isEmpty()) {
+            throw new WiremockEventException("missing " + key + " in " + spec);
+        }
+        return value;
+    }
+
+    static double parseNumber(Map<String, String> spec, String key, String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new WiremockEventException("not a number: " + key + "=" + value + " in " + spec);
+        }
+    }
+
+    static long parseDuration(Map<String, String> spec, String key, String value) {
+        try {
+            return Duration.parse(value).toMillis();
+        } catch (DateTimeParseException e) {
+            throw new WiremockEventException("not an ISO duration (e.g. PT2S): " + key + "=" + value + " in " + spec);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return shape.name().toLowerCase(Locale.ROOT) + " from " + from + " to " + to + " over " + durationMillis + " ms";
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Delta uploads: remembers per wiremock node the last pushed version of each mapping (by id or uuid),
+ * so only the mappings that changed since the previous event are sent.
+ */
+class WiremockDeltaTracker {
+
+    /** node url to mapping id to hash of the last successfully pushed version */
+    private final Map<String, Map<String, String>> pushed = new ConcurrentHashMap<>();
+
+    /**
+     * Parse and hash a payload once, before it is compared for each node.
+     */
+    Prepared prepare(WiremockPayload payload, boolean isImport) {
+        JsonNode root = WiremockMappings.parse(payload.getBody());
+        List<ObjectNode> mappings = WiremockMappings.mappings(root);
+        List<String> ids = new ArrayList<>(mappings.size());
+        List<String> hashes = new ArrayList<>(mappings.size());
+        for (ObjectNode mapping : mappings) {
+            ids.add(WiremockMappings.id(mapping));
+            hashes.add(WiremockMappings.hash(mapping));
+        }
+        return new Prepared(payload, isImport, root, mappings, ids, hashes);
+    }
+
+    /**
+     * @return the changes for this node, based on what was pushed to this node before
+     */
+    Delta delta(String node, Prepared prepared) {
+        Map<String, String> nodePushed = pushed.getOrDefault(node, Collections.emptyMap());
+
+        Set<Integer> changed = new TreeSet<>();
+        Map<String, String> updates = new HashMap<>();
+        for (int i = 0; i < prepared.mappings.size(); i++) {
+            String id = prepared.ids.get(i);
+            String hash = prepared.hashes.get(i);
+            if (id == null) {
+                changed.add(i);
+            }
+            else if (!hash.equals(nodePushed.get(id))) {
+                changed.add(i);
+                updates.put(id, hash);
+            }
+        }
+
+        if (changed.isEmpty()) {
+            return new Delta(null, updates, 0, prepared.mappings.size());
+        }
+        if (changed.size() == prepared.mappings.size() || !prepared.isImport) {
+            return new Delta(prepared.payload, updates, changed.size(), prepared.mappings.size());
+        }
+        return new Delta(prepared.trimmed(changed), updates, changed.size(), prepared.mappings.size());
+    }
+
+    /**
+     * Call after a successful upload of the delta to the node.
+     */
+    void commit(String node, Delta delta) {
+        pushed.computeIfAbsent(node, k -> new ConcurrentHashMap<>()).putAll(delta.updates);
+    }
+
+    void forget(String node) {
+        pushed.remove(node);
+    }
+
+    void clear() {
+        pushed.clear();
+    }
+
+    static class Prepared {
+        private final WiremockPayload payload;
+        private final boolean isImport;
+        private final JsonNode root;
+        private final List<ObjectNode> mappings;
+        private final List<String> ids;
+        private final List<String> hashes;
+        /** the same trimmed import is rendered once for all nodes that need it */
+        private final Map<Set<Integer>, WiremockPayload> trimmed = new ConcurrentHashMap<>();
+
+        private Prepared(WiremockPayload payload, boolean isImport, JsonNode root, List<ObjectNode> mappings, List<String> ids, List<String> hashes) {
+            this.payload = payload;
+            this.isImport = isImport;
+            this.root = root;
+            this.mappings = mappings;
+            this.ids = ids;
+            this.hashes = hashes;
+        }
+
+        private WiremockPayload trimmed(Set<Integer> changed) {
+            return trimmed.computeIfAbsent(changed, indexes -> {
+                List<ObjectNode> selection = new ArrayList<>(indexes.size());
+                indexes.forEach(index -> selection.add(mappings.get(index)));
+                return new WiremockPayload(payload.getName(), WiremockMappings.toImport(selection, trimmedImportOptions()));
+            });
+        }
+
+        /**
+         * A trimmed import must never delete the unchanged mappings that are left out.
+         */
+        private JsonNode trimmedImportOptions() {
+            JsonNode options = root.get(WiremockMappings.IMPORT_OPTIONS);
+            if (options == null || !options.isObject()) {
+                return null;
+            }
+            ObjectNode trimmedOptions = options.deepCopy();
+            trimmedOptions.put("deleteAllNotInImport", false);
+            return trimmedOptions;
+        }
+
+        WiremockPayload getPayload() {
+            return payload;
+        }
+
+        /**
+         * @return true for an import that replaces all mappings, which cannot be trimmed to the changed mappings
+         */
+        boolean isReplacing() {
+            return isImport && WiremockMappings.isReplacingImport(root);
+        }
+    }
+
+    static class Delta {
+        private final WiremockPayload payload;
+        private final Map<String, String> updates;
+        private final int changed;
+        private final int total;
+
+        private Delta(WiremockPayload payload, Map<String, String> updates, int changed, int total) {
+            this.payload = payload;
+            this.updates = updates;
+            this.changed = changed;
+            this.total = total;
+        }
+
+        /**
+         * @return the payload to send, or null when nothing changed for this node
+         */
+        WiremockPayload getPayload() {
+            return payload;
+        }
+
+        boolean isUnchanged() {
+            return payload == null;
+        }
+
+        int getChanged() {
+            return changed;
+        }
+
+        int getTotal() {
+            return total;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Runs the same piece of work against all wiremock nodes at once, on a bounded
+ * thread pool, and waits for all nodes until the event deadline has passed.
+ */
+class WiremockDispatcher {
+
+    private static final Duration MAX_READY_WAIT = Duration.ofSeconds(2);
+
+    private final List<WiremockClient> clients;
+    private final ExecutorService executor;
+    private final Duration eventDeadline;
+    private final EventLogger logger;
+
+    WiremockDispatcher(List<WiremockClient> clients, int parallelism, Duration eventDeadline, EventLogger logger) {
+        this.clients = clients;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), new DaemonThreadFactory("wiremock-dispatch-"));
+        this.eventDeadline = eventDeadline;
+        this.logger = logger;
+    }
+
+    List<WiremockNodeResult> dispatch(String description, BiConsumer<WiremockClient, WiremockNodeResult> work) {
+        return dispatch(description, clients, work, false);
+    }
+
+    /**
+     * Like dispatch, for the given nodes only, e.g. the nodes of a group.
+     */
+    List<WiremockNodeResult> dispatch(String description, List<WiremockClient> targets, BiConsumer<WiremockClient, WiremockNodeResult> work) {
+        return dispatch(description, targets, work, false);
+    }
+
+    /**
+     * Like dispatch, but the work on all nodes is released at the same instant, once all nodes
+     * have a thread ready. When there are fewer threads than nodes, the remaining nodes follow as soon as possible.
+     */
+    List<WiremockNodeResult> dispatchAtOnce(String description, List<WiremockClient> targets, BiConsumer<WiremockClient, WiremockNodeResult> work) {
+        return dispatch(description, targets, work, true);
+    }
+
+    private List<WiremockNodeResult> dispatch(String description, List<WiremockClient> targets,
+                                              BiConsumer<WiremockClient, WiremockNodeResult> work, boolean atOnce) {
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + eventDeadline.toNanos();
+
+        List<WiremockNodeResult> results = new ArrayList<>(targets.size());
+        List<Future<?>> futures = new ArrayList<>(targets.size());
+        CountDownLatch ready = new CountDownLatch(atOnce ? targets.size() : 0);
+        CountDownLatch go = new CountDownLatch(atOnce ? 1 : 0);
+
+        for (WiremockClient client : targets) {
+            WiremockNodeResult result = new WiremockNodeResult(client.getBaseUrl());
+            results.add(result);
+            futures.add(executor.submit(() -> {
+                ready.countDown();
+                long nodeStartNanos = System.nanoTime();
+                try {
+                    go.await();
+                    nodeStartNanos = System.nanoTime();
+                    work.accept(client, result);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result.failed(e);
+                } catch (Exception e) {
+                    result.failed(e);
+                } finally {
+                    result.completed(System.nanoTime() - nodeStartNanos);
+                }
+            }));
+        }
+
+        if (atOnce) {
+            awaitReady(ready);
+            go.countDown();
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            Future<?> future = futures.get(i);
+            WiremockNodeResult result = results.get(i);
+            try {
+                future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException | CancellationException e) {
+                future.cancel(true);
+                result.timedOut();
+            } catch (ExecutionException e) {
+                result.failed(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new WiremockEventException("interrupted while waiting for wiremock nodes: " + description, e);
+            }
+        }
+
+        return report(description, results, startNanos);
+    }
+
+    /**
+     * Start the work for all nodes from the calling thread, the work returns a future per node
+     * instead of blocking a thread. Waits for all nodes until the event deadline has passed.
+     */
+    List<WiremockNodeResult> dispatchAsync(String description, List<? extends WiremockAsyncClient> asyncClients,
+                                           BiFunction<WiremockAsyncClient, WiremockNodeResult, CompletableFuture<?>> work) {
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + eventDeadline.toNanos();
+
+        List<WiremockNodeResult> results = new ArrayList<>(asyncClients.size());
+        List<CompletableFuture<?>> futures = new ArrayList<>(asyncClients.size());
+
+        for (WiremockAsyncClient client : asyncClients) {
+            WiremockNodeResult result = new WiremockNodeResult(client.getBaseUrl());
+            results.add(result);
+            long nodeStartNanos = System.nanoTime();
+            CompletableFuture<?> future;
+            try {
+                future = work.apply(client, result);
+            } catch (Exception e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            futures.add(future.whenComplete((ignore, error) -> {
+                if (error != null) {
+                    result.failed(error instanceof CompletionException && error.getCause() instanceof Exception
+                            ? (Exception) error.getCause()
+                            : new WiremockClientException("upload failed", error));
+                }
+                result.completed(System.nanoTime() - nodeStartNanos);
+            }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException | CancellationException e) {
+                futures.get(i).cancel(true);
+                results.get(i).timedOut();
+            } catch (ExecutionException e) {
+                // already recorded in the result
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new WiremockEventException("interrupted while waiting for wiremock nodes: " + description, e);
+            }
+        }
+
+        return report(description, results, startNanos);
+    }
+
+    List<WiremockNodeResult> report(String description, List<WiremockNodeResult> results, long startNanos) {
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        results.forEach(result -> logResult(description, result));
+        logger.info(String.format("%s: dispatched to %d node(s) in %d ms", description, results.size(), durationMillis));
+        return results;
+    }
+
+    private void awaitReady(CountDownLatch ready) {
+        try {
+            if (!ready.await(MAX_READY_WAIT.toMillis(), TimeUnit.MILLISECONDS)) {
+                logger.warn("not all wiremock nodes have a dispatch thread ready, increase dispatchParallelism for a simultaneous switch");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void logResult(String description, WiremockNodeResult result) {
+        if (result.isSuccess()) {
+            logger.info(description + ": " + result);
+        }
+        else {
+            logger.error(description + ": " + result);
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
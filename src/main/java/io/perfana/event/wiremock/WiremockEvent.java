@@ -17,14 +17,30 @@ package io.perfana.event.wiremock;
 
 import io.perfana.eventscheduler.api.CustomEvent;
 import io.perfana.eventscheduler.api.EventAdapter;
+import io.perfana.eventscheduler.api.EventCheck;
 import io.perfana.eventscheduler.api.EventLogger;
+import io.perfana.eventscheduler.api.EventStatus;
 import io.perfana.eventscheduler.api.config.TestContext;
 import io.perfana.eventscheduler.api.message.EventMessageBus;
+import org.apache.http.impl.client.CloseableHttpClient;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.collectingAndThen;
@@ -34,14 +50,54 @@ public class WiremockEvent extends EventAdapter<WiremockEventContext> {
     public static final String EVENT_WIREMOCK_CHANGE_MAPPINGS = "wiremock-change-mappings";
     public static final String EVENT_WIREMOCK_CHANGE_SETTINGS = "wiremock-change-settings";
     public static final String EVENT_WIREMOCK_CHANGE_IMPORT = "wiremock-change-import";
+    public static final String EVENT_WIREMOCK_MODULATE = "wiremock-modulate";
+    public static final String EVENT_WIREMOCK_RESET_REQUESTS = "wiremock-reset-requests";
 
-    private static final Set<String> ALLOWED_CUSTOM_EVENTS =
+    static final Set<String> CHANGE_EVENTS =
             setOf(EVENT_WIREMOCK_CHANGE_MAPPINGS, EVENT_WIREMOCK_CHANGE_SETTINGS, EVENT_WIREMOCK_CHANGE_IMPORT);
+    private static final Set<String> ALLOWED_CUSTOM_EVENTS =
+            setOf(EVENT_WIREMOCK_CHANGE_MAPPINGS, EVENT_WIREMOCK_CHANGE_SETTINGS, EVENT_WIREMOCK_CHANGE_IMPORT, EVENT_WIREMOCK_MODULATE,
+                    EVENT_WIREMOCK_RESET_REQUESTS);
     public static final String MAPPINGS_URI = "/__admin/mappings";
     public static final String MAPPINGS_IMPORT_URI = "/__admin/mappings/import";
     public static final String ADMIN_SETTINGS_URI = "/__admin/settings";
+    static final String SETTING_REPLACE = "replace";
+    static final String SETTING_CAPTURE = "capture";
+
+    private static final long REPUSH_QUIET_MILLIS = 500;
+    private static final String CHECK_NAME = "WiremockVerification";
 
+    private CloseableHttpClient httpClient;
     private List<WiremockClient> clients;
+    private List<String> nodeUrls;
+    private WiremockNodeGroups nodeGroups;
+    private ExecutorService asyncExecutor;
+    private List<WiremockJdkAsyncClient> asyncClients;
+    private WiremockDispatcher dispatcher;
+    private WiremockCircuitBreakers circuitBreakers;
+    private WiremockTemplateCache templateCache;
+    private WiremockSharedRegistry.Lease<WiremockSharedRegistry.Content> sharedContent;
+    private WiremockSharedRegistry.Lease<CloseableHttpClient> sharedHttpClient;
+    private WiremockPayloadFactory payloadFactory;
+    private WiremockPreloader preloader;
+    private WiremockDeltaTracker deltaTracker;
+    private WiremockTwoPhaseApply twoPhaseApply;
+    private ExecutorService twoPhaseStager;
+    private final Map<String, StagedAhead> stagedAhead = new ConcurrentHashMap<>();
+    private WiremockModulator modulator;
+    private WiremockFileIndex fileIndex;
+    private WiremockBundle bundle;
+    private WiremockVerifier verifier;
+    private WiremockCoalescer coalescer;
+    private WiremockChunkedImport chunkedImport;
+    private WiremockJournal journal;
+    private WiremockRequestJournal requestJournal;
+    private WiremockQueuedDispatch queuedDispatch;
+    private ScheduledExecutorService repushScheduler;
+    private ScheduledFuture<?> pendingRepush;
+    private volatile ActiveDirectory activeDirectory;
+    private WiremockMetrics metrics;
+    private volatile long testStartMillis;
     private File rootDir;
     
     public WiremockEvent(WiremockEventContext eventConfig, TestContext testContext, EventMessageBus messageBus, EventLogger logger) {
@@ -52,44 +108,413 @@ public class WiremockEvent extends EventAdapter<WiremockEventContext> {
     public void beforeTest() {
         logger.info("before test [" + testContext.getTestRunId() + "]");
 
+        // replaced by the actual start in startTest, when called
+        testStartMillis = System.currentTimeMillis();
+        metrics = createMetrics(eventContext.getMetricsClass());
+
         String filesDir = eventContext.getWiremockFilesDir();
-        if (filesDir == null) {
+        String bundleFile = eventContext.getWiremockBundle();
+        if (bundleFile == null && filesDir == null) {
             throw new WiremockEventException("wiremock files dir is not set");
         }
-        rootDir = new File(filesDir);
-        if (!rootDir.exists()) {
+        if (eventContext.isShareResources()) {
+            String source = (bundleFile != null ? "bundle " + new File(bundleFile).getAbsolutePath() : new File(filesDir).getAbsolutePath())
+                    + " streaming " + eventContext.getStreamingThresholdBytes();
+            sharedContent = WiremockSharedRegistry.get().content(source, () ->
+                    new WiremockSharedRegistry.Content(bundleFile == null ? null : WiremockBundle.open(new File(bundleFile))));
+            bundle = sharedContent.get().getBundle();
+            templateCache = sharedContent.get().getTemplateCache();
+        }
+        else {
+            bundle = bundleFile == null ? null : WiremockBundle.open(new File(bundleFile));
+            templateCache = new WiremockTemplateCache();
+        }
+        if (bundle != null) {
+            logger.info("serving wiremock files from " + bundle);
+        }
+        rootDir = bundle != null ? null : new File(filesDir);
+        if (rootDir != null && !rootDir.exists()) {
             throw new WiremockEventException(String.format("directory not found: %s", rootDir));
         }
 
-        String wiremockUrl = eventContext.getWiremockUrl();
-        boolean useProxy = eventContext.isUseProxy();
+        nodeGroups = WiremockNodeGroups.parse(eventContext.getWiremockGroups());
+        nodeUrls = nodeGroups.allUrls(eventContext.getWiremockUrl());
 
-        if (wiremockUrl == null) {
+        if (nodeUrls.isEmpty()) {
             throw new WiremockEventException("wiremock url is not set");
         }
-        clients = Arrays.stream(wiremockUrl.split(","))
-                .map(url -> new WiremockClient(url, logger, useProxy))
+        if (eventContext.isShareResources()) {
+            sharedHttpClient = WiremockSharedRegistry.get().httpClient(eventContext, nodeUrls);
+            httpClient = sharedHttpClient.get();
+        }
+        else {
+            httpClient = WiremockHttpClientFactory.create(eventContext);
+        }
+        clients = nodeUrls.stream()
+                .map(url -> new WiremockClient(url, logger, httpClient, metrics))
+                .collect(collectingAndThen(Collectors.toList(), Collections::unmodifiableList));
+
+        int parallelism = eventContext.getDispatchParallelism() > 0 ? eventContext.getDispatchParallelism() : clients.size();
+        Duration eventDeadline = Duration.ofSeconds(eventContext.getEventDeadlineSeconds());
+        dispatcher = new WiremockDispatcher(clients, parallelism, eventDeadline, logger);
+        circuitBreakers = new WiremockCircuitBreakers(clients, eventContext, logger);
+
+        if (eventContext.isCompressUploads()) {
+            dispatcher.dispatch("probe gzip compression", (client, result) -> {
+                boolean accepted = client.probeCompression();
+                client.setCompressUploads(accepted);
+                logger.info("wiremock node " + client.getBaseUrl() + (accepted
+                        ? " accepts gzip compressed uploads"
+                        : " does not accept gzip compressed uploads, sending uncompressed"));
+                result.uploaded();
+            });
+        }
+
+        if (eventContext.isAsyncClient()) {
+            createAsyncClients();
+        }
+
+        if (eventContext.isPrewarmConnections()) {
+            dispatcher.dispatch("prewarm connections", (client, result) -> {
+                client.prewarm();
+                result.uploaded();
+            });
+        }
+
+        requestJournal = new WiremockRequestJournal(dispatcher, eventDeadline, eventContext.isRequestJournalCapture(),
+                eventContext.getRequestJournalMaxEntries(), logger);
+        if (eventContext.isRequestJournalResetBeforeTest()) {
+            failOnUploadError(requestJournal.reset("reset request journal", clients, false, 0));
+        }
+        if (eventContext.getRequestJournalResetSeconds() > 0 || eventContext.getRequestJournalMaxEntries() > 0) {
+            requestJournal.start(clients, eventContext.getRequestJournalResetSeconds() > 0
+                    ? eventContext.getRequestJournalResetSeconds()
+                    : WiremockRequestJournal.DEFAULT_CHECK_SECONDS);
+        }
+
+        if (eventContext.isDeltaUploads()) {
+            deltaTracker = new WiremockDeltaTracker();
+        }
+
+        if (eventContext.isQueuedDispatch()) {
+            queuedDispatch = new WiremockQueuedDispatch(logger);
+        }
+
+        if (eventContext.isVerifyChanges()) {
+            verifier = new WiremockVerifier(eventContext, metrics, logger);
+        }
+
+        if (eventContext.getImportChunkSize() > 0) {
+            chunkedImport = new WiremockChunkedImport(eventContext.getImportChunkSize(), eventContext.getImportChunkInFlight(),
+                    eventDeadline, dispatcher, metrics, logger);
+        }
+
+        if (eventContext.getCoalesceWindowMillis() > 0) {
+            coalescer = new WiremockCoalescer(eventContext.getCoalesceWindowMillis(), this::applyCoalesced, logger);
+        }
+
+        if (eventContext.isTwoPhaseApply()) {
+            twoPhaseApply = new WiremockTwoPhaseApply(eventContext.getName());
+        }
+
+        if (eventContext.isIndexFiles() && bundle != null) {
+            logger.warn("indexFiles is ignored, the wiremock files are served from " + bundle);
+        }
+        else if (eventContext.isIndexFiles()) {
+            fileIndex = new WiremockFileIndex(rootDir, eventContext.getStreamingThresholdBytes(),
+                    TimeUnit.SECONDS.toMillis(eventContext.getIndexRescanSeconds()), logger);
+            fileIndex.start();
+            fileIndex.addListener(this::filesChanged);
+            if (eventContext.isRepushOnChange()) {
+                repushScheduler = Executors.newSingleThreadScheduledExecutor(new WiremockDispatcher.DaemonThreadFactory("wiremock-repush-"));
+            }
+        }
+
+        payloadFactory = new WiremockPayloadFactory(rootDir, templateCache, eventContext.getStreamingThresholdBytes(), metrics, logger, fileIndex, bundle);
+        if (eventContext.getJournalFile() != null) {
+            journal = new WiremockJournal(new File(eventContext.getJournalFile()), logger);
+        }
+        modulator = new WiremockModulator(clients, payloadFactory, metrics, logger, journal, deltaTracker);
+        if (eventContext.isPreloadFiles()) {
+            // the file index drops the pre-rendered events when files change, without it the files are only checked on request
+            boolean checkFiles = fileIndex == null && eventContext.isPreloadCheckFiles();
+            preloader = sharedContent == null
+                    ? new WiremockPreloader(rootDir, templateCache, payloadFactory, logger, checkFiles)
+                    : new WiremockPreloader(rootDir, templateCache, payloadFactory, logger, checkFiles, sharedContent.get().getPrerendered());
+            preloader.preload(eventContext.getScheduleScript(), CHANGE_EVENTS);
+        }
+        if (twoPhaseApply != null && coalescer == null && eventContext.getScheduleScript() != null) {
+            planTwoPhase(eventContext.getScheduleScript());
+        }
+    }
+
+    private void createAsyncClients() {
+        asyncExecutor = Executors.newFixedThreadPool(Math.max(1, eventContext.getAsyncClientThreads()),
+                new WiremockDispatcher.DaemonThreadFactory("wiremock-async-"));
+        java.net.http.HttpClient asyncHttpClient = WiremockHttpClientFactory.createAsync(eventContext, asyncExecutor);
+        Duration requestTimeout = Duration.ofMillis(eventContext.getSocketTimeoutMillis());
+        asyncClients = nodeUrls.stream()
+                .map(url -> new WiremockJdkAsyncClient(url, asyncHttpClient, requestTimeout, metrics, logger))
                 .collect(collectingAndThen(Collectors.toList(), Collections::unmodifiableList));
+        // use the outcome of the compression probe of the blocking client of the same node
+        for (int i = 0; i < asyncClients.size(); i++) {
+            asyncClients.get(i).setCompressUploads(clients.get(i).isCompressUploads());
+        }
     }
 
-    private void importAllWiremockFiles(WiremockClient client, File[] files, Map<String, String> replacements, String uriPath) {
-        Arrays.stream(files)
-                .peek(file -> logger.info("check " + file))
-                .filter(file -> !file.isDirectory())
-                .filter(File::canRead)
-                .filter(file -> file.getName().endsWith(".json"))
-                .peek(file -> logger.info("import " + file))
-                .map(this::readContents)
-                .filter(Objects::nonNull)
-                .forEach(fileContents -> uploadWithTryCatch(client, replacements, uriPath, fileContents));
+    /**
+     * Called by the file index when files in a directory changed.
+     */
+    private void filesChanged(Path directory) {
+        if (preloader != null) {
+            logger.info("wiremock files changed in " + directory + ", pre-rendered events are dropped");
+            preloader.clear();
+        }
+        ActiveDirectory active = activeDirectory;
+        if (repushScheduler != null && active != null && active.path.equals(directory)) {
+            synchronized (this) {
+                if (pendingRepush != null) {
+                    pendingRepush.cancel(false);
+                }
+                // editors write a file in several steps: wait until the directory is quiet
+                pendingRepush = repushScheduler.schedule(() -> repush(active), REPUSH_QUIET_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
     }
 
-    private void uploadWithTryCatch(WiremockClient client, Map<String, String> replacements, String uriPath, String fileContents) {
+    private void repush(ActiveDirectory active) {
         try {
-            client.uploadFileWithReplacements(fileContents, replacements, uriPath);
+            List<WiremockPayload> payloads = payloadFactory.create(active.settings);
+            logger.info("files changed in active directory " + active.path + ", re-push " + payloads.size() + " file(s)");
+            List<WiremockClient> targets = targets(active.settings);
+            List<WiremockPayload> bulk = bulkImport(payloads, active.uriPath, active.settings);
+            flushCoalesced();
+            if (bulk != null) {
+                dispatchToAllNodes("re-push " + active.description, null, targets, bulk, MAPPINGS_IMPORT_URI, null,
+                        queueTarget(MAPPINGS_IMPORT_URI, active.settings, bulk));
+            }
+            else {
+                dispatchToAllNodes("re-push " + active.description, null, targets, payloads, active.uriPath, null,
+                        queueTarget(active.uriPath, active.settings, payloads));
+            }
         } catch (Exception e) {
+            logger.error("re-push of " + active.description + " failed: " + e.getMessage());
+        }
+    }
+
+    private WiremockMetrics createMetrics(String metricsClass) {
+        if (metricsClass == null || metricsClass.isBlank()) {
+            return new WiremockMetricsInMemory();
+        }
+        try {
+            return (WiremockMetrics) Class.forName(metricsClass).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new WiremockEventException("cannot create wiremock metrics: " + metricsClass, e);
+        }
+    }
+
+    @Override
+    public void startTest() {
+        testStartMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public void afterTest() {
+        logger.info("after test [" + testContext.getTestRunId() + "]");
+
+        if (modulator != null) {
+            modulator.stop();
+        }
+        if (coalescer != null) {
+            coalescer.close();
+        }
+        if (twoPhaseStager != null) {
+            twoPhaseStager.shutdown();
+            // staged ahead for events that did not come: inactive, so safe to delete
+            stagedAhead.forEach((description, ahead) -> {
+                WiremockTwoPhaseApply.Staged staged = ahead.staged.join();
+                if (staged != null) {
+                    discardStaged(description, targets(ahead.settings), staged);
+                }
+            });
+            stagedAhead.clear();
+        }
+        if (twoPhaseApply != null && dispatcher != null) {
+            removeTwoPhaseMappings();
+        }
+        if (queuedDispatch != null) {
+            if (!queuedDispatch.drain(TimeUnit.SECONDS.toMillis(eventContext.getQueueDrainSeconds()))) {
+                logger.warn("queued changes not applied within " + eventContext.getQueueDrainSeconds() + " seconds are dropped");
+            }
+            queuedDispatch.shutdown();
+            logger.info(queuedDispatch.report());
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (verifier != null) {
+            // results stay available for check()
+            verifier.awaitResults(TimeUnit.SECONDS.toMillis(eventContext.getEventDeadlineSeconds()));
+            verifier.shutdown();
+        }
+        if (requestJournal != null) {
+            requestJournal.stop();
+            logger.info(requestJournal.summary(clients));
+        }
+        if (metrics != null) {
+            logger.info(metrics.summary());
+        }
+        if (circuitBreakers != null) {
+            logger.info(circuitBreakers.report());
+            circuitBreakers.shutdown();
+        }
+
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+        if (chunkedImport != null) {
+            chunkedImport.shutdown();
+        }
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+        }
+        if (repushScheduler != null) {
+            repushScheduler.shutdownNow();
+        }
+        if (fileIndex != null) {
+            fileIndex.close();
+        }
+        if (sharedHttpClient != null) {
+            try {
+                // closed when the last event that uses it is done
+                sharedHttpClient.release();
+            } catch (WiremockEventException e) {
+                logger.warn(e.getMessage() + ": " + e.getCause().getMessage());
+            }
+            sharedHttpClient = null;
+        }
+        else if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                logger.warn("closing http client failed: " + e.getMessage());
+            }
+        }
+        if (deltaTracker != null) {
+            deltaTracker.clear();
+        }
+        if (twoPhaseApply != null) {
+            twoPhaseApply.clear();
+        }
+        if (sharedContent != null) {
+            sharedContent.release();
+            sharedContent = null;
+        }
+        else {
+            if (preloader != null) {
+                preloader.clear();
+            }
+            if (templateCache != null) {
+                templateCache.clear();
+            }
+        }
+    }
+
+    private void importAllWiremockFiles(WiremockClient client, List<WiremockPayload> payloads, String uriPath, WiremockNodeResult result,
+                                        WiremockJournal.Event journalEvent) {
+        payloads.forEach(payload -> uploadWithTryCatch(client, uriPath, payload, result, journalEvent));
+    }
+
+    private void importChangedMappings(WiremockClient client, List<WiremockDeltaTracker.Prepared> prepared, String uriPath, WiremockNodeResult result,
+                                       WiremockJournal.Event journalEvent) {
+        String node = client.getBaseUrl();
+        for (WiremockDeltaTracker.Prepared mappings : prepared) {
+            WiremockDeltaTracker.Delta delta = delta(node, mappings);
+            if (delta.isUnchanged()) {
+                result.unchanged();
+            }
+            else if (uploadWithTryCatch(client, uriPath, delta.getPayload(), result, journalEvent)) {
+                deltaTracker.commit(node, delta);
+            }
+        }
+    }
+
+    private WiremockDeltaTracker.Delta delta(String node, WiremockDeltaTracker.Prepared mappings) {
+        WiremockDeltaTracker.Delta delta = deltaTracker.delta(node, mappings);
+        logger.debug(String.format("delta for %s on %s: %d of %d mappings changed",
+                mappings.getPayload().getName(), node, delta.getChanged(), delta.getTotal()));
+        return delta;
+    }
+
+    private CompletableFuture<Void> importAllWiremockFilesAsync(WiremockAsyncClient client, List<WiremockPayload> payloads, String uriPath, WiremockNodeResult result,
+                                                                WiremockJournal.Event journalEvent) {
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        for (WiremockPayload payload : payloads) {
+            chain = chain.thenCompose(ignore -> uploadAsyncWithCatch(client, uriPath, payload, result, journalEvent).thenAccept(success -> {}));
+        }
+        return chain;
+    }
+
+    private CompletableFuture<Void> importChangedMappingsAsync(WiremockAsyncClient client, List<WiremockDeltaTracker.Prepared> prepared, String uriPath, WiremockNodeResult result,
+                                                               WiremockJournal.Event journalEvent) {
+        String node = client.getBaseUrl();
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        for (WiremockDeltaTracker.Prepared mappings : prepared) {
+            chain = chain.thenCompose(ignore -> {
+                WiremockDeltaTracker.Delta delta = delta(node, mappings);
+                if (delta.isUnchanged()) {
+                    result.unchanged();
+                    return CompletableFuture.completedFuture(null);
+                }
+                return uploadAsyncWithCatch(client, uriPath, delta.getPayload(), result, journalEvent).thenAccept(success -> {
+                    if (success) {
+                        deltaTracker.commit(node, delta);
+                    }
+                });
+            });
+        }
+        return chain;
+    }
+
+    /**
+     * @return future with true when uploaded, false when failed and continueOnUploadError is set, otherwise it completes exceptionally
+     */
+    private CompletableFuture<Boolean> uploadAsyncWithCatch(WiremockAsyncClient client, String uriPath, WiremockPayload payload, WiremockNodeResult result,
+                                                           WiremockJournal.Event journalEvent) {
+        WiremockCircuitBreaker breaker = circuitBreakers.get(client.getBaseUrl());
+        long startMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        return breaker.executeAsync(() -> client.uploadAsync(payload, uriPath)).handle((ignore, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            journal(journalEvent, payload, client.getBaseUrl(), startMillis, startNanos, cause);
+            if (error == null) {
+                result.uploaded();
+                return true;
+            }
+            logger.error("Error uploading file: " + cause.getMessage());
+            if (eventContext.isContinueOnUploadError()) {
+                result.failed(cause instanceof Exception ? (Exception) cause : new WiremockClientException("upload failed", cause));
+                return false;
+            }
+            throw new CompletionException(cause);
+        });
+    }
+
+    private boolean uploadWithTryCatch(WiremockClient client, String uriPath, WiremockPayload payload, WiremockNodeResult result,
+                                       WiremockJournal.Event journalEvent) {
+        long startMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        try {
+            circuitBreakers.get(client.getBaseUrl()).execute(() -> client.upload(payload, uriPath));
+            journal(journalEvent, payload, client.getBaseUrl(), startMillis, startNanos, null);
+            result.uploaded();
+            return true;
+        } catch (Exception e) {
+            journal(journalEvent, payload, client.getBaseUrl(), startMillis, startNanos, e);
             if (eventContext.isContinueOnUploadError()) {
                 logger.error("Error uploading file: " + e.getMessage());
+                result.failed(e);
+                return false;
             } else {
                 logger.error("Error uploading file: " + e.getMessage());
                 throw e;
@@ -97,11 +522,426 @@ public class WiremockEvent extends EventAdapter<WiremockEventContext> {
         }
     }
 
-    private String readContents(File file) {
+    /**
+     * @return the journal event for the uploads of an event, or null when there is no journal
+     */
+    private WiremockJournal.Event journalEvent(String description, Duration scheduledDelay) {
+        if (journal == null) {
+            return null;
+        }
+        return journal.event(description, scheduledDelay == null ? -1 : testStartMillis + scheduledDelay.toMillis());
+    }
+
+    private void journal(WiremockJournal.Event journalEvent, WiremockPayload payload, String node, long startMillis, long startNanos, Throwable error) {
+        if (journalEvent != null) {
+            journal.record(journalEvent, payload, node, startMillis, System.nanoTime() - startNanos,
+                    error == null ? WiremockJournal.STATUS_OK : WiremockJournal.status(error));
+        }
+    }
+
+    /**
+     * @param verifySettings the settings of the event to verify the change on the nodes, or null to not verify
+     * @param queueTarget what the change applies to, see {@link #queueTarget(String, Map, List)}
+     * @return false when the change is queued, to be applied in the background
+     */
+    private boolean dispatchToAllNodes(String description, Duration scheduledDelay, List<WiremockClient> targets,
+                                    List<WiremockPayload> payloads, String uriPath, Map<String, String> verifySettings, String queueTarget) {
+        WiremockJournal.Event journalEvent = journalEvent(description, scheduledDelay);
+        if (twoPhaseApply != null) {
+            WiremockTwoPhaseApply.Staged staged = takeStagedAhead(description, verifySettings);
+            boolean isStagedAhead = staged != null;
+            if (!isStagedAhead) {
+                staged = stageTwoPhase(description, payloads, uriPath);
+            }
+            try {
+                if (staged != null) {
+                    applyTwoPhase(description, scheduledDelay, targets, staged, isStagedAhead, journalEvent);
+                    verify(description, payloads, uriPath, verifySettings, targets);
+                    return true;
+                }
+            } finally {
+                stageAhead(description);
+            }
+        }
+
+        List<WiremockDeltaTracker.Prepared> prepared = prepareDeltas(payloads, uriPath);
+        BiConsumer<WiremockClient, WiremockNodeResult> upload = (client, result) -> {
+            if (prepared == null) {
+                forgetDeltas(client.getBaseUrl(), uriPath);
+                importAllWiremockFiles(client, payloads, uriPath, result, journalEvent);
+            }
+            else {
+                importChangedMappings(client, prepared, uriPath, result, journalEvent);
+            }
+        };
+
+        boolean chunked = chunkedImport != null && prepared == null && MAPPINGS_IMPORT_URI.equals(uriPath)
+                && !replacesAllMappings(description, payloads);
+        if (queuedDispatch != null && !chunked) {
+            queuedDispatch.submit(description, queueTarget, targets, upload, result ->
+                    appliedFromQueue(description, scheduledDelay, result, nodes -> verify(description, payloads, uriPath, verifySettings, nodes)));
+            return false;
+        }
+
+        List<WiremockNodeResult> results;
+        if (chunked) {
+            results = chunkedImport.importChunked(description, targets, payloads, (client, chunk) -> {
+                forgetDeltas(client.getBaseUrl(), MAPPINGS_IMPORT_URI);
+                long startMillis = System.currentTimeMillis();
+                long startNanos = System.nanoTime();
+                try {
+                    circuitBreakers.get(client.getBaseUrl()).execute(() -> client.upload(chunk, MAPPINGS_IMPORT_URI));
+                    journal(journalEvent, chunk, client.getBaseUrl(), startMillis, startNanos, null);
+                } catch (RuntimeException e) {
+                    journal(journalEvent, chunk, client.getBaseUrl(), startMillis, startNanos, e);
+                    throw e;
+                }
+            });
+        }
+        else if (asyncClients != null) {
+            results = dispatcher.dispatchAsync(description, asyncTargets(targets), (client, result) -> {
+                if (prepared == null) {
+                    forgetDeltas(client.getBaseUrl(), uriPath);
+                    return importAllWiremockFilesAsync(client, payloads, uriPath, result, journalEvent);
+                }
+                return importChangedMappingsAsync(client, prepared, uriPath, result, journalEvent);
+            });
+        }
+        else {
+            results = dispatcher.dispatch(description, targets, upload);
+        }
+
+        recordNodeMetrics(description, scheduledDelay, results);
+        failOnUploadError(results);
+        verify(description, payloads, uriPath, verifySettings, targets);
+        return true;
+    }
+
+    /**
+     * @return true when an import replaces all mappings, it is then sent in one request instead of in chunks
+     */
+    private boolean replacesAllMappings(String description, List<WiremockPayload> payloads) {
+        if (payloads.stream().anyMatch(WiremockChunkedImport::isReplacing)) {
+            logger.info(description + ": an import that replaces all mappings is not chunked");
+            return true;
+        }
+        return false;
+    }
+
+    private void verify(String description, List<WiremockPayload> payloads, String uriPath, Map<String, String> verifySettings,
+                        List<WiremockClient> targets) {
+        if (verifier != null && verifySettings != null) {
+            verifier.verify(description, payloads, uriPath, verifySettings, targets);
+        }
+    }
+
+    /**
+     * @return what a change applies to: a queued change is dropped when a newer change for the same target arrives.
+     * The target is the normalized <code>file</code> or <code>directory</code> of the event and its <code>group</code>,
+     * or the names of the payloads when there are no such settings, as for a coalesced import.
+     */
+    static String queueTarget(String uriPath, Map<String, String> settings, List<WiremockPayload> payloads) {
+        String file = settings == null ? null : settings.get(WiremockPayloadFactory.SETTING_FILE);
+        String directory = settings == null ? null : settings.get(WiremockPayloadFactory.SETTING_DIRECTORY);
+        if (file == null && directory == null) {
+            return uriPath + " " + payloads.stream().map(WiremockPayload::getName).collect(Collectors.joining(","));
+        }
+        String target = file != null
+                ? WiremockPayloadFactory.SETTING_FILE + "=" + Paths.get(file).normalize()
+                : WiremockPayloadFactory.SETTING_DIRECTORY + "=" + Paths.get(directory).normalize();
+        return uriPath + " " + target + " " + WiremockNodeGroups.SETTING_GROUP + "=" + settings.getOrDefault(WiremockNodeGroups.SETTING_GROUP, "");
+    }
+
+    /**
+     * Called from the queue per node, the event itself has returned already: failures are logged, not thrown.
+     */
+    private void appliedFromQueue(String description, Duration scheduledDelay, WiremockNodeResult result, Consumer<List<WiremockClient>> verify) {
+        recordNodeMetrics(description, scheduledDelay, Collections.singletonList(result));
+        if (result.isSuccess()) {
+            verify.accept(Collections.singletonList(clients.get(nodeUrls.indexOf(result.getNode()))));
+        }
+        else {
+            logger.error("queued " + description + " failed for " + result);
+        }
+    }
+
+    private void failOnUploadError(List<WiremockNodeResult> results) {
+        if (!eventContext.isContinueOnUploadError()) {
+            results.stream()
+                    .filter(result -> !result.isSuccess())
+                    .findFirst()
+                    .ifPresent(result -> {
+                        throw new WiremockEventException("Upload to wiremock failed for " + result, result.getError());
+                    });
+        }
+    }
+
+    /**
+     * @return the mappings staged for a two-phase apply, or null to upload the payloads directly
+     */
+    private WiremockTwoPhaseApply.Staged stageTwoPhase(String description, List<WiremockPayload> payloads, String uriPath) {
+        if (twoPhaseApply == null || !(MAPPINGS_IMPORT_URI.equals(uriPath) || MAPPINGS_URI.equals(uriPath))) {
+            return null;
+        }
+        try {
+            WiremockTwoPhaseApply.Staged staged = twoPhaseApply.stage(description, payloads);
+            if (staged == null) {
+                logger.warn("no two-phase apply possible for " + description + " (streamed files or mappings with scenarios), uploading directly");
+            }
+            return staged;
+        } catch (WiremockEventException e) {
+            logger.warn("no two-phase apply possible for " + description + ", uploading directly: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Phase one stages the inactive mappings on all nodes, unless they are staged ahead already, phase two switches
+     * the scenario state on all nodes at once. When staging fails on any node, the new mappings are not activated on any node.
+     */
+    private void applyTwoPhase(String description, Duration scheduledDelay, List<WiremockClient> targets, WiremockTwoPhaseApply.Staged staged,
+                               boolean isStagedAhead, WiremockJournal.Event journalEvent) {
+        if (!isStagedAhead) {
+            List<WiremockNodeResult> stageResults = stageOnNodes("stage " + description, targets, staged, journalEvent);
+            if (!stageResults.stream().allMatch(WiremockNodeResult::isSuccess)) {
+                logger.error("staging " + description + " failed on at least one node, new mappings are not activated");
+                discardStaged(description, targets, staged);
+                failOnUploadError(stageResults);
+                return;
+            }
+        }
+
+        Map<String, long[]> switchNanos = new ConcurrentHashMap<>();
+        List<WiremockNodeResult> results = dispatcher.dispatchAtOnce("activate " + description, targets, (client, result) -> {
+            long sendMillis = System.currentTimeMillis();
+            long sendNanos = System.nanoTime();
+            client.switchScenario(staged.getSwitchPath());
+            long switchedNanos = System.nanoTime();
+            switchNanos.put(client.getBaseUrl(), new long[] { sendNanos, switchedNanos });
+            if (journalEvent != null) {
+                // the switch applies the staged content, so it carries the hash of the staged mappings
+                journal.record(journalEvent, "activate " + staged.getState(), staged.getPayload().getBody(), 0,
+                        client.getBaseUrl(), sendMillis, switchedNanos - sendNanos, WiremockJournal.STATUS_OK);
+            }
+            result.uploaded();
+        });
+        recordSwitchSkew(description, switchNanos);
+        recordNodeMetrics(description, scheduledDelay, results);
+
+        // a node that failed to switch keeps its generations, they are deleted when a newer generation is activated there
+        dispatcher.dispatch("remove previous " + description, targets, (client, result) -> {
+            if (switchNanos.containsKey(client.getBaseUrl())) {
+                deleteMappings(client, twoPhaseApply.activated(client.getBaseUrl(), staged));
+            }
+        });
+
+        failOnUploadError(results);
+    }
+
+    private List<WiremockNodeResult> stageOnNodes(String description, List<WiremockClient> targets, WiremockTwoPhaseApply.Staged staged,
+                                                  WiremockJournal.Event journalEvent) {
+        return dispatcher.dispatch(description, targets, (client, result) -> {
+            long startMillis = System.currentTimeMillis();
+            long startNanos = System.nanoTime();
+            try {
+                circuitBreakers.get(client.getBaseUrl()).execute(() -> client.upload(staged.getPayload(), MAPPINGS_IMPORT_URI));
+                journal(journalEvent, staged.getPayload(), client.getBaseUrl(), startMillis, startNanos, null);
+            } catch (RuntimeException e) {
+                journal(journalEvent, staged.getPayload(), client.getBaseUrl(), startMillis, startNanos, e);
+                throw e;
+            }
+            twoPhaseApply.staged(client.getBaseUrl(), staged);
+            result.uploaded();
+        });
+    }
+
+    /**
+     * Delete staged mappings that were never activated.
+     */
+    private void discardStaged(String description, List<WiremockClient> targets, WiremockTwoPhaseApply.Staged staged) {
+        dispatcher.dispatch("remove staged " + description, targets, (client, result) -> {
+            deleteMappings(client, staged.getIds());
+            twoPhaseApply.discarded(client.getBaseUrl(), staged);
+        });
+    }
+
+    /**
+     * Delete the active copies and switch stubs of all scenarios: left behind they would shadow direct uploads
+     * of the same requests, e.g. modulations or per node variants in a next test.
+     */
+    private void removeTwoPhaseMappings() {
+        dispatcher.dispatch("remove two-phase mappings", clients, (client, result) -> {
+            List<String> ids = twoPhaseApply.remaining(client.getBaseUrl());
+            if (!ids.isEmpty()) {
+                logger.info("remove " + ids.size() + " two-phase mapping(s) on " + client.getBaseUrl());
+                deleteMappings(client, ids);
+            }
+        });
+    }
+
+    /**
+     * Plan the mapping and import events of the schedule script per target, and stage the first event of each target.
+     * Events with node variables are staged at event time.
+     */
+    private void planTwoPhase(String scheduleScript) {
+        scheduleScript.lines()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .map(WiremockEvent::parseEventLine)
+                .filter(event -> event != null && uriPath(event.getName()) != null && !ADMIN_SETTINGS_URI.equals(uriPath(event.getName())))
+                .sorted(Comparator.comparing(CustomEvent::getDelay))
+                .forEach(event -> {
+                    Map<String, String> settings = parseSettings(event.getSettings());
+                    String target = target(settings);
+                    if (target != null && !WiremockNodeGroups.hasNodeVariables(settings)) {
+                        twoPhaseApply.plan(event.getName() + " " + target, event);
+                    }
+                });
+        if (twoPhaseApply.plannedTargets().isEmpty()) {
+            return;
+        }
+        twoPhaseStager = Executors.newSingleThreadExecutor(new WiremockDispatcher.DaemonThreadFactory("wiremock-stage-"));
+        twoPhaseApply.plannedTargets().forEach(this::stageAhead);
+    }
+
+    private static CustomEvent parseEventLine(String line) {
+        try {
+            return CustomEvent.createFromLine(line);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stage the next planned event of this target in the background, inactive until its event activates it.
+     */
+    private void stageAhead(String description) {
+        CustomEvent event = twoPhaseStager == null ? null : twoPhaseApply.nextPlanned(description);
+        if (event == null) {
+            return;
+        }
+        Map<String, String> settings = parseSettings(event.getSettings());
+        try {
+            stagedAhead.put(description, new StagedAhead(settings, CompletableFuture.supplyAsync(() ->
+                    stageAheadOnNodes(description, uriPath(event.getName()), settings), twoPhaseStager)));
+        } catch (RejectedExecutionException e) {
+            logger.debug("no staging ahead after the test: " + description);
+        }
+    }
+
+    /**
+     * @return the mappings staged on all target nodes, or null when they could not be staged ahead
+     */
+    private WiremockTwoPhaseApply.Staged stageAheadOnNodes(String description, String uriPath, Map<String, String> settings) {
+        try {
+            List<WiremockPayload> payloads = preloader == null ? null : preloader.get(settings);
+            if (payloads == null) {
+                payloads = payloadFactory.create(settings);
+            }
+            List<WiremockPayload> bulk = bulkImport(payloads, uriPath, settings);
+            WiremockTwoPhaseApply.Staged staged = twoPhaseApply.stage(description, bulk != null ? bulk : payloads);
+            if (staged == null) {
+                return null;
+            }
+            List<WiremockClient> targets = targets(settings);
+            if (stageOnNodes("stage ahead " + description, targets, staged, null).stream().allMatch(WiremockNodeResult::isSuccess)) {
+                return staged;
+            }
+            logger.warn("staging ahead " + description + " failed on at least one node, staging again at event time");
+            discardStaged(description, targets, staged);
+        } catch (RuntimeException e) {
+            logger.warn("cannot stage ahead " + description + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * @return the mappings staged ahead for this event, or null when there are none or they were staged for other settings
+     */
+    private WiremockTwoPhaseApply.Staged takeStagedAhead(String description, Map<String, String> settings) {
+        StagedAhead ahead = stagedAhead.remove(description);
+        if (ahead == null) {
+            return null;
+        }
+        WiremockTwoPhaseApply.Staged staged = ahead.staged.join();
+        if (staged != null && !ahead.settings.equals(settings)) {
+            logger.info(description + ": staged ahead for " + ahead.settings + ", staging again for " + settings);
+            discardStaged(description, targets(ahead.settings), staged);
+            return null;
+        }
+        return staged;
+    }
+
+    private void deleteMappings(WiremockClient client, List<String> ids) {
+        for (String id : ids) {
+            try {
+                client.deleteMapping(id);
+            } catch (WiremockClientException e) {
+                logger.warn("cannot delete mapping " + id + " on " + client.getBaseUrl() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void recordSwitchSkew(String description, Map<String, long[]> switchNanos) {
+        if (switchNanos.isEmpty()) {
+            return;
+        }
+        LongSummaryStatistics sent = switchNanos.values().stream().mapToLong(nanos -> nanos[0]).summaryStatistics();
+        LongSummaryStatistics switched = switchNanos.values().stream().mapToLong(nanos -> nanos[1]).summaryStatistics();
+        long skewNanos = switched.getMax() - switched.getMin();
+        metrics.recordTime(WiremockMetrics.Phase.SWITCH_SKEW, WiremockMetrics.ALL_NODES, skewNanos);
+        logger.info(String.format("%s: switched on %d nodes, skew %.3f ms (send skew %.3f ms)", description, switchNanos.size(),
+                skewNanos / 1_000_000d, (sent.getMax() - sent.getMin()) / 1_000_000d));
+    }
+
+    private void recordNodeMetrics(String description, Duration scheduledDelay, List<WiremockNodeResult> results) {
+        long maxLagMillis = Long.MIN_VALUE;
+        for (WiremockNodeResult result : results) {
+            metrics.recordTime(WiremockMetrics.Phase.NODE_TOTAL, result.getNode(), result.getDurationNanos());
+            if (scheduledDelay != null && result.getCompletedAtMillis() > 0) {
+                long lagMillis = result.getCompletedAtMillis() - (testStartMillis + scheduledDelay.toMillis());
+                metrics.recordTime(WiremockMetrics.Phase.SCHEDULE_LAG, result.getNode(), TimeUnit.MILLISECONDS.toNanos(lagMillis));
+                maxLagMillis = Math.max(maxLagMillis, lagMillis);
+            }
+        }
+        if (maxLagMillis != Long.MIN_VALUE) {
+            logger.info(String.format("%s: scheduled at %s, applied on all nodes %d ms after the scheduled time", description, scheduledDelay, maxLagMillis));
+        }
+    }
+
+    /**
+     * A mapping upload that bypasses the delta tracker, such as an import that replaces all mappings,
+     * leaves the node in a state the tracker does not know: the next delta for this node starts from scratch.
+     */
+    private void forgetDeltas(String node, String uriPath) {
+        if (deltaTracker != null && (MAPPINGS_URI.equals(uriPath) || MAPPINGS_IMPORT_URI.equals(uriPath))) {
+            deltaTracker.forget(node);
+        }
+    }
+
+    /**
+     * @return the parsed mappings to compare per node, or null to upload the payloads as is
+     */
+    private List<WiremockDeltaTracker.Prepared> prepareDeltas(List<WiremockPayload> payloads, String uriPath) {
+        boolean isImport = MAPPINGS_IMPORT_URI.equals(uriPath);
+        if (deltaTracker == null || !(isImport || MAPPINGS_URI.equals(uriPath))) {
+            return null;
+        }
+        if (payloads.stream().anyMatch(WiremockPayload::isStreaming)) {
+            logger.debug("no delta upload for streamed files");
+            return null;
+        }
         try {
-            return Files.readString(file.toPath());
-        } catch (IOException e) {
-            logger.error("reading file: " + file);
+            List<WiremockDeltaTracker.Prepared> prepared = payloads.stream()
+                    .map(payload -> deltaTracker.prepare(payload, isImport))
+                    .collect(Collectors.toList());
+            if (prepared.stream().anyMatch(WiremockDeltaTracker.Prepared::isReplacing)) {
+                logger.debug("no delta upload for imports that replace all mappings");
+                return null;
+            }
+            return prepared;
+        } catch (WiremockEventException e) {
+            logger.warn("no delta upload possible, uploading all mappings: " + e.getMessage());
             return null;
         }
     }
@@ -110,65 +950,256 @@ public class WiremockEvent extends EventAdapter<WiremockEventContext> {
     public void customEvent(CustomEvent scheduleEvent) {
 
         String eventName = scheduleEvent.getName();
-        
-        if (EVENT_WIREMOCK_CHANGE_MAPPINGS.equalsIgnoreCase(eventName)) {
-            injectDelayFromSettingsIntoFiles(scheduleEvent, MAPPINGS_URI);
+        long startNanos = System.nanoTime();
+
+        boolean applied = true;
+        String uriPath = uriPath(eventName);
+        if (uriPath != null) {
+            applied = injectDelayFromSettingsIntoFiles(scheduleEvent, uriPath);
         }
-        else if (EVENT_WIREMOCK_CHANGE_IMPORT.equalsIgnoreCase(eventName)) {
-            injectDelayFromSettingsIntoFiles(scheduleEvent, MAPPINGS_IMPORT_URI);
+        else if (EVENT_WIREMOCK_MODULATE.equalsIgnoreCase(eventName)) {
+            startModulation(scheduleEvent);
         }
-        else if (EVENT_WIREMOCK_CHANGE_SETTINGS.equalsIgnoreCase(eventName)) {
-            injectDelayFromSettingsIntoFiles(scheduleEvent, ADMIN_SETTINGS_URI);
+        else if (EVENT_WIREMOCK_RESET_REQUESTS.equalsIgnoreCase(eventName)) {
+            resetRequests(scheduleEvent);
         }
         else {
             logger.debug("ignoring unknown event [" + eventName + "]");
+            return;
         }
+        // a queued or coalesced event returns before it is applied: only the hand-over is measured
+        metrics.recordTime(applied ? WiremockMetrics.Phase.EVENT_TOTAL : WiremockMetrics.Phase.EVENT_SUBMIT,
+                WiremockMetrics.ALL_NODES, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the admin uri path for a change event, or null for other events
+     */
+    private static String uriPath(String eventName) {
+        if (EVENT_WIREMOCK_CHANGE_MAPPINGS.equalsIgnoreCase(eventName)) {
+            return MAPPINGS_URI;
+        }
+        if (EVENT_WIREMOCK_CHANGE_IMPORT.equalsIgnoreCase(eventName)) {
+            return MAPPINGS_IMPORT_URI;
+        }
+        if (EVENT_WIREMOCK_CHANGE_SETTINGS.equalsIgnoreCase(eventName)) {
+            return ADMIN_SETTINGS_URI;
+        }
+        return null;
+    }
+
+    private void resetRequests(CustomEvent scheduleEvent) {
+        Map<String, String> settings = parseSettings(scheduleEvent.getSettings());
+        boolean capture = settings.containsKey(SETTING_CAPTURE)
+                ? Boolean.parseBoolean(settings.get(SETTING_CAPTURE))
+                : eventContext.isRequestJournalCapture();
+        String group = settings.get(WiremockNodeGroups.SETTING_GROUP);
+        String description = scheduleEvent.getName() + (group == null ? "" : " group " + group);
+        List<WiremockNodeResult> results = requestJournal.reset(description, targets(settings), capture, 0);
+        recordNodeMetrics(description, scheduleEvent.getDelay(), results);
+        failOnUploadError(results);
     }
 
-    private void injectDelayFromSettingsIntoFiles(CustomEvent scheduleEvent, String uriPath) {
+    private void startModulation(CustomEvent scheduleEvent) {
         Map<String, String> settings = parseSettings(scheduleEvent.getSettings());
+        WiremockCurve curve = WiremockCurve.parse(settings);
 
-        if (settings.containsKey("file") && settings.containsKey("directory")) {
-            throw new WiremockEventException("Both file and directory settings are present. Please use only one.");
+        String event = settings.getOrDefault("event", EVENT_WIREMOCK_CHANGE_MAPPINGS);
+        String uriPath = uriPath(event);
+        if (uriPath == null) {
+            throw new WiremockEventException("unknown event to modulate: " + event);
+        }
+        String target = settings.get(WiremockPayloadFactory.SETTING_FILE);
+        if (settings.containsKey(WiremockPayloadFactory.SETTING_DIRECTORY)) {
+            // the files of a directory are sent as is, without replacements: the curve value would never arrive
+            throw new WiremockEventException("directories cannot be modulated, use a file for " + scheduleEvent.getName());
+        }
+        if (target == null) {
+            throw new WiremockEventException("missing file for " + scheduleEvent.getName());
+        }
+        if (settings.containsKey(WiremockNodeGroups.SETTING_GROUP)) {
+            throw new WiremockEventException("node groups are not supported for " + scheduleEvent.getName());
+        }
+        long intervalMillis = settings.containsKey("interval")
+                ? WiremockCurve.parseDuration(settings, "interval", settings.get("interval"))
+                : eventContext.getModulationIntervalMillis();
+        if (intervalMillis <= 0) {
+            throw new WiremockEventException("modulation interval must be positive for " + scheduleEvent.getName());
         }
 
-        if (settings.containsKey("file")) {
-            String file = settings.get("file");
+        Map<String, String> fixedSettings = new HashMap<>(settings);
+        fixedSettings.keySet().removeAll(WiremockCurve.KEYS);
+        fixedSettings.keySet().removeAll(Arrays.asList("event", "variable", "interval"));
 
-            Map<String, String> replacements = settings.entrySet().stream()
-                    .filter(e -> !e.getKey().equals("file"))
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        String variable = settings.getOrDefault("variable", WiremockGeneratedSchedule.DEFAULT_VARIABLE);
+        flushCoalesced();
+        modulator.start(scheduleEvent.getName() + " " + event + " " + target, curve, variable, fixedSettings, uriPath, intervalMillis);
+    }
 
-            File jsonFile = null;
-            if (file != null) {
-                jsonFile = new File(rootDir, file);
-                if (!jsonFile.exists()) {
-                    logger.error("Wiremock json file does not exist: " + jsonFile);
-                    return;
-                }
-            }
+    /**
+     * @return false when the change is queued or coalesced, to be applied later
+     */
+    private boolean injectDelayFromSettingsIntoFiles(CustomEvent scheduleEvent, String uriPath) {
+        Map<String, String> settings = parseSettings(scheduleEvent.getSettings());
+        List<WiremockClient> targets = targets(settings);
 
-            File[] files = (file != null) ? new File[]{jsonFile} : rootDir.listFiles();
+        if (settings.containsKey(WiremockPayloadFactory.SETTING_FILE) && WiremockNodeGroups.hasNodeVariables(settings)) {
+            String description = scheduleEvent.getName() + " " + settings.get(WiremockPayloadFactory.SETTING_FILE);
+            flushCoalesced();
+            return dispatchPerNode(description, scheduleEvent.getDelay(), targets, settings, uriPath);
+        }
 
-            if (rootDir != null && clients != null) {
-                clients.forEach(client -> importAllWiremockFiles(client, files, replacements, uriPath));
-            }
+        List<WiremockPayload> payloads = preloader == null ? null : preloader.get(settings);
+        if (payloads == null) {
+            payloads = payloadFactory.create(settings);
         }
 
-        // directory will load all files in the directory after deleting the old ones
-        if (settings.containsKey("directory")) {
-            String directory = settings.get("directory");
-            File dir = new File(rootDir, directory);
-            if (!dir.exists()) {
-                throw new WiremockEventException("Directory does not exist: " + dir);
+        if (!payloads.isEmpty() && dispatcher != null) {
+            String target = target(settings);
+            String description = scheduleEvent.getName() + " " + target;
+            if (settings.containsKey(WiremockPayloadFactory.SETTING_DIRECTORY)) {
+                activeDirectory = new ActiveDirectory(Paths.get(target).normalize(), settings, uriPath, description);
             }
-            File[] files = dir.listFiles();
-            if (files != null && clients != null) {
-                clients.forEach((WiremockClient client) -> {
-                    importAllWiremockFiles(client, files, null, uriPath);
-                });
+            List<WiremockPayload> bulk = bulkImport(payloads, uriPath, settings);
+            if (bulk != null) {
+                payloads = bulk;
+                uriPath = MAPPINGS_IMPORT_URI;
             }
+            if (coalescer != null && !ADMIN_SETTINGS_URI.equals(uriPath) && !settings.containsKey(WiremockNodeGroups.SETTING_GROUP)
+                    && coalescer.add(description, scheduleEvent.getDelay(), payloads, settings)) {
+                return false;
+            }
+            flushCoalesced();
+            return dispatchToAllNodes(description, scheduleEvent.getDelay(), targets, payloads, uriPath, settings, queueTarget(uriPath, settings, payloads));
         }
+        return true;
+    }
+
+    /**
+     * A change that is not coalesced is sent after the changes buffered before it, so these cannot overwrite it.
+     */
+    private void flushCoalesced() {
+        if (coalescer != null) {
+            coalescer.flush();
+        }
+    }
+
+    /**
+     * An event with node variables: the file is rendered once per distinct output, and each node gets its own variant.
+     * The variants bypass the delta tracker, so the tracker forgets each node it uploads to.
+     * @return false when the change is queued, to be applied in the background
+     */
+    private boolean dispatchPerNode(String description, Duration scheduledDelay, List<WiremockClient> targets, Map<String, String> settings, String uriPath) {
+        Map<Map<String, String>, List<WiremockPayload>> variants = new LinkedHashMap<>();
+        Map<String, List<WiremockPayload>> payloadsPerNode = new HashMap<>();
+        Map<Map<String, String>, List<WiremockClient>> nodesPerVariant = new HashMap<>();
+        for (int i = 0; i < targets.size(); i++) {
+            WiremockClient client = targets.get(i);
+            Map<String, String> nodeSettings = WiremockNodeGroups.forNode(settings, i, targets.size());
+            payloadsPerNode.put(client.getBaseUrl(), variants.computeIfAbsent(nodeSettings, payloadFactory::create));
+            nodesPerVariant.computeIfAbsent(nodeSettings, k -> new ArrayList<>()).add(client);
+        }
+        logger.info(String.format("%s: %d variant(s) for %d node(s)", description, variants.size(), targets.size()));
+
+        WiremockJournal.Event journalEvent = journalEvent(description, scheduledDelay);
+        if (queuedDispatch != null) {
+            Map<String, Map<String, String>> settingsPerNode = new HashMap<>();
+            nodesPerVariant.forEach((nodeSettings, nodes) -> nodes.forEach(node -> settingsPerNode.put(node.getBaseUrl(), nodeSettings)));
+            queuedDispatch.submit(description, queueTarget(uriPath, settings, variants.values().iterator().next()), targets, (client, result) -> {
+                        forgetDeltas(client.getBaseUrl(), uriPath);
+                        importAllWiremockFiles(client, payloadsPerNode.get(client.getBaseUrl()), uriPath, result, journalEvent);
+                    }, result ->
+                    appliedFromQueue(description, scheduledDelay, result, nodes -> verify(description, payloadsPerNode.get(result.getNode()),
+                            uriPath, settingsPerNode.get(result.getNode()), nodes)));
+            return false;
+        }
+        List<WiremockNodeResult> results;
+        if (asyncClients != null) {
+            results = dispatcher.dispatchAsync(description, asyncTargets(targets), (client, result) -> {
+                forgetDeltas(client.getBaseUrl(), uriPath);
+                return importAllWiremockFilesAsync(client, payloadsPerNode.get(client.getBaseUrl()), uriPath, result, journalEvent);
+            });
+        }
+        else {
+            results = dispatcher.dispatch(description, targets, (client, result) -> {
+                forgetDeltas(client.getBaseUrl(), uriPath);
+                importAllWiremockFiles(client, payloadsPerNode.get(client.getBaseUrl()), uriPath, result, journalEvent);
+            });
+        }
+        recordNodeMetrics(description, scheduledDelay, results);
+        failOnUploadError(results);
+
+        if (verifier != null) {
+            variants.forEach((nodeSettings, payloads) ->
+                    verifier.verify(description, payloads, uriPath, nodeSettings, nodesPerVariant.get(nodeSettings)));
+        }
+        return true;
+    }
+
+    /**
+     * @return the file or directory of the event, or null when there is none
+     */
+    private static String target(Map<String, String> settings) {
+        return settings.containsKey(WiremockPayloadFactory.SETTING_FILE)
+                ? settings.get(WiremockPayloadFactory.SETTING_FILE)
+                : settings.get(WiremockPayloadFactory.SETTING_DIRECTORY);
+    }
+
+    /**
+     * @return the nodes of the <code>group</code> of the event, or all nodes
+     */
+    private List<WiremockClient> targets(Map<String, String> settings) {
+        String group = settings.get(WiremockNodeGroups.SETTING_GROUP);
+        if (group == null) {
+            return clients;
+        }
+        return nodeGroups.urlsOf(group).stream()
+                .map(url -> clients.get(nodeUrls.indexOf(url)))
+                .collect(Collectors.toList());
+    }
+
+    private List<WiremockJdkAsyncClient> asyncTargets(List<WiremockClient> targets) {
+        if (targets == clients) {
+            return asyncClients;
+        }
+        return targets.stream()
+                .map(client -> asyncClients.get(clients.indexOf(client)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Called by the coalescer with the merged import of the events of one window.
+     */
+    private void applyCoalesced(WiremockCoalescer.Batch batch) {
+        dispatchToAllNodes(batch.getDescription(), batch.getScheduledDelay(), clients, batch.getPayloads(), MAPPINGS_IMPORT_URI, batch.getSettings(),
+                queueTarget(MAPPINGS_IMPORT_URI, null, batch.getPayloads()));
+    }
+
+    /**
+     * With <code>bulkDirectoryImport</code>, all files of a mappings or import directory are merged into one import,
+     * sent to each node in one request. With <code>bulkImportReplace</code> (or the <code>replace</code> event setting)
+     * the import replaces all mappings on the node, so stubs of a previous directory are removed.
+     * @return the merged import, or null to send the files one by one
+     */
+    private List<WiremockPayload> bulkImport(List<WiremockPayload> payloads, String uriPath, Map<String, String> settings) {
+        String directory = settings.get(WiremockPayloadFactory.SETTING_DIRECTORY);
+        if (!eventContext.isBulkDirectoryImport() || directory == null
+                || !(MAPPINGS_URI.equals(uriPath) || MAPPINGS_IMPORT_URI.equals(uriPath))) {
+            return null;
+        }
+        if (payloads.stream().anyMatch(WiremockPayload::isStreaming)) {
+            logger.warn("no bulk import of directory " + directory + " with streamed large files, sending the files one by one");
+            return null;
+        }
+        boolean replace = settings.containsKey(SETTING_REPLACE)
+                ? Boolean.parseBoolean(settings.get(SETTING_REPLACE))
+                : eventContext.isBulkImportReplace();
+        long startNanos = System.nanoTime();
+        byte[] body = WiremockMappings.toBytes(WiremockMappings.merge(payloads, replace));
+        metrics.recordTime(WiremockMetrics.Phase.RENDER, WiremockMetrics.ALL_NODES, System.nanoTime() - startNanos);
+        logger.debug(String.format("bulk import of %d file(s) of directory %s, %d bytes%s",
+                payloads.size(), directory, body.length, replace ? ", replacing all mappings" : ""));
+        return Collections.singletonList(new WiremockPayload(directory, body));
     }
 
     static Map<String, String> parseSettings(String eventSettings) {
@@ -180,8 +1211,54 @@ public class WiremockEvent extends EventAdapter<WiremockEventContext> {
                 .collect(Collectors.toMap(k -> k[0], v -> v.length == 2 ? v[1] : ""));
     }
 
+    /**
+     * With <code>verifyChanges</code>, fails when a change was not found on a node, or the latency drift is beyond the tolerance.
+     */
+    @Override
+    public EventCheck check() {
+        if (verifier == null) {
+            return super.check();
+        }
+        List<WiremockVerifier.Result> results = verifier.awaitResults(TimeUnit.SECONDS.toMillis(eventContext.getEventDeadlineSeconds()));
+        String failures = WiremockVerifier.failures(results);
+        if (failures != null) {
+            return new EventCheck(eventContext.getName(), CHECK_NAME, EventStatus.FAILURE, failures);
+        }
+        return new EventCheck(eventContext.getName(), CHECK_NAME, EventStatus.SUCCESS, results.size() + " verifications succeeded");
+    }
+
     @Override
     public Collection<String> allowedCustomEvents() {
         return ALLOWED_CUSTOM_EVENTS;
     }
+
+    /**
+     * The mappings of the next planned event of a target, staged in the background.
+     */
+    private static class StagedAhead {
+        private final Map<String, String> settings;
+        private final CompletableFuture<WiremockTwoPhaseApply.Staged> staged;
+
+        private StagedAhead(Map<String, String> settings, CompletableFuture<WiremockTwoPhaseApply.Staged> staged) {
+            this.settings = settings;
+            this.staged = staged;
+        }
+    }
+
+    /**
+     * The directory of the last directory event, re-pushed when its files change.
+     */
+    private static class ActiveDirectory {
+        private final Path path;
+        private final Map<String, String> settings;
+        private final String uriPath;
+        private final String description;
+
+        private ActiveDirectory(Path path, Map<String, String> settings, String uriPath, String description) {
+            this.path = path;
+            this.settings = settings;
+            this.uriPath = uriPath;
+            this.description = description;
+        }
+    }
 }
\ No newline at end of file
@@ -22,6 +22,51 @@ public class WiremockEventConfig extends EventConfig {
     private String wiremockUrl;
     private boolean useProxy = false;
     private boolean continueOnUploadError = true;
+    private int dispatchParallelism = 0;
+    private int eventDeadlineSeconds = 120;
+    private boolean preloadFiles = false;
+    private boolean preloadCheckFiles = false;
+    private int maxConnectionsPerRoute = WiremockHttpClientFactory.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private int maxConnectionsTotal = WiremockHttpClientFactory.DEFAULT_MAX_CONNECTIONS_TOTAL;
+    private int idleConnectionEvictSeconds = WiremockHttpClientFactory.DEFAULT_IDLE_CONNECTION_EVICT_SECONDS;
+    private int connectTimeoutMillis = WiremockHttpClientFactory.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int socketTimeoutMillis = WiremockHttpClientFactory.DEFAULT_SOCKET_TIMEOUT_MILLIS;
+    private int connectionRequestTimeoutMillis = WiremockHttpClientFactory.DEFAULT_CONNECTION_REQUEST_TIMEOUT_MILLIS;
+    private boolean prewarmConnections = false;
+    private long streamingThresholdBytes = 10L * 1024 * 1024;
+    private boolean compressUploads = false;
+    private boolean deltaUploads = false;
+    private String metricsClass;
+    private boolean twoPhaseApply = false;
+    private int modulationIntervalMillis = 250;
+    private boolean asyncClient = false;
+    private int asyncClientThreads = 2;
+    private int circuitBreakerFailures = 0;
+    private int circuitBreakerProbeSeconds = 5;
+    private int uploadRetries = 0;
+    private int uploadRetryBackoffMillis = 200;
+    private boolean indexFiles = false;
+    private boolean repushOnChange = false;
+    private int indexRescanSeconds = 60;
+    private boolean verifyChanges = false;
+    private String verifyProbePath;
+    private int verifyProbeRequests = 5;
+    private int verifyToleranceMillis = 500;
+    private int coalesceWindowMillis = 0;
+    private boolean bulkDirectoryImport = false;
+    private boolean bulkImportReplace = false;
+    private int importChunkSize = 0;
+    private int importChunkInFlight = 2;
+    private String wiremockGroups;
+    private String wiremockBundle;
+    private String journalFile;
+    private int requestJournalResetSeconds = 0;
+    private int requestJournalMaxEntries = 0;
+    private boolean requestJournalCapture = false;
+    private boolean requestJournalResetBeforeTest = false;
+    private boolean shareResources = false;
+    private boolean queuedDispatch = false;
+    private int queueDrainSeconds = 30;
 
     public void setWiremockFilesDir(String wiremockFilesDir) {
         this.wiremockFilesDir = wiremockFilesDir;
@@ -39,9 +84,198 @@ public class WiremockEventConfig extends EventConfig {
         this.continueOnUploadError = continueOnUploadError;
     }
 
+    public void setDispatchParallelism(int dispatchParallelism) {
+        this.dispatchParallelism = dispatchParallelism;
+    }
+
+    public void setEventDeadlineSeconds(int eventDeadlineSeconds) {
+        this.eventDeadlineSeconds = eventDeadlineSeconds;
+    }
+
+    public void setPreloadFiles(boolean preloadFiles) {
+        this.preloadFiles = preloadFiles;
+    }
+
+    public void setPreloadCheckFiles(boolean preloadCheckFiles) {
+        this.preloadCheckFiles = preloadCheckFiles;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsTotal(int maxConnectionsTotal) {
+        this.maxConnectionsTotal = maxConnectionsTotal;
+    }
+
+    public void setIdleConnectionEvictSeconds(int idleConnectionEvictSeconds) {
+        this.idleConnectionEvictSeconds = idleConnectionEvictSeconds;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+        this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    public void setConnectionRequestTimeoutMillis(int connectionRequestTimeoutMillis) {
+        this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+    }
+
+    public void setPrewarmConnections(boolean prewarmConnections) {
+        this.prewarmConnections = prewarmConnections;
+    }
+
+    public void setStreamingThresholdBytes(long streamingThresholdBytes) {
+        this.streamingThresholdBytes = streamingThresholdBytes;
+    }
+
+    public void setCompressUploads(boolean compressUploads) {
+        this.compressUploads = compressUploads;
+    }
+
+    public void setDeltaUploads(boolean deltaUploads) {
+        this.deltaUploads = deltaUploads;
+    }
+
+    public void setMetricsClass(String metricsClass) {
+        this.metricsClass = metricsClass;
+    }
+
+    public void setTwoPhaseApply(boolean twoPhaseApply) {
+        this.twoPhaseApply = twoPhaseApply;
+    }
+
+    public void setModulationIntervalMillis(int modulationIntervalMillis) {
+        this.modulationIntervalMillis = modulationIntervalMillis;
+    }
+
+    public void setAsyncClient(boolean asyncClient) {
+        this.asyncClient = asyncClient;
+    }
+
+    public void setAsyncClientThreads(int asyncClientThreads) {
+        this.asyncClientThreads = asyncClientThreads;
+    }
+
+    public void setCircuitBreakerFailures(int circuitBreakerFailures) {
+        this.circuitBreakerFailures = circuitBreakerFailures;
+    }
+
+    public void setCircuitBreakerProbeSeconds(int circuitBreakerProbeSeconds) {
+        this.circuitBreakerProbeSeconds = circuitBreakerProbeSeconds;
+    }
+
+    public void setUploadRetries(int uploadRetries) {
+        this.uploadRetries = uploadRetries;
+    }
+
+    public void setUploadRetryBackoffMillis(int uploadRetryBackoffMillis) {
+        this.uploadRetryBackoffMillis = uploadRetryBackoffMillis;
+    }
+
+    public void setIndexFiles(boolean indexFiles) {
+        this.indexFiles = indexFiles;
+    }
+
+    public void setRepushOnChange(boolean repushOnChange) {
+        this.repushOnChange = repushOnChange;
+    }
+
+    public void setIndexRescanSeconds(int indexRescanSeconds) {
+        this.indexRescanSeconds = indexRescanSeconds;
+    }
+
+    public void setVerifyChanges(boolean verifyChanges) {
+        this.verifyChanges = verifyChanges;
+    }
+
+    public void setVerifyProbePath(String verifyProbePath) {
+        this.verifyProbePath = verifyProbePath;
+    }
+
+    public void setVerifyProbeRequests(int verifyProbeRequests) {
+        this.verifyProbeRequests = verifyProbeRequests;
+    }
+
+    public void setVerifyToleranceMillis(int verifyToleranceMillis) {
+        this.verifyToleranceMillis = verifyToleranceMillis;
+    }
+
+    public void setCoalesceWindowMillis(int coalesceWindowMillis) {
+        this.coalesceWindowMillis = coalesceWindowMillis;
+    }
+
+    public void setBulkDirectoryImport(boolean bulkDirectoryImport) {
+        this.bulkDirectoryImport = bulkDirectoryImport;
+    }
+
+    public void setBulkImportReplace(boolean bulkImportReplace) {
+        this.bulkImportReplace = bulkImportReplace;
+    }
+
+    public void setImportChunkSize(int importChunkSize) {
+        this.importChunkSize = importChunkSize;
+    }
+
+    public void setImportChunkInFlight(int importChunkInFlight) {
+        this.importChunkInFlight = importChunkInFlight;
+    }
+
+    public void setWiremockGroups(String wiremockGroups) {
+        this.wiremockGroups = wiremockGroups;
+    }
+
+    public void setWiremockBundle(String wiremockBundle) {
+        this.wiremockBundle = wiremockBundle;
+    }
+
+    public void setJournalFile(String journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    public void setRequestJournalResetSeconds(int requestJournalResetSeconds) {
+        this.requestJournalResetSeconds = requestJournalResetSeconds;
+    }
+
+    public void setRequestJournalMaxEntries(int requestJournalMaxEntries) {
+        this.requestJournalMaxEntries = requestJournalMaxEntries;
+    }
+
+    public void setRequestJournalCapture(boolean requestJournalCapture) {
+        this.requestJournalCapture = requestJournalCapture;
+    }
+
+    public void setRequestJournalResetBeforeTest(boolean requestJournalResetBeforeTest) {
+        this.requestJournalResetBeforeTest = requestJournalResetBeforeTest;
+    }
+
+    public void setShareResources(boolean shareResources) {
+        this.shareResources = shareResources;
+    }
+
+    public void setQueuedDispatch(boolean queuedDispatch) {
+        this.queuedDispatch = queuedDispatch;
+    }
+
+    public void setQueueDrainSeconds(int queueDrainSeconds) {
+        this.queueDrainSeconds = queueDrainSeconds;
+    }
+
     @Override
     public WiremockEventContext toContext() {
-        return new WiremockEventContext(super.toContext(), wiremockFilesDir, wiremockUrl, useProxy, continueOnUploadError);
+        return new WiremockEventContext(super.toContext(), wiremockFilesDir, wiremockUrl, useProxy, continueOnUploadError,
+            dispatchParallelism, eventDeadlineSeconds, preloadFiles, preloadCheckFiles, maxConnectionsPerRoute,
+            maxConnectionsTotal, idleConnectionEvictSeconds, connectTimeoutMillis, socketTimeoutMillis, connectionRequestTimeoutMillis,
+            prewarmConnections, streamingThresholdBytes, compressUploads, deltaUploads, metricsClass, twoPhaseApply,
+            modulationIntervalMillis, asyncClient, asyncClientThreads, circuitBreakerFailures,
+            circuitBreakerProbeSeconds, uploadRetries, uploadRetryBackoffMillis, indexFiles, repushOnChange,
+            indexRescanSeconds, verifyChanges, verifyProbePath, verifyProbeRequests, verifyToleranceMillis, coalesceWindowMillis,
+            bulkDirectoryImport, bulkImportReplace, importChunkSize, importChunkInFlight, wiremockGroups, wiremockBundle,
+            journalFile, requestJournalResetSeconds, requestJournalMaxEntries, requestJournalCapture,
+            requestJournalResetBeforeTest, shareResources, queuedDispatch, queueDrainSeconds);
     }
 
     @Override
@@ -51,6 +285,51 @@ public class WiremockEventConfig extends EventConfig {
             ", wiremockUrl='" + wiremockUrl + '\'' +
             ", useProxy=" + useProxy +
             ", continueOnUploadError=" + continueOnUploadError +
+            ", dispatchParallelism=" + dispatchParallelism +
+            ", eventDeadlineSeconds=" + eventDeadlineSeconds +
+            ", preloadFiles=" + preloadFiles +
+            ", preloadCheckFiles=" + preloadCheckFiles +
+            ", maxConnectionsPerRoute=" + maxConnectionsPerRoute +
+            ", maxConnectionsTotal=" + maxConnectionsTotal +
+            ", idleConnectionEvictSeconds=" + idleConnectionEvictSeconds +
+            ", connectTimeoutMillis=" + connectTimeoutMillis +
+            ", socketTimeoutMillis=" + socketTimeoutMillis +
+            ", connectionRequestTimeoutMillis=" + connectionRequestTimeoutMillis +
+            ", prewarmConnections=" + prewarmConnections +
+            ", streamingThresholdBytes=" + streamingThresholdBytes +
+            ", compressUploads=" + compressUploads +
+            ", deltaUploads=" + deltaUploads +
+            ", metricsClass=" + metricsClass +
+            ", twoPhaseApply=" + twoPhaseApply +
+            ", modulationIntervalMillis=" + modulationIntervalMillis +
+            ", asyncClient=" + asyncClient +
+            ", asyncClientThreads=" + asyncClientThreads +
+            ", circuitBreakerFailures=" + circuitBreakerFailures +
+            ", circuitBreakerProbeSeconds=" + circuitBreakerProbeSeconds +
+            ", uploadRetries=" + uploadRetries +
+            ", uploadRetryBackoffMillis=" + uploadRetryBackoffMillis +
+            ", indexFiles=" + indexFiles +
+            ", repushOnChange=" + repushOnChange +
+            ", indexRescanSeconds=" + indexRescanSeconds +
+            ", verifyChanges=" + verifyChanges +
+            ", verifyProbePath=" + verifyProbePath +
+            ", verifyProbeRequests=" + verifyProbeRequests +
+            ", verifyToleranceMillis=" + verifyToleranceMillis +
+            ", coalesceWindowMillis=" + coalesceWindowMillis +
+            ", bulkDirectoryImport=" + bulkDirectoryImport +
+            ", bulkImportReplace=" + bulkImportReplace +
+            ", importChunkSize=" + importChunkSize +
+            ", importChunkInFlight=" + importChunkInFlight +
+            ", wiremockGroups=" + wiremockGroups +
+            ", wiremockBundle=" + wiremockBundle +
+            ", journalFile=" + journalFile +
+            ", requestJournalResetSeconds=" + requestJournalResetSeconds +
+            ", requestJournalMaxEntries=" + requestJournalMaxEntries +
+            ", requestJournalCapture=" + requestJournalCapture +
+            ", requestJournalResetBeforeTest=" + requestJournalResetBeforeTest +
+            ", shareResources=" + shareResources +
+            ", queuedDispatch=" + queuedDispatch +
+            ", queueDrainSeconds=" + queueDrainSeconds +
             "} " + super.toString();
     }
 }
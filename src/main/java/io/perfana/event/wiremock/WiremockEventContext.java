@@ -17,18 +17,125 @@ package io.perfana.event.wiremock;
 
 import io.perfana.eventscheduler.api.config.EventContext;
 
+import java.util.Objects;
+
 public class WiremockEventContext extends EventContext {
     private final String wiremockFilesDir;
     private final String wiremockUrl;
     private final boolean useProxy;
     private final boolean continueOnUploadError;
+    private final int dispatchParallelism;
+    private final int eventDeadlineSeconds;
+    private final boolean preloadFiles;
+    private final boolean preloadCheckFiles;
+    private final int maxConnectionsPerRoute;
+    private final int maxConnectionsTotal;
+    private final int idleConnectionEvictSeconds;
+    private final int connectTimeoutMillis;
+    private final int socketTimeoutMillis;
+    private final int connectionRequestTimeoutMillis;
+    private final boolean prewarmConnections;
+    private final long streamingThresholdBytes;
+    private final boolean compressUploads;
+    private final boolean deltaUploads;
+    private final String metricsClass;
+    private final boolean twoPhaseApply;
+    private final int modulationIntervalMillis;
+    private final boolean asyncClient;
+    private final int asyncClientThreads;
+    private final int circuitBreakerFailures;
+    private final int circuitBreakerProbeSeconds;
+    private final int uploadRetries;
+    private final int uploadRetryBackoffMillis;
+    private final boolean indexFiles;
+    private final boolean repushOnChange;
+    private final int indexRescanSeconds;
+    private final boolean verifyChanges;
+    private final String verifyProbePath;
+    private final int verifyProbeRequests;
+    private final int verifyToleranceMillis;
+    private final int coalesceWindowMillis;
+    private final boolean bulkDirectoryImport;
+    private final boolean bulkImportReplace;
+    private final int importChunkSize;
+    private final int importChunkInFlight;
+    private final String wiremockGroups;
+    private final String wiremockBundle;
+    private final String journalFile;
+    private final int requestJournalResetSeconds;
+    private final int requestJournalMaxEntries;
+    private final boolean requestJournalCapture;
+    private final boolean requestJournalResetBeforeTest;
+    private final boolean shareResources;
+    private final boolean queuedDispatch;
+    private final int queueDrainSeconds;
 
-    protected WiremockEventContext(EventContext context, String wiremockFilesDir, String wiremockUrl, boolean useProxy, boolean continueOnUploadError) {
+    protected WiremockEventContext(EventContext context, String wiremockFilesDir, String wiremockUrl, boolean useProxy, boolean continueOnUploadError,
+                                   int dispatchParallelism, int eventDeadlineSeconds, boolean preloadFiles, boolean preloadCheckFiles,
+                                   int maxConnectionsPerRoute, int maxConnectionsTotal, int idleConnectionEvictSeconds,
+                                   int connectTimeoutMillis, int socketTimeoutMillis, int connectionRequestTimeoutMillis,
+                                   boolean prewarmConnections, long streamingThresholdBytes, boolean compressUploads,
+                                   boolean deltaUploads, String metricsClass, boolean twoPhaseApply,
+                                   int modulationIntervalMillis, boolean asyncClient, int asyncClientThreads,
+                                   int circuitBreakerFailures, int circuitBreakerProbeSeconds, int uploadRetries,
+                                   int uploadRetryBackoffMillis, boolean indexFiles, boolean repushOnChange,
+                                   int indexRescanSeconds, boolean verifyChanges, String verifyProbePath, int verifyProbeRequests,
+                                   int verifyToleranceMillis, int coalesceWindowMillis, boolean bulkDirectoryImport,
+                                   boolean bulkImportReplace, int importChunkSize, int importChunkInFlight,
+                                   String wiremockGroups, String wiremockBundle, String journalFile,
+                                   int requestJournalResetSeconds, int requestJournalMaxEntries,
+                                   boolean requestJournalCapture, boolean requestJournalResetBeforeTest,
+                                   boolean shareResources, boolean queuedDispatch, int queueDrainSeconds) {
         super(context, WiremockEventFactory.class.getName());
         this.wiremockFilesDir = wiremockFilesDir;
         this.wiremockUrl = wiremockUrl;
         this.useProxy = useProxy;
         this.continueOnUploadError = continueOnUploadError;
+        this.dispatchParallelism = dispatchParallelism;
+        this.eventDeadlineSeconds = eventDeadlineSeconds;
+        this.preloadFiles = preloadFiles;
+        this.preloadCheckFiles = preloadCheckFiles;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.maxConnectionsTotal = maxConnectionsTotal;
+        this.idleConnectionEvictSeconds = idleConnectionEvictSeconds;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.socketTimeoutMillis = socketTimeoutMillis;
+        this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+        this.prewarmConnections = prewarmConnections;
+        this.streamingThresholdBytes = streamingThresholdBytes;
+        this.compressUploads = compressUploads;
+        this.deltaUploads = deltaUploads;
+        this.metricsClass = metricsClass;
+        this.twoPhaseApply = twoPhaseApply;
+        this.modulationIntervalMillis = modulationIntervalMillis;
+        this.asyncClient = asyncClient;
+        this.asyncClientThreads = asyncClientThreads;
+        this.circuitBreakerFailures = circuitBreakerFailures;
+        this.circuitBreakerProbeSeconds = circuitBreakerProbeSeconds;
+        this.uploadRetries = uploadRetries;
+        this.uploadRetryBackoffMillis = uploadRetryBackoffMillis;
+        this.indexFiles = indexFiles;
+        this.repushOnChange = repushOnChange;
+        this.indexRescanSeconds = indexRescanSeconds;
+        this.verifyChanges = verifyChanges;
+        this.verifyProbePath = verifyProbePath;
+        this.verifyProbeRequests = verifyProbeRequests;
+        this.verifyToleranceMillis = verifyToleranceMillis;
+        this.coalesceWindowMillis = coalesceWindowMillis;
+        this.bulkDirectoryImport = bulkDirectoryImport;
+        this.bulkImportReplace = bulkImportReplace;
+        this.importChunkSize = importChunkSize;
+        this.importChunkInFlight = importChunkInFlight;
+        this.wiremockGroups = wiremockGroups;
+        this.wiremockBundle = wiremockBundle;
+        this.journalFile = journalFile;
+        this.requestJournalResetSeconds = requestJournalResetSeconds;
+        this.requestJournalMaxEntries = requestJournalMaxEntries;
+        this.requestJournalCapture = requestJournalCapture;
+        this.requestJournalResetBeforeTest = requestJournalResetBeforeTest;
+        this.shareResources = shareResources;
+        this.queuedDispatch = queuedDispatch;
+        this.queueDrainSeconds = queueDrainSeconds;
     }
 
     public String getWiremockFilesDir() {
@@ -47,6 +154,186 @@ public class WiremockEventContext extends EventContext {
         return continueOnUploadError;
     }
 
+    public int getDispatchParallelism() {
+        return dispatchParallelism;
+    }
+
+    public int getEventDeadlineSeconds() {
+        return eventDeadlineSeconds;
+    }
+
+    public boolean isPreloadFiles() {
+        return preloadFiles;
+    }
+
+    public boolean isPreloadCheckFiles() {
+        return preloadCheckFiles;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public int getMaxConnectionsTotal() {
+        return maxConnectionsTotal;
+    }
+
+    public int getIdleConnectionEvictSeconds() {
+        return idleConnectionEvictSeconds;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    public int getConnectionRequestTimeoutMillis() {
+        return connectionRequestTimeoutMillis;
+    }
+
+    public boolean isPrewarmConnections() {
+        return prewarmConnections;
+    }
+
+    public long getStreamingThresholdBytes() {
+        return streamingThresholdBytes;
+    }
+
+    public boolean isCompressUploads() {
+        return compressUploads;
+    }
+
+    public boolean isDeltaUploads() {
+        return deltaUploads;
+    }
+
+    public String getMetricsClass() {
+        return metricsClass;
+    }
+
+    public boolean isTwoPhaseApply() {
+        return twoPhaseApply;
+    }
+
+    public int getModulationIntervalMillis() {
+        return modulationIntervalMillis;
+    }
+
+    public boolean isAsyncClient() {
+        return asyncClient;
+    }
+
+    public int getAsyncClientThreads() {
+        return asyncClientThreads;
+    }
+
+    public int getCircuitBreakerFailures() {
+        return circuitBreakerFailures;
+    }
+
+    public int getCircuitBreakerProbeSeconds() {
+        return circuitBreakerProbeSeconds;
+    }
+
+    public int getUploadRetries() {
+        return uploadRetries;
+    }
+
+    public int getUploadRetryBackoffMillis() {
+        return uploadRetryBackoffMillis;
+    }
+
+    public boolean isIndexFiles() {
+        return indexFiles;
+    }
+
+    public boolean isRepushOnChange() {
+        return repushOnChange;
+    }
+
+    public int getIndexRescanSeconds() {
+        return indexRescanSeconds;
+    }
+
+    public boolean isVerifyChanges() {
+        return verifyChanges;
+    }
+
+    public String getVerifyProbePath() {
+        return verifyProbePath;
+    }
+
+    public int getVerifyProbeRequests() {
+        return verifyProbeRequests;
+    }
+
+    public int getVerifyToleranceMillis() {
+        return verifyToleranceMillis;
+    }
+
+    public int getCoalesceWindowMillis() {
+        return coalesceWindowMillis;
+    }
+
+    public boolean isBulkDirectoryImport() {
+        return bulkDirectoryImport;
+    }
+
+    public boolean isBulkImportReplace() {
+        return bulkImportReplace;
+    }
+
+    public int getImportChunkSize() {
+        return importChunkSize;
+    }
+
+    public int getImportChunkInFlight() {
+        return importChunkInFlight;
+    }
+
+    public String getWiremockGroups() {
+        return wiremockGroups;
+    }
+
+    public String getWiremockBundle() {
+        return wiremockBundle;
+    }
+
+    public String getJournalFile() {
+        return journalFile;
+    }
+
+    public int getRequestJournalResetSeconds() {
+        return requestJournalResetSeconds;
+    }
+
+    public int getRequestJournalMaxEntries() {
+        return requestJournalMaxEntries;
+    }
+
+    public boolean isRequestJournalCapture() {
+        return requestJournalCapture;
+    }
+
+    public boolean isRequestJournalResetBeforeTest() {
+        return requestJournalResetBeforeTest;
+    }
+
+    public boolean isShareResources() {
+        return shareResources;
+    }
+
+    public boolean isQueuedDispatch() {
+        return queuedDispatch;
+    }
+
+    public int getQueueDrainSeconds() {
+        return queueDrainSeconds;
+    }
+
     @Override
     public String toString() {
         return "WiremockEventConfig{" +
@@ -54,6 +341,51 @@ public class WiremockEventContext extends EventContext {
             ", wiremockUrl='" + wiremockUrl + '\'' +
             ", useProxy=" + useProxy +
             ", continueOnUploadError=" + continueOnUploadError +
+            ", dispatchParallelism=" + dispatchParallelism +
+            ", eventDeadlineSeconds=" + eventDeadlineSeconds +
+            ", preloadFiles=" + preloadFiles +
+            ", preloadCheckFiles=" + preloadCheckFiles +
+            ", maxConnectionsPerRoute=" + maxConnectionsPerRoute +
+            ", maxConnectionsTotal=" + maxConnectionsTotal +
+            ", idleConnectionEvictSeconds=" + idleConnectionEvictSeconds +
+            ", connectTimeoutMillis=" + connectTimeoutMillis +
+            ", socketTimeoutMillis=" + socketTimeoutMillis +
+            ", connectionRequestTimeoutMillis=" + connectionRequestTimeoutMillis +
+            ", prewarmConnections=" + prewarmConnections +
+            ", streamingThresholdBytes=" + streamingThresholdBytes +
+            ", compressUploads=" + compressUploads +
+            ", deltaUploads=" + deltaUploads +
+            ", metricsClass=" + metricsClass +
+            ", twoPhaseApply=" + twoPhaseApply +
+            ", modulationIntervalMillis=" + modulationIntervalMillis +
+            ", asyncClient=" + asyncClient +
+            ", asyncClientThreads=" + asyncClientThreads +
+            ", circuitBreakerFailures=" + circuitBreakerFailures +
+            ", circuitBreakerProbeSeconds=" + circuitBreakerProbeSeconds +
+            ", uploadRetries=" + uploadRetries +
+            ", uploadRetryBackoffMillis=" + uploadRetryBackoffMillis +
+            ", indexFiles=" + indexFiles +
+            ", repushOnChange=" + repushOnChange +
+            ", indexRescanSeconds=" + indexRescanSeconds +
+            ", verifyChanges=" + verifyChanges +
+            ", verifyProbePath=" + verifyProbePath +
+            ", verifyProbeRequests=" + verifyProbeRequests +
+            ", verifyToleranceMillis=" + verifyToleranceMillis +
+            ", coalesceWindowMillis=" + coalesceWindowMillis +
+            ", bulkDirectoryImport=" + bulkDirectoryImport +
+            ", bulkImportReplace=" + bulkImportReplace +
+            ", importChunkSize=" + importChunkSize +
+            ", importChunkInFlight=" + importChunkInFlight +
+            ", wiremockGroups=" + wiremockGroups +
+            ", wiremockBundle=" + wiremockBundle +
+            ", journalFile=" + journalFile +
+            ", requestJournalResetSeconds=" + requestJournalResetSeconds +
+            ", requestJournalMaxEntries=" + requestJournalMaxEntries +
+            ", requestJournalCapture=" + requestJournalCapture +
+            ", requestJournalResetBeforeTest=" + requestJournalResetBeforeTest +
+            ", shareResources=" + shareResources +
+            ", queuedDispatch=" + queuedDispatch +
+            ", queueDrainSeconds=" + queueDrainSeconds +
             "} " + super.toString();
     }
 
@@ -67,17 +399,107 @@ public class WiremockEventContext extends EventContext {
 
         if (useProxy != that.useProxy) return false;
         if (continueOnUploadError != that.continueOnUploadError) return false;
-        if (!wiremockFilesDir.equals(that.wiremockFilesDir)) return false;
-        return wiremockUrl.equals(that.wiremockUrl);
+        if (dispatchParallelism != that.dispatchParallelism) return false;
+        if (eventDeadlineSeconds != that.eventDeadlineSeconds) return false;
+        if (!Objects.equals(wiremockFilesDir, that.wiremockFilesDir)) return false;
+        if (preloadFiles != that.preloadFiles) return false;
+        if (preloadCheckFiles != that.preloadCheckFiles) return false;
+        if (maxConnectionsPerRoute != that.maxConnectionsPerRoute) return false;
+        if (maxConnectionsTotal != that.maxConnectionsTotal) return false;
+        if (idleConnectionEvictSeconds != that.idleConnectionEvictSeconds) return false;
+        if (connectTimeoutMillis != that.connectTimeoutMillis) return false;
+        if (socketTimeoutMillis != that.socketTimeoutMillis) return false;
+        if (connectionRequestTimeoutMillis != that.connectionRequestTimeoutMillis) return false;
+        if (prewarmConnections != that.prewarmConnections) return false;
+        if (streamingThresholdBytes != that.streamingThresholdBytes) return false;
+        if (compressUploads != that.compressUploads) return false;
+        if (deltaUploads != that.deltaUploads) return false;
+        if (!Objects.equals(metricsClass, that.metricsClass)) return false;
+        if (twoPhaseApply != that.twoPhaseApply) return false;
+        if (modulationIntervalMillis != that.modulationIntervalMillis) return false;
+        if (asyncClient != that.asyncClient) return false;
+        if (asyncClientThreads != that.asyncClientThreads) return false;
+        if (circuitBreakerFailures != that.circuitBreakerFailures) return false;
+        if (circuitBreakerProbeSeconds != that.circuitBreakerProbeSeconds) return false;
+        if (uploadRetries != that.uploadRetries) return false;
+        if (uploadRetryBackoffMillis != that.uploadRetryBackoffMillis) return false;
+        if (indexFiles != that.indexFiles) return false;
+        if (repushOnChange != that.repushOnChange) return false;
+        if (indexRescanSeconds != that.indexRescanSeconds) return false;
+        if (verifyChanges != that.verifyChanges) return false;
+        if (!Objects.equals(verifyProbePath, that.verifyProbePath)) return false;
+        if (verifyProbeRequests != that.verifyProbeRequests) return false;
+        if (verifyToleranceMillis != that.verifyToleranceMillis) return false;
+        if (coalesceWindowMillis != that.coalesceWindowMillis) return false;
+        if (bulkDirectoryImport != that.bulkDirectoryImport) return false;
+        if (bulkImportReplace != that.bulkImportReplace) return false;
+        if (importChunkSize != that.importChunkSize) return false;
+        if (importChunkInFlight != that.importChunkInFlight) return false;
+        if (!Objects.equals(wiremockGroups, that.wiremockGroups)) return false;
+        if (!Objects.equals(wiremockBundle, that.wiremockBundle)) return false;
+        if (!Objects.equals(journalFile, that.journalFile)) return false;
+        if (requestJournalResetSeconds != that.requestJournalResetSeconds) return false;
+        if (requestJournalMaxEntries != that.requestJournalMaxEntries) return false;
+        if (requestJournalCapture != that.requestJournalCapture) return false;
+        if (requestJournalResetBeforeTest != that.requestJournalResetBeforeTest) return false;
+        if (shareResources != that.shareResources) return false;
+        if (queuedDispatch != that.queuedDispatch) return false;
+        if (queueDrainSeconds != that.queueDrainSeconds) return false;
+        return Objects.equals(wiremockUrl, that.wiremockUrl);
     }
 
     @Override
     public int hashCode() {
         int result = super.hashCode();
-        result = 31 * result + wiremockFilesDir.hashCode();
-        result = 31 * result + wiremockUrl.hashCode();
+        result = 31 * result + Objects.hashCode(wiremockFilesDir);
+        result = 31 * result + Objects.hashCode(wiremockUrl);
         result = 31 * result + (useProxy ? 1 : 0);
         result = 31 * result + (continueOnUploadError ? 1 : 0);
+        result = 31 * result + dispatchParallelism;
+        result = 31 * result + eventDeadlineSeconds;
+        result = 31 * result + (preloadFiles ? 1 : 0);
+        result = 31 * result + (preloadCheckFiles ? 1 : 0);
+        result = 31 * result + maxConnectionsPerRoute;
+        result = 31 * result + maxConnectionsTotal;
+        result = 31 * result + idleConnectionEvictSeconds;
+        result = 31 * result + connectTimeoutMillis;
+        result = 31 * result + socketTimeoutMillis;
+        result = 31 * result + connectionRequestTimeoutMillis;
+        result = 31 * result + (prewarmConnections ? 1 : 0);
+        result = 31 * result + Long.hashCode(streamingThresholdBytes);
+        result = 31 * result + (compressUploads ? 1 : 0);
+        result = 31 * result + (deltaUploads ? 1 : 0);
+        result = 31 * result + Objects.hashCode(metricsClass);
+        result = 31 * result + (twoPhaseApply ? 1 : 0);
+        result = 31 * result + modulationIntervalMillis;
+        result = 31 * result + (asyncClient ? 1 : 0);
+        result = 31 * result + asyncClientThreads;
+        result = 31 * result + circuitBreakerFailures;
+        result = 31 * result + circuitBreakerProbeSeconds;
+        result = 31 * result + uploadRetries;
+        result = 31 * result + uploadRetryBackoffMillis;
+        result = 31 * result + (indexFiles ? 1 : 0);
+        result = 31 * result + (repushOnChange ? 1 : 0);
+        result = 31 * result + indexRescanSeconds;
+        result = 31 * result + (verifyChanges ? 1 : 0);
+        result = 31 * result + Objects.hashCode(verifyProbePath);
+        result = 31 * result + verifyProbeRequests;
+        result = 31 * result + verifyToleranceMillis;
+        result = 31 * result + coalesceWindowMillis;
+        result = 31 * result + (bulkDirectoryImport ? 1 : 0);
+        result = 31 * result + (bulkImportReplace ? 1 : 0);
+        result = 31 * result + importChunkSize;
+        result = 31 * result + importChunkInFlight;
+        result = 31 * result + Objects.hashCode(wiremockGroups);
+        result = 31 * result + Objects.hashCode(wiremockBundle);
+        result = 31 * result + Objects.hashCode(journalFile);
+        result = 31 * result + requestJournalResetSeconds;
+        result = 31 * result + requestJournalMaxEntries;
+        result = 31 * result + (requestJournalCapture ? 1 : 0);
+        result = 31 * result + (requestJournalResetBeforeTest ? 1 : 0);
+        result = 31 * result + (shareResources ? 1 : 0);
+        result = 31 * result + (queuedDispatch ? 1 : 0);
+        result = 31 * result + queueDrainSeconds;
         return result;
     }
 }
@@ -20,18 +20,46 @@ import io.perfana.eventscheduler.api.EventGenerator;
 import io.perfana.eventscheduler.api.EventGeneratorProperties;
 import io.perfana.eventscheduler.api.EventLogger;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
+/**
+ * Generates wiremock events from the compact specs in the <code>schedule</code> property,
+ * one spec per line (or separated by <code>;</code>), for example:
+ * <pre>
+ * shape=ramp from=100 to=5000 duration=PT10M step=PT2S file=afterburner-stubs.json event=wiremock-change-import
+ * shape=spike from=100 to=8000 start=PT12M duration=PT30S period=PT2M repeat=3 file=wiremock-delay.json
+ * </pre>
+ */
 public class WiremockEventGenerator implements EventGenerator {
 
+    public static final String PROPERTY_SCHEDULE = "schedule";
+
+    private final EventGeneratorProperties generatorProperties;
+    private final EventLogger logger;
+
     WiremockEventGenerator(EventGeneratorProperties generatorProperties, EventLogger logger) {
+        this.generatorProperties = generatorProperties;
+        this.logger = logger;
     }
 
     @Override
     public List<CustomEvent> generate() {
-        System.out.println("WiremockEventGenerator: sorry, not implemented yet.");
-        return Collections.emptyList();
+        String specs = generatorProperties.getProperty(PROPERTY_SCHEDULE);
+        if (specs == null || specs.isBlank()) {
+            logger.warn("no '" + PROPERTY_SCHEDULE + "' property found, no wiremock events generated");
+            return Collections.emptyList();
+        }
+
+        List<WiremockGeneratedSchedule> schedules = Arrays.stream(specs.split("[;\\r\\n]+"))
+                .filter(spec -> !spec.isBlank())
+                .map(WiremockGeneratedSchedule::parse)
+                .collect(Collectors.toList());
+
+        schedules.forEach(schedule -> logger.info("generated " + schedule));
+        return WiremockGeneratedSchedule.concat(schedules);
     }
 
 }
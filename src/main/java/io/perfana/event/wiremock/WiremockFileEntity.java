@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Streams a wiremock file from disk to the socket, without loading it in memory.
+ * <p>
+ * Without replacements the file is transferred as is from its FileChannel, with a known
+ * content length. With replacements the placeholders are substituted on the fly and
+ * the body is sent chunked.
+ */
+class WiremockFileEntity extends AbstractHttpEntity {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final Map<String, String> replacements;
+    private volatile long writtenBytes;
+
+    WiremockFileEntity(File file, Map<String, String> replacements, ContentType contentType) {
+        this.file = file;
+        this.replacements = replacements == null || replacements.isEmpty() ? null : replacements;
+        setContentType(contentType.toString());
+        setChunked(this.replacements != null);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return replacements == null ? file.length() : -1;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE);
+        return replacements == null ? in : new WiremockReplacingInputStream(in, replacements);
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        if (replacements == null) {
+            transferFile(outStream);
+        }
+        else {
+            try (InputStream in = getContent()) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long total = 0;
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    outStream.write(buffer, 0, count);
+                    total += count;
+                }
+                writtenBytes = total;
+            }
+        }
+        outStream.flush();
+    }
+
+    private void transferFile(OutputStream outStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outStream);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            writtenBytes = position;
+        }
+    }
+
+    /**
+     * @return the number of bytes written by the last writeTo
+     */
+    long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
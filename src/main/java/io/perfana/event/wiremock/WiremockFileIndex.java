@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the wiremock files dir: the json files per directory with their parsed contents.
+ * Built once and kept current by a watch service, so events do not touch the file system.
+ * A watch service does not see changes made by other hosts on a network file system (nfs, smb),
+ * so the whole dir is also re-scanned periodically, comparing file sizes and modification times.
+ */
+class WiremockFileIndex implements AutoCloseable {
+
+    private final Path root;
+    private final long streamingThresholdBytes;
+    private final long rescanMillis;
+    private final EventLogger logger;
+
+    /** directory to the json files directly in that directory */
+    private final Map<Path, List<IndexedFile>> directories = new ConcurrentHashMap<>();
+    private final Map<Path, IndexedFile> files = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+    private final List<Consumer<Path>> listeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+    private Thread watcher;
+
+    /**
+     * @param rescanMillis re-scan all files at this interval, 0 to only rely on the watch service
+     */
+    WiremockFileIndex(File rootDir, long streamingThresholdBytes, long rescanMillis, EventLogger logger) {
+        this.root = rootDir.toPath().toAbsolutePath().normalize();
+        this.streamingThresholdBytes = streamingThresholdBytes;
+        this.rescanMillis = rescanMillis;
+        this.logger = logger;
+    }
+
+    /**
+     * Index all directories and files and start watching for changes.
+     */
+    void start() {
+        long startNanos = System.nanoTime();
+        try {
+            watchService = root.getFileSystem().newWatchService();
+        } catch (IOException e) {
+            throw new WiremockEventException("cannot watch wiremock files dir " + root, e);
+        }
+        indexDirectory(root);
+        logger.info(String.format("indexed %d wiremock files in %d directories in %d ms",
+                files.size(), directories.size(), (System.nanoTime() - startNanos) / 1_000_000));
+
+        watcher = new Thread(this::watch, "wiremock-index-watch");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * @param listener is called with the directory, relative to the files dir, after its files changed
+     */
+    void addListener(Consumer<Path> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return the indexed file, or null when it does not exist or is not readable
+     */
+    IndexedFile file(String relativePath) {
+        return files.get(root.resolve(relativePath).normalize());
+    }
+
+    /**
+     * @return the json files directly in this directory sorted by name, or null when the directory does not exist
+     */
+    List<IndexedFile> directory(String relativePath) {
+        return directories.get(root.resolve(relativePath).normalize());
+    }
+
+    /**
+     * Index the files of this directory, and the sub-directories that are not indexed yet.
+     */
+    private void indexDirectory(Path dir) {
+        register(dir);
+        List<Path> paths;
+        try (Stream<Path> list = Files.list(dir)) {
+            paths = list.collect(Collectors.toList());
+        } catch (IOException e) {
+            logger.warn("cannot index " + dir + ": " + e.getMessage());
+            return;
+        }
+
+        List<IndexedFile> indexed = new ArrayList<>();
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                if (!directories.containsKey(path)) {
+                    indexDirectory(path);
+                }
+            }
+            else if (path.getFileName().toString().endsWith(".json") && Files.isReadable(path)) {
+                IndexedFile file = indexFile(path);
+                if (file != null) {
+                    indexed.add(file);
+                }
+            }
+        }
+        indexed.sort(Comparator.comparing(file -> file.getFile().getName()));
+
+        Set<Path> current = indexed.stream().map(file -> file.path).collect(Collectors.toSet());
+        List<IndexedFile> previous = directories.put(dir, Collections.unmodifiableList(indexed));
+        if (previous != null) {
+            previous.stream().filter(file -> !current.contains(file.path)).forEach(file -> files.remove(file.path));
+        }
+        directories.keySet().stream()
+                .filter(path -> dir.equals(path.getParent()) && !paths.contains(path))
+                .collect(Collectors.toList())
+                .forEach(this::removeTree);
+    }
+
+    private IndexedFile indexFile(Path path) {
+        File file = path.toFile();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        IndexedFile known = files.get(path);
+        if (known != null && known.size == size && known.lastModified == lastModified) {
+            return known;
+        }
+        try {
+            boolean streamed = streamingThresholdBytes > 0 && size >= streamingThresholdBytes;
+            WiremockTemplate template = streamed ? null : WiremockTemplate.parse(Files.readString(path));
+            IndexedFile indexed = new IndexedFile(path, size, lastModified, template);
+            files.put(path, indexed);
+            return indexed;
+        } catch (IOException e) {
+            logger.warn("cannot read " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void register(Path dir) {
+        try {
+            WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchKeys.put(key, dir);
+        } catch (IOException e) {
+            logger.warn("cannot watch " + dir + ": " + e.getMessage());
+        } catch (ClosedWatchServiceException e) {
+            // the index is closed
+        }
+    }
+
+    private void watch() {
+        long nextRescanNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(rescanMillis);
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = rescanMillis > 0
+                        ? watchService.poll(Math.max(0, nextRescanNanos - System.nanoTime()), TimeUnit.NANOSECONDS)
+                        : watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            if (rescanMillis > 0 && System.nanoTime() - nextRescanNanos >= 0) {
+                rescan();
+                nextRescanNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(rescanMillis);
+            }
+            if (key != null) {
+                handle(key);
+            }
+        }
+    }
+
+    private synchronized void handle(WatchKey key) {
+        Path dir = watchKeys.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            overflow |= event.kind() == StandardWatchEventKinds.OVERFLOW;
+        }
+        if (!key.reset()) {
+            watchKeys.remove(key);
+        }
+        if (overflow) {
+            logger.info("too many changes in " + root + ", re-index all wiremock files");
+            rescan();
+        }
+        else if (dir != null) {
+            if (Files.isDirectory(dir)) {
+                indexDirectory(dir);
+            }
+            else {
+                removeTree(dir);
+            }
+            notifyListeners(dir);
+        }
+    }
+
+    /**
+     * Index all known directories again, and notify the directories whose files changed.
+     * Unchanged files keep their parsed contents.
+     */
+    synchronized void rescan() {
+        Map<Path, List<IndexedFile>> before = new HashMap<>(directories);
+        for (Path known : before.keySet()) {
+            if (!directories.containsKey(known)) {
+                continue;
+            }
+            if (Files.isDirectory(known)) {
+                indexDirectory(known);
+            }
+            else {
+                removeTree(known);
+            }
+        }
+        Set<Path> changed = new LinkedHashSet<>();
+        before.forEach((dir, indexed) -> {
+            if (!indexed.equals(directories.get(dir))) {
+                changed.add(dir);
+            }
+        });
+        directories.keySet().stream().filter(dir -> !before.containsKey(dir)).forEach(changed::add);
+        changed.forEach(this::notifyListeners);
+    }
+
+    private void removeTree(Path dir) {
+        directories.keySet().removeIf(path -> path.startsWith(dir));
+        files.keySet().removeIf(path -> path.startsWith(dir));
+    }
+
+    private void notifyListeners(Path dir) {
+        Path relative = root.relativize(dir);
+        logger.debug("wiremock files changed in " + dir);
+        for (Consumer<Path> listener : listeners) {
+            try {
+                listener.accept(relative);
+            } catch (Exception e) {
+                logger.warn("handling change in " + dir + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("closing watch service failed: " + e.getMessage());
+            }
+        }
+        directories.clear();
+        files.clear();
+    }
+
+    static class IndexedFile {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+        private final WiremockTemplate template;
+
+        private IndexedFile(Path path, long size, long lastModified, WiremockTemplate template) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.template = template;
+        }
+
+        File getFile() {
+            return path.toFile();
+        }
+
+        /**
+         * @return the parsed contents, or null for a file that is too large and is streamed from disk
+         */
+        WiremockTemplate getTemplate() {
+            return template;
+        }
+    }
+}
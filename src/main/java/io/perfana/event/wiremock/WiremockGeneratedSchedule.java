@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * One generated schedule: the events for a curve applied to one wiremock file.
+ * The events are created on access, so a schedule with many thousands of steps costs hardly any memory.
+ * <p>
+ * Spec example: <code>shape=ramp from=100 to=5000 duration=PT10M step=PT2S start=PT1M file=afterburner-stubs.json event=wiremock-change-import</code>
+ */
+class WiremockGeneratedSchedule extends AbstractList<CustomEvent> {
+
+    static final String DEFAULT_VARIABLE = "delay";
+    static final Duration DEFAULT_STEP = Duration.ofSeconds(2);
+
+    private static final Set<String> SCHEDULE_KEYS = Set.of("start", "step", "event", "variable");
+
+    private final WiremockCurve curve;
+    private final String eventName;
+    private final String variable;
+    private final long startMillis;
+    private final long stepMillis;
+    private final String fixedSettings;
+    private final int size;
+
+    private WiremockGeneratedSchedule(WiremockCurve curve, String eventName, String variable, long startMillis, long stepMillis, String fixedSettings) {
+        this.curve = curve;
+        this.eventName = eventName;
+        this.variable = variable;
+        this.startMillis = startMillis;
+        this.stepMillis = stepMillis;
+        this.fixedSettings = fixedSettings;
+        long changes = curve.changes(stepMillis);
+        if (changes > Integer.MAX_VALUE) {
+            throw new WiremockEventException("too many events for " + curve + " with step " + stepMillis + " ms");
+        }
+        this.size = (int) changes;
+    }
+
+    /**
+     * Parse one spec of whitespace separated <code>key=value</code> pairs. Keys other than the curve and
+     * schedule keys, such as <code>file</code>, are passed on as event settings. Directories are rejected:
+     * their files are uploaded without replacements, so the generated values would never reach wiremock.
+     */
+    static WiremockGeneratedSchedule parse(String specLine) {
+        Map<String, String> spec = Arrays.stream(specLine.trim().split("\\s+"))
+                .map(s -> s.split("=", 2))
+                .collect(Collectors.toMap(kv -> kv[0], kv -> kv.length == 2 ? kv[1] : "", (a, b) -> b, LinkedHashMap::new));
+
+        WiremockCurve curve = WiremockCurve.parse(spec);
+
+        String eventName = spec.getOrDefault("event", WiremockEvent.EVENT_WIREMOCK_CHANGE_MAPPINGS).toLowerCase(Locale.ROOT);
+        if (!WiremockEvent.CHANGE_EVENTS.contains(eventName)) {
+            throw new WiremockEventException("unknown event: " + eventName + " in " + spec);
+        }
+        if (spec.containsKey(WiremockPayloadFactory.SETTING_DIRECTORY)) {
+            throw new WiremockEventException("directories are uploaded without replacements, use a file in " + spec);
+        }
+        if (!spec.containsKey(WiremockPayloadFactory.SETTING_FILE)) {
+            throw new WiremockEventException("missing file in " + spec);
+        }
+        long startMillis = spec.containsKey("start") ? WiremockCurve.parseDuration(spec, "start", spec.get("start")) : 0;
+        long stepMillis = spec.containsKey("step") ? WiremockCurve.parseDuration(spec, "step", spec.get("step")) : DEFAULT_STEP.toMillis();
+        if (stepMillis <= 0) {
+            throw new WiremockEventException("step must be positive in " + spec);
+        }
+
+        String fixedSettings = spec.entrySet().stream()
+                .filter(e -> !WiremockCurve.KEYS.contains(e.getKey()) && !SCHEDULE_KEYS.contains(e.getKey()))
+                .map(e -> e.getKey() + "=" + e.getValue())
+                .collect(Collectors.joining(";"));
+
+        return new WiremockGeneratedSchedule(curve, eventName, spec.getOrDefault("variable", DEFAULT_VARIABLE), startMillis, stepMillis, fixedSettings);
+    }
+
+    @Override
+    public CustomEvent get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        long atMillis = curve.changeAt(index, stepMillis);
+        long value = Math.round(curve.valueAt(atMillis));
+        String description = curve.getShape().name().toLowerCase(Locale.ROOT) + " " + variable + " " + value;
+        String settings = fixedSettings + ";" + variable + "=" + value;
+        return new CustomEvent(Duration.ofMillis(startMillis + atMillis), eventName, description, settings);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    WiremockCurve getCurve() {
+        return curve;
+    }
+
+    @Override
+    public String toString() {
+        return eventName + " " + curve + " in " + size + " events starting at " + Duration.ofMillis(startMillis) + " (" + fixedSettings + ")";
+    }
+
+    /**
+     * All events of several schedules, one schedule after the other, still created on access.
+     */
+    static List<CustomEvent> concat(List<WiremockGeneratedSchedule> schedules) {
+        int[] offsets = new int[schedules.size() + 1];
+        for (int i = 0; i < schedules.size(); i++) {
+            long next = (long) offsets[i] + schedules.get(i).size();
+            if (next > Integer.MAX_VALUE) {
+                throw new WiremockEventException("too many generated events");
+            }
+            offsets[i + 1] = (int) next;
+        }
+        return new AbstractList<CustomEvent>() {
+            @Override
+            public CustomEvent get(int index) {
+                if (index < 0 || index >= offsets[schedules.size()]) {
+                    throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+                }
+                int schedule = Arrays.binarySearch(offsets, index);
+                // for an index that is not the first of a schedule, binarySearch returns -(insertion point) - 1
+                schedule = schedule >= 0 ? schedule : -schedule - 2;
+                return schedules.get(schedule).get(index - offsets[schedule]);
+            }
+
+            @Override
+            public int size() {
+                return offsets[schedules.size()];
+            }
+        };
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the pooled http client that is shared by the wiremock clients of all nodes,
+ * and the jdk http client that is shared by the async clients.
+ */
+class WiremockHttpClientFactory {
+
+    static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+    static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 100;
+    static final int DEFAULT_IDLE_CONNECTION_EVICT_SECONDS = 30;
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5_000;
+    static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 60_000;
+    static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT_MILLIS = 10_000;
+
+    private WiremockHttpClientFactory() {
+    }
+
+    static CloseableHttpClient create(WiremockEventContext context) {
+        return create(context.isUseProxy(), context.getMaxConnectionsPerRoute(), context.getMaxConnectionsTotal(),
+                context.getIdleConnectionEvictSeconds(), context.getConnectTimeoutMillis(), context.getSocketTimeoutMillis(),
+                context.getConnectionRequestTimeoutMillis());
+    }
+
+    static CloseableHttpClient create(boolean useProxy, int maxConnectionsPerRoute, int maxConnectionsTotal, int idleConnectionEvictSeconds,
+                                      int connectTimeoutMillis, int socketTimeoutMillis, int connectionRequestTimeoutMillis) {
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setMaxTotal(maxConnectionsTotal);
+        // stale connections are checked before reuse when idle for more than a second
+        connectionManager.setValidateAfterInactivity(1000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setSocketTimeout(socketTimeoutMillis)
+                .setConnectionRequestTimeout(connectionRequestTimeoutMillis)
+                .build();
+
+        HttpClientBuilder httpClientBuilder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setRequestExecutor(new WiremockTimingRequestExecutor())
+                .evictExpiredConnections()
+                .evictIdleConnections(idleConnectionEvictSeconds, TimeUnit.SECONDS);
+
+        if (useProxy) {
+            HttpHost httpProxy = new HttpHost("localhost", 8888);
+            DefaultProxyRoutePlanner routePlanner = new DefaultProxyRoutePlanner(httpProxy);
+            httpClientBuilder.setRoutePlanner(routePlanner);
+        }
+
+        return httpClientBuilder.build();
+    }
+
+    /**
+     * @param executor runs the response handling of the async calls, a few threads serve many nodes
+     */
+    static java.net.http.HttpClient createAsync(WiremockEventContext context, Executor executor) {
+        java.net.http.HttpClient.Builder builder = java.net.http.HttpClient.newBuilder()
+                .version(java.net.http.HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(context.getConnectTimeoutMillis()))
+                .executor(executor);
+
+        if (context.isUseProxy()) {
+            builder.proxy(ProxySelector.of(new InetSocketAddress("localhost", 8888)));
+        }
+
+        return builder.build();
+    }
+}
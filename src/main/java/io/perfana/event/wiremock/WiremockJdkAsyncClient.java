@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking wiremock client based on the jdk http client: an upload in flight does not hold a thread,
+ * so many wiremock nodes can be updated with a few threads.
+ */
+class WiremockJdkAsyncClient implements WiremockAsyncClient {
+
+    private static final String CONTENT_TYPE = "text/plain; charset=UTF-8";
+
+    private final String baseUrl;
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+    private final WiremockMetrics metrics;
+    private final EventLogger logger;
+    private volatile boolean compressUploads = false;
+
+    /**
+     * @param httpClient can be shared between the clients of multiple nodes
+     */
+    WiremockJdkAsyncClient(String url, HttpClient httpClient, Duration requestTimeout, WiremockMetrics metrics, EventLogger logger) {
+        this.baseUrl = url;
+        this.httpClient = httpClient;
+        this.requestTimeout = requestTimeout;
+        this.metrics = metrics;
+        this.logger = logger;
+    }
+
+    @Override
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Only rendered files are sent compressed, streamed files are sent as is.
+     */
+    void setCompressUploads(boolean compressUploads) {
+        this.compressUploads = compressUploads;
+    }
+
+    @Override
+    public CompletableFuture<Void> uploadAsync(WiremockPayload payload, String uriPath) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + uriPath))
+                .timeout(requestTimeout)
+                .header("Content-Type", CONTENT_TYPE);
+
+        long bytes;
+        if (payload.isStreaming()) {
+            request.POST(HttpRequest.BodyPublishers.ofInputStream(() -> openStream(payload)));
+            bytes = payload.getContentLength();
+        }
+        else if (compressUploads) {
+            byte[] compressed = payload.getCompressedBody();
+            request.header("Content-Encoding", WiremockPayload.GZIP).POST(HttpRequest.BodyPublishers.ofByteArray(compressed));
+            bytes = compressed.length;
+        }
+        else {
+            request.POST(HttpRequest.BodyPublishers.ofByteArray(payload.getBody()));
+            bytes = payload.getBody().length;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("About to send async to " + baseUrl + uriPath + ": " + payload.getName());
+        }
+
+        long startNanos = System.nanoTime();
+        return httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString())
+                .handle((response, error) -> {
+                    metrics.recordTime(WiremockMetrics.Phase.SERVER_RESPONSE, baseUrl, System.nanoTime() - startNanos);
+                    if (error != null) {
+                        throw new WiremockClientException("async call to wiremock failed: " + baseUrl + uriPath, error);
+                    }
+                    int statusCode = response.statusCode();
+                    if (statusCode < 200 || statusCode > 299) {
+                        throw new WiremockClientException(String.format("Unexpected status code: %d for request: POST %s%s, %s",
+                                statusCode, baseUrl, uriPath, response.body()), statusCode);
+                    }
+                    metrics.recordBytes(baseUrl, Math.max(0, bytes));
+                    logger.debug(response.body());
+                    return null;
+                });
+    }
+
+    private static InputStream openStream(WiremockPayload payload) {
+        try {
+            return payload.openStream();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WiremockJdkAsyncClient{" + baseUrl + "}";
+    }
+}
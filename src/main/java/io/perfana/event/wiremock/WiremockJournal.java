@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only csv journal of every file applied to every node: when it was scheduled, when it was sent,
+ * how long it took, the bytes, the status and the hash of the content.
+ * <p>
+ * Recording only puts an entry in a bounded buffer: a background thread hashes the content and writes
+ * the lines. When the buffer is full, entries are dropped and counted instead of slowing down the events.
+ * Read the journal with {@link WiremockJournalReport}.
+ */
+class WiremockJournal {
+
+    static final String HEADER = "scheduled_epoch_ms,start_epoch_ms,duration_ms,event,file,node,bytes,status,content_hash";
+    static final String STATUS_OK = "OK";
+    static final String NO_HASH = "-";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_BATCH = 1024;
+    private static final int HASH_CACHE_SIZE = 64;
+
+    private final File file;
+    private final EventLogger logger;
+    private final BlockingQueue<Entry> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private final Writer writer;
+    /** the same rendered body is sent to many nodes: hash it once */
+    private final Map<byte[], String> hashes = new LinkedHashMap<>(HASH_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<byte[], String> eldest) {
+            return size() > HASH_CACHE_SIZE;
+        }
+    };
+    private final AtomicLong written = new AtomicLong();
+    private volatile boolean running = true;
+
+    WiremockJournal(File file, EventLogger logger) {
+        this.file = file;
+        this.logger = logger;
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                Files.createDirectories(parent.toPath());
+            }
+            boolean isNew = !file.exists() || file.length() == 0;
+            writer = new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+            if (isNew) {
+                writer.write(HEADER);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            throw new WiremockEventException("cannot open wiremock journal " + file + ": " + e.getMessage(), e);
+        }
+        writerThread = new WiremockDispatcher.DaemonThreadFactory("wiremock-journal-").newThread(this::writeLoop);
+        writerThread.start();
+    }
+
+    /**
+     * @param scheduledMillis epoch millis the event was scheduled for, or -1 when not scheduled
+     */
+    Event event(String description, long scheduledMillis) {
+        return new Event(description, scheduledMillis);
+    }
+
+    /**
+     * Record one file applied to one node, cheap enough for the hot path.
+     * @param status {@link #STATUS_OK} or a short failure description
+     */
+    void record(Event event, WiremockPayload payload, String node, long startMillis, long durationNanos, String status) {
+        record(event, payload.getName(), payload.getBody(), payload.getContentLength(), node, startMillis, durationNanos, status);
+    }
+
+    /**
+     * @param body the content that was applied, hashed in the background, or null when unknown
+     */
+    void record(Event event, String file, byte[] body, long bytes, String node, long startMillis, long durationNanos, String status) {
+        Entry entry = new Entry(event, file, body, bytes, node, startMillis, durationNanos, status);
+        if (!buffer.offer(entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the status of a failed call: the http status code when known, otherwise the type of error
+     */
+    static String status(Throwable error) {
+        if (error instanceof WiremockClientException && ((WiremockClientException) error).getStatusCode() > 0) {
+            return "HTTP " + ((WiremockClientException) error).getStatusCode();
+        }
+        return error.getClass().getSimpleName();
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !buffer.isEmpty()) {
+            try {
+                Entry first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, MAX_BATCH - 1);
+                for (Entry entry : batch) {
+                    writer.write(line(entry));
+                    writer.write('\n');
+                }
+                written.addAndGet(batch.size());
+                batch.clear();
+                if (buffer.isEmpty()) {
+                    writer.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                logger.error("writing wiremock journal " + file + " failed, journal stopped: " + e.getMessage());
+                running = false;
+                buffer.clear();
+                return;
+            }
+        }
+    }
+
+    private String line(Entry entry) {
+        return entry.event.scheduledMillis + "," +
+            entry.startMillis + "," +
+            String.format(Locale.ROOT, "%.3f", entry.durationNanos / 1_000_000d) + "," +
+            csv(entry.event.description) + "," +
+            csv(entry.file) + "," +
+            csv(entry.node) + "," +
+            entry.bytes + "," +
+            csv(entry.status) + "," +
+            hash(entry.body);
+    }
+
+    private String hash(byte[] body) {
+        return body == null ? NO_HASH : hashes.computeIfAbsent(body, WiremockMappings::hash);
+    }
+
+    static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Write all recorded entries and close the journal. A writer that does not finish in time is
+     * stopped first, so the file is not closed while it is still being written.
+     */
+    void close() {
+        running = false;
+        boolean interrupted = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (writerThread.isAlive()) {
+            logger.warn("wiremock journal " + file + " is not written in time, dropping the remaining entries");
+            writerThread.interrupt();
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        dropped.addAndGet(buffer.size());
+        buffer.clear();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.warn("closing wiremock journal " + file + " failed: " + e.getMessage());
+        }
+        logger.info(String.format("wiremock journal %s: %d entries written, %d dropped", file, written.get(), dropped.get()));
+    }
+
+    /**
+     * The event that the journal entries belong to.
+     */
+    static class Event {
+        private final String description;
+        private final long scheduledMillis;
+
+        private Event(String description, long scheduledMillis) {
+            this.description = description;
+            this.scheduledMillis = scheduledMillis;
+        }
+    }
+
+    private static class Entry {
+        private final Event event;
+        private final String file;
+        private final byte[] body;
+        private final long bytes;
+        private final String node;
+        private final long startMillis;
+        private final long durationNanos;
+        private final String status;
+
+        private Entry(Event event, String file, byte[] body, long bytes, String node, long startMillis, long durationNanos, String status) {
+            this.event = event;
+            this.file = file;
+            this.body = body;
+            this.bytes = bytes;
+            this.node = node;
+            this.startMillis = startMillis;
+            this.durationNanos = durationNanos;
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns a {@link WiremockJournal} into a timeline: per event, when it was scheduled, when the first and the
+ * last node had it applied, the failures and the content hashes, relative to the first entry of the journal.
+ * <p>
+ * Usage: <code>WiremockJournalReport &lt;journal file&gt;</code>
+ */
+public class WiremockJournalReport {
+
+    private WiremockJournalReport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: WiremockJournalReport <journal file>");
+            System.exit(1);
+        }
+        System.out.print(report(read(Paths.get(args[0]))));
+    }
+
+    static List<Record> read(Path journal) throws IOException {
+        List<Record> records = new ArrayList<>();
+        for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith(WiremockJournal.HEADER)) {
+                continue;
+            }
+            List<String> fields = parseCsv(line);
+            if (fields.size() != 9) {
+                throw new WiremockEventException("invalid wiremock journal line: " + line);
+            }
+            records.add(new Record(Long.parseLong(fields.get(0)), Long.parseLong(fields.get(1)), Double.parseDouble(fields.get(2)),
+                    fields.get(3), fields.get(4), fields.get(5), Long.parseLong(fields.get(6)), fields.get(7), fields.get(8)));
+        }
+        return records;
+    }
+
+    static String report(List<Record> records) {
+        if (records.isEmpty()) {
+            return "empty wiremock journal\n";
+        }
+        long origin = Long.MAX_VALUE;
+        for (Record record : records) {
+            origin = Math.min(origin, record.scheduledMillis >= 0 ? Math.min(record.scheduledMillis, record.startMillis) : record.startMillis);
+        }
+
+        // one event, e.g. a change scheduled at a moment, can have many entries: files times nodes
+        Map<String, List<Record>> events = new LinkedHashMap<>();
+        for (Record record : records) {
+            events.computeIfAbsent(record.scheduledMillis + " " + record.event, k -> new ArrayList<>()).add(record);
+        }
+
+        StringBuilder report = new StringBuilder();
+        for (List<Record> entries : events.values()) {
+            Record first = entries.get(0);
+            long firstApplied = Long.MAX_VALUE;
+            long lastApplied = Long.MIN_VALUE;
+            long bytes = 0;
+            Set<String> nodes = new LinkedHashSet<>();
+            Set<String> files = new LinkedHashSet<>();
+            Set<String> hashes = new LinkedHashSet<>();
+            List<String> failures = new ArrayList<>();
+            for (Record entry : entries) {
+                long applied = entry.startMillis + Math.round(entry.durationMillis);
+                firstApplied = Math.min(firstApplied, applied);
+                lastApplied = Math.max(lastApplied, applied);
+                bytes += Math.max(0, entry.bytes);
+                nodes.add(entry.node);
+                files.add(entry.file);
+                if (!WiremockJournal.NO_HASH.equals(entry.contentHash)) {
+                    hashes.add(entry.contentHash.substring(0, Math.min(12, entry.contentHash.length())));
+                }
+                if (!WiremockJournal.STATUS_OK.equals(entry.status)) {
+                    failures.add(entry.node + " " + entry.file + ": " + entry.status);
+                }
+            }
+            report.append(String.format(Locale.ROOT, "%s %s%n", seconds(firstApplied - origin), first.event));
+            if (first.scheduledMillis >= 0) {
+                report.append(String.format(Locale.ROOT, "    scheduled %s, applied on all nodes %d ms later%n",
+                        seconds(first.scheduledMillis - origin), lastApplied - first.scheduledMillis));
+            }
+            report.append(String.format(Locale.ROOT, "    %d file(s) on %d node(s), %d bytes, spread between nodes %d ms, content %s%n",
+                    files.size(), nodes.size(), bytes, lastApplied - firstApplied, hashes.isEmpty() ? "streamed" : String.join(" ", hashes)));
+            failures.forEach(failure -> report.append("    FAILED ").append(failure).append('\n'));
+        }
+        return report.toString();
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ROOT, "+%.3fs", millis / 1000d);
+    }
+
+    static List<String> parseCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                }
+                else if (c == '"') {
+                    quoted = false;
+                }
+                else {
+                    field.append(c);
+                }
+            }
+            else if (c == '"') {
+                quoted = true;
+            }
+            else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    static class Record {
+        private final long scheduledMillis;
+        private final long startMillis;
+        private final double durationMillis;
+        private final String event;
+        private final String file;
+        private final String node;
+        private final long bytes;
+        private final String status;
+        private final String contentHash;
+
+        Record(long scheduledMillis, long startMillis, double durationMillis, String event, String file, String node,
+               long bytes, String status, String contentHash) {
+            this.scheduledMillis = scheduledMillis;
+            this.startMillis = startMillis;
+            this.durationMillis = durationMillis;
+            this.event = event;
+            this.file = file;
+            this.node = node;
+            this.bytes = bytes;
+            this.status = status;
+            this.contentHash = contentHash;
+        }
+
+        String getNode() {
+            return node;
+        }
+
+        String getStatus() {
+            return status;
+        }
+
+        String getContentHash() {
+            return contentHash;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Json helpers for wiremock mapping files: a single stub mapping, or an import file with a <code>mappings</code> array.
+ */
+class WiremockMappings {
+
+    static final String MAPPINGS = "mappings";
+    static final String IMPORT_OPTIONS = "importOptions";
+    static final String DELETE_ALL_NOT_IN_IMPORT = "deleteAllNotInImport";
+
+    static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private WiremockMappings() {
+    }
+
+    static JsonNode parse(byte[] body) {
+        try {
+            return OBJECT_MAPPER.readTree(body);
+        } catch (IOException e) {
+            throw new WiremockEventException("cannot parse wiremock json: " + e.getMessage(), e);
+        }
+    }
+
+    static JsonNode parse(InputStream in) {
+        try {
+            return OBJECT_MAPPER.readTree(in);
+        } catch (IOException e) {
+            throw new WiremockEventException("cannot parse wiremock json: " + e.getMessage(), e);
+        }
+    }
+
+    static boolean isImport(JsonNode root) {
+        return root != null && root.has(MAPPINGS) && root.get(MAPPINGS).isArray();
+    }
+
+    /**
+     * @return the mappings of an import file, or the single mapping of a mapping file
+     */
+    static List<ObjectNode> mappings(JsonNode root) {
+        if (isImport(root)) {
+            List<ObjectNode> mappings = new ArrayList<>();
+            root.get(MAPPINGS).forEach(mapping -> {
+                if (mapping.isObject()) {
+                    mappings.add((ObjectNode) mapping);
+                }
+            });
+            return mappings;
+        }
+        if (root != null && root.isObject()) {
+            return Collections.singletonList((ObjectNode) root);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the id (or uuid) of the mapping, or null when the mapping has no id
+     */
+    static String id(JsonNode mapping) {
+        JsonNode id = mapping.has("id") ? mapping.get("id") : mapping.get("uuid");
+        return id == null || id.isNull() ? null : id.asText();
+    }
+
+    /**
+     * Create an import document with the given mappings and (optional) import options.
+     */
+    static byte[] toImport(List<? extends JsonNode> mappings, JsonNode importOptions) {
+        ObjectNode root = OBJECT_MAPPER.createObjectNode();
+        ArrayNode array = root.putArray(MAPPINGS);
+        mappings.forEach(array::add);
+        if (importOptions != null) {
+            root.set(IMPORT_OPTIONS, importOptions);
+        }
+        return toBytes(root);
+    }
+
+    /**
+     * Merge the mappings of all payloads into one import document. For the same mapping (same id, or else
+     * the same request) the last one wins, and is also last in the import: wiremock prefers the most recent stub.
+     * Mappings not in the import are deleted when <code>deleteAllNotInImport</code> is set, or when one of the imports asks for it:
+     * such an import also drops the mappings of the payloads before it, as applying them one by one would.
+     */
+    static ObjectNode merge(List<WiremockPayload> payloads, boolean deleteAllNotInImport) {
+        Map<String, ObjectNode> mappings = new LinkedHashMap<>();
+        boolean deleteAll = deleteAllNotInImport;
+        for (WiremockPayload payload : payloads) {
+            JsonNode root = parse(payload.getBody());
+            JsonNode options = root.get(IMPORT_OPTIONS);
+            if (options != null && options.path(DELETE_ALL_NOT_IN_IMPORT).asBoolean(false)) {
+                deleteAll = true;
+                mappings.clear();
+            }
+            for (ObjectNode mapping : mappings(root)) {
+                String id = id(mapping);
+                String key = id != null ? id : "request:" + hash(mapping.path("request"));
+                mappings.remove(key);
+                mappings.put(key, mapping);
+            }
+        }
+        ObjectNode root = OBJECT_MAPPER.createObjectNode();
+        ArrayNode array = root.putArray(MAPPINGS);
+        mappings.values().forEach(array::add);
+        root.putObject(IMPORT_OPTIONS)
+                .put("duplicatePolicy", "OVERWRITE")
+                .put(DELETE_ALL_NOT_IN_IMPORT, deleteAll);
+        return root;
+    }
+
+    /**
+     * Give each mapping without an id a stable id based on the seed and its position, so pushing the same
+     * files again overwrites the earlier versions instead of adding a stub each time.
+     */
+    static ObjectNode withStableIds(ObjectNode root, String seed) {
+        List<ObjectNode> mappings = mappings(root);
+        for (int i = 0; i < mappings.size(); i++) {
+            if (id(mappings.get(i)) == null) {
+                mappings.get(i).put("id", UUID.nameUUIDFromBytes((seed + "#" + i).getBytes(StandardCharsets.UTF_8)).toString());
+            }
+        }
+        return root;
+    }
+
+    /**
+     * @return true for an import that deletes all mappings that are not in the import
+     */
+    static boolean isReplacingImport(JsonNode root) {
+        return isImport(root) && root.path(IMPORT_OPTIONS).path(DELETE_ALL_NOT_IN_IMPORT).asBoolean(false);
+    }
+
+    /**
+     * @return true when all fields of <code>expected</code> are present with the same values in <code>actual</code>,
+     * extra fields in <code>actual</code>, such as defaults added by wiremock, are ignored
+     */
+    static boolean contains(JsonNode actual, JsonNode expected) {
+        if (expected == null || expected.isNull()) {
+            return true;
+        }
+        if (actual == null) {
+            return false;
+        }
+        if (expected.isObject()) {
+            if (!actual.isObject()) {
+                return false;
+            }
+            Iterator<Map.Entry<String, JsonNode>> fields = expected.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (!contains(actual.get(field.getKey()), field.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (expected.isArray()) {
+            if (!actual.isArray() || actual.size() != expected.size()) {
+                return false;
+            }
+            for (int i = 0; i < expected.size(); i++) {
+                if (!contains(actual.get(i), expected.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (expected.isNumber() && actual.isNumber()) {
+            return expected.decimalValue().compareTo(actual.decimalValue()) == 0;
+        }
+        return expected.equals(actual);
+    }
+
+    static byte[] toBytes(JsonNode node) {
+        try {
+            return OBJECT_MAPPER.writeValueAsBytes(node);
+        } catch (IOException e) {
+            throw new WiremockEventException("cannot write wiremock json: " + e.getMessage(), e);
+        }
+    }
+
+    static String hash(JsonNode node) {
+        return hash(toBytes(node));
+    }
+
+    static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+/**
+ * Collects timings and byte counts of applying wiremock events.
+ * <p>
+ * Implementations need a public no-argument constructor to be used via the <code>metricsClass</code>
+ * property and must be thread safe: nodes are updated in parallel.
+ */
+public interface WiremockMetrics {
+
+    /** Used as node name for measurements that are not for a specific node. */
+    String ALL_NODES = "all";
+
+    enum Phase {
+        /** reading and parsing a wiremock file */
+        READ,
+        /** applying the replacements */
+        RENDER,
+        /** writing the request to the node */
+        SEND,
+        /** waiting for the response of the node */
+        SERVER_RESPONSE,
+        /** applying all files of one event to one node */
+        NODE_TOTAL,
+        /** applying one event to all nodes */
+        EVENT_TOTAL,
+        /** handing a queued or coalesced event over, it is applied later */
+        EVENT_SUBMIT,
+        /** the moment an event was applied on a node versus the scheduled moment */
+        SCHEDULE_LAG,
+        /** time between the first and the last node switching to new mappings in a two-phase apply */
+        SWITCH_SKEW,
+        /** time a node runs behind the target curve of a continuous modulation */
+        MODULATION_LAG,
+        /** response time of a stub after a change, to compare with the intended delay */
+        PROBE_LATENCY,
+        /** sending one chunk of a chunked import to a node, including the server response */
+        CHUNK
+    }
+
+    void recordTime(Phase phase, String node, long nanos);
+
+    void recordBytes(String node, long bytes);
+
+    /**
+     * @return human readable summary of all measurements, logged in afterTest
+     */
+    String summary();
+}
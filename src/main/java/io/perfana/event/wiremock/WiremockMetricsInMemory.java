@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default metrics: keeps count, min, max, mean and percentiles per phase and node in memory.
+ */
+public class WiremockMetricsInMemory implements WiremockMetrics {
+
+    /** keep at most this many samples per phase and node for the percentiles */
+    private static final int MAX_SAMPLES = 100_000;
+
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private final Map<String, AtomicLong> bytes = new ConcurrentSkipListMap<>();
+    private final int maxSamples;
+
+    public WiremockMetricsInMemory() {
+        this(MAX_SAMPLES);
+    }
+
+    WiremockMetricsInMemory(int maxSamples) {
+        this.maxSamples = maxSamples;
+    }
+
+    @Override
+    public void recordTime(Phase phase, String node, long nanos) {
+        timers.computeIfAbsent(phase + " " + node, k -> new Timer(maxSamples)).record(nanos);
+    }
+
+    /**
+     * @return the percentile in nanos of the recorded times, or -1 when nothing is recorded
+     */
+    long percentile(Phase phase, String node, double percentile) {
+        Timer timer = timers.get(phase + " " + node);
+        return timer == null ? -1 : timer.percentile(percentile);
+    }
+
+    @Override
+    public void recordBytes(String node, long count) {
+        bytes.computeIfAbsent(node, k -> new AtomicLong()).addAndGet(count);
+    }
+
+    @Override
+    public String summary() {
+        StringBuilder summary = new StringBuilder("wiremock event metrics (millis):");
+        timers.forEach((name, timer) -> summary.append("\n  ").append(name).append(": ").append(timer));
+        bytes.forEach((node, count) -> summary.append("\n  BYTES ").append(node).append(": ").append(count.get()));
+        return summary.toString();
+    }
+
+    /**
+     * Keeps a uniform random sample of all recorded times (reservoir sampling), so the percentiles
+     * of a long test are not only based on its first samples.
+     */
+    private static class Timer {
+        private final int maxSamples;
+        private long count;
+        private long sum;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+        private long[] samples = new long[64];
+
+        Timer(int maxSamples) {
+            this.maxSamples = maxSamples;
+        }
+
+        synchronized void record(long nanos) {
+            if (count < maxSamples) {
+                if (count == samples.length) {
+                    samples = Arrays.copyOf(samples, Math.min(maxSamples, samples.length * 2));
+                }
+                samples[(int) count] = nanos;
+            }
+            else {
+                // replace a kept sample with probability maxSamples / (count + 1)
+                long index = ThreadLocalRandom.current().nextLong(count + 1);
+                if (index < maxSamples) {
+                    samples[(int) index] = nanos;
+                }
+            }
+            count++;
+            sum += nanos;
+            min = Math.min(min, nanos);
+            max = Math.max(max, nanos);
+        }
+
+        synchronized long percentile(double percentile) {
+            return percentile(sorted(), percentile);
+        }
+
+        private long[] sorted() {
+            long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, maxSamples));
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        private static long percentile(long[] sorted, double percentile) {
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        @Override
+        public synchronized String toString() {
+            long[] sorted = sorted();
+            return String.format("count=%d min=%.1f mean=%.1f p50=%.1f p99=%.1f max=%.1f",
+                    count, millis(min), millis(sum / count), millis(percentile(sorted, 50)), millis(percentile(sorted, 99)), millis(max));
+        }
+
+        private static double millis(long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Continuous modulation: a background ticker follows a curve and pushes the interpolated value to all
+ * wiremock nodes at a fixed rate. When a push to a node is still in flight, only the latest value is
+ * kept and sent as soon as the node is free, so a slow node skips ahead instead of building a backlog.
+ * Mappings are pushed as an import that overwrites the previous push, mappings without id get a stable id.
+ */
+class WiremockModulator {
+
+    private final List<WiremockClient> clients;
+    private final WiremockPayloadFactory payloadFactory;
+    private final WiremockMetrics metrics;
+    private final EventLogger logger;
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService pushers;
+    private final List<Modulation> modulations = new CopyOnWriteArrayList<>();
+    private final WiremockJournal journal;
+    private final WiremockDeltaTracker deltaTracker;
+
+    /**
+     * @param journal records each push when not null
+     * @param deltaTracker forgets the pushed nodes when not null, the pushes bypass the delta uploads
+     */
+    WiremockModulator(List<WiremockClient> clients, WiremockPayloadFactory payloadFactory, WiremockMetrics metrics, EventLogger logger,
+                      WiremockJournal journal, WiremockDeltaTracker deltaTracker) {
+        this.clients = clients;
+        this.journal = journal;
+        this.deltaTracker = deltaTracker;
+        this.payloadFactory = payloadFactory;
+        this.metrics = metrics;
+        this.logger = logger;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(new WiremockDispatcher.DaemonThreadFactory("wiremock-modulate-tick-"));
+        this.pushers = Executors.newCachedThreadPool(new WiremockDispatcher.DaemonThreadFactory("wiremock-modulate-push-"));
+    }
+
+    /**
+     * Start following the curve from now on, with the value in <code>variable</code> next to the fixed settings.
+     * A running modulation of the same file is stopped first, so two tickers do not push to the same mappings.
+     */
+    void start(String description, WiremockCurve curve, String variable, Map<String, String> fixedSettings, String uriPath, long intervalMillis) {
+        Modulation modulation = new Modulation(description, curve, variable, fixedSettings, uriPath, intervalMillis);
+        for (Modulation running : modulations) {
+            if (running.target.equals(modulation.target) && !running.isFinished()) {
+                logger.info("replace " + running.description + " by " + description);
+                running.finish(false);
+            }
+        }
+        modulations.removeIf(Modulation::isFinished);
+        modulations.add(modulation);
+        logger.info(String.format("start %s: %s, update every %d ms", description, curve, intervalMillis));
+        modulation.schedule = ticker.scheduleAtFixedRate(modulation::tick, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true while a modulation has not completed or stopped
+     */
+    boolean isActive() {
+        return modulations.stream().anyMatch(modulation -> !modulation.isFinished());
+    }
+
+    /**
+     * Stop all running modulations and report them.
+     */
+    void stop() {
+        modulations.forEach(modulation -> modulation.finish(false));
+        ticker.shutdownNow();
+        pushers.shutdownNow();
+    }
+
+    private class Modulation {
+        private final String description;
+        private final WiremockCurve curve;
+        private final String variable;
+        private final Map<String, String> fixedSettings;
+        private final String uriPath;
+        private final String target;
+        private final boolean isMappings;
+        private final long intervalMillis;
+        private final long startNanos = System.nanoTime();
+        private final List<NodeState> nodes = new ArrayList<>();
+        private volatile ScheduledFuture<?> schedule;
+        private final AtomicLong ticks = new AtomicLong();
+        private boolean finished;
+        private long renderedValue = Long.MIN_VALUE;
+        private List<WiremockPayload> rendered;
+
+        private Modulation(String description, WiremockCurve curve, String variable, Map<String, String> fixedSettings, String uriPath, long intervalMillis) {
+            this.description = description;
+            this.curve = curve;
+            this.variable = variable;
+            this.fixedSettings = fixedSettings;
+            this.isMappings = WiremockEvent.MAPPINGS_URI.equals(uriPath) || WiremockEvent.MAPPINGS_IMPORT_URI.equals(uriPath);
+            this.uriPath = isMappings ? WiremockEvent.MAPPINGS_IMPORT_URI : uriPath;
+            this.target = WiremockEvent.queueTarget(this.uriPath, fixedSettings, Collections.emptyList());
+            this.intervalMillis = intervalMillis;
+            clients.forEach(client -> nodes.add(new NodeState(this, client)));
+        }
+
+        private void tick() {
+            long nowNanos = System.nanoTime();
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(nowNanos - startNanos);
+            long value = Math.round(curve.valueAt(elapsedMillis));
+            ticks.incrementAndGet();
+            nodes.forEach(node -> node.offer(value, nowNanos));
+
+            if (elapsedMillis >= curve.getDurationMillis() && nodes.stream().allMatch(node -> node.isSettled(value))) {
+                finish(true);
+            }
+        }
+
+        /**
+         * Render once per value, the same payloads are sent to all nodes.
+         */
+        private synchronized List<WiremockPayload> payloads(long value) {
+            if (value != renderedValue) {
+                Map<String, String> settings = new HashMap<>(fixedSettings);
+                settings.put(variable, String.valueOf(value));
+                rendered = isMappings ? overwritingImport(payloadFactory.create(settings)) : payloadFactory.create(settings);
+                renderedValue = value;
+            }
+            return rendered;
+        }
+
+        /**
+         * A posted mapping without id is added as a new stub on each push: import with stable ids to overwrite instead.
+         */
+        private List<WiremockPayload> overwritingImport(List<WiremockPayload> payloads) {
+            if (payloads.stream().anyMatch(WiremockPayload::isStreaming)) {
+                throw new WiremockEventException("streamed files cannot be modulated");
+            }
+            ObjectNode root = WiremockMappings.withStableIds(WiremockMappings.merge(payloads, false), description);
+            return Collections.singletonList(new WiremockPayload(description, WiremockMappings.toBytes(root)));
+        }
+
+        private synchronized boolean isFinished() {
+            return finished;
+        }
+
+        private void finish(boolean completed) {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+            }
+            ScheduledFuture<?> current = schedule;
+            if (current != null) {
+                current.cancel(false);
+            }
+            report(completed);
+        }
+
+        private void report(boolean completed) {
+            double seconds = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)) / 1000.0;
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("%s %s after %.1f s, %d ticks, target rate %.1f/s",
+                    description, completed ? "completed" : "stopped", seconds, ticks.get(), 1000.0 / intervalMillis));
+            nodes.forEach(node -> report.append(System.lineSeparator()).append("  ").append(node.report(seconds)));
+            logger.info(report.toString());
+        }
+    }
+
+    private class NodeState {
+        private final Modulation modulation;
+        private final WiremockClient client;
+        private boolean inFlight;
+        private long lastValue = Long.MIN_VALUE;
+        private Long pendingValue;
+        private long pendingTargetNanos;
+        private long pushes;
+        private long skipped;
+        private long failed;
+        private long lagSumMillis;
+        private long lagMaxMillis;
+        private double maxDeviation;
+
+        private NodeState(Modulation modulation, WiremockClient client) {
+            this.modulation = modulation;
+            this.client = client;
+        }
+
+        /**
+         * Push the value now, or keep it as the next value when a push is in flight.
+         */
+        private synchronized void offer(long value, long targetNanos) {
+            if (inFlight) {
+                if (pendingValue != null) {
+                    skipped++;
+                }
+                pendingValue = value == lastValue ? null : value;
+                pendingTargetNanos = targetNanos;
+                return;
+            }
+            if (value != lastValue) {
+                push(value, targetNanos);
+            }
+        }
+
+        private synchronized boolean isSettled(long value) {
+            return !inFlight && pendingValue == null && lastValue == value;
+        }
+
+        private void push(long value, long targetNanos) {
+            inFlight = true;
+            lastValue = value;
+            try {
+                pushers.execute(() -> send(value, targetNanos));
+            } catch (RejectedExecutionException e) {
+                inFlight = false;
+            }
+        }
+
+        private void send(long value, long targetNanos) {
+            boolean success = false;
+            WiremockJournal.Event journalEvent = journal == null ? null : journal.event(modulation.description + " " + modulation.variable + "=" + value,
+                    System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - targetNanos));
+            try {
+                for (WiremockPayload payload : modulation.payloads(value)) {
+                    long startMillis = System.currentTimeMillis();
+                    long startNanos = System.nanoTime();
+                    String status = WiremockJournal.STATUS_OK;
+                    try {
+                        client.upload(payload, modulation.uriPath);
+                    } catch (RuntimeException e) {
+                        status = WiremockJournal.status(e);
+                        throw e;
+                    } finally {
+                        if (journalEvent != null) {
+                            journal.record(journalEvent, payload, client.getBaseUrl(), startMillis, System.nanoTime() - startNanos, status);
+                        }
+                    }
+                }
+                if (deltaTracker != null && modulation.isMappings) {
+                    deltaTracker.forget(client.getBaseUrl());
+                }
+                success = true;
+            } catch (Exception e) {
+                logger.warn(String.format("%s: push of %s=%d to %s failed: %s", modulation.description, modulation.variable, value, client.getBaseUrl(), e.getMessage()));
+            }
+            completed(value, targetNanos, success);
+        }
+
+        private synchronized void completed(long value, long targetNanos, boolean success) {
+            long nowNanos = System.nanoTime();
+            inFlight = false;
+            if (success) {
+                pushes++;
+                long lagNanos = nowNanos - targetNanos;
+                long lagMillis = TimeUnit.NANOSECONDS.toMillis(lagNanos);
+                lagSumMillis += lagMillis;
+                lagMaxMillis = Math.max(lagMaxMillis, lagMillis);
+                double target = modulation.curve.valueAt(TimeUnit.NANOSECONDS.toMillis(nowNanos - modulation.startNanos));
+                maxDeviation = Math.max(maxDeviation, Math.abs(target - value));
+                metrics.recordTime(WiremockMetrics.Phase.MODULATION_LAG, client.getBaseUrl(), lagNanos);
+            }
+            else {
+                failed++;
+                // try again with the next tick
+                lastValue = Long.MIN_VALUE;
+            }
+            if (pendingValue != null && !modulation.isFinished()) {
+                long next = pendingValue;
+                pendingValue = null;
+                push(next, pendingTargetNanos);
+            }
+        }
+
+        private synchronized String report(double seconds) {
+            return String.format("node %s: pushes=%d (%.1f/s), skipped=%d, failed=%d, lag mean=%d ms max=%d ms, max deviation from curve=%.0f",
+                    client.getBaseUrl(), pushes, pushes / seconds, skipped, failed,
+                    pushes == 0 ? 0 : lagSumMillis / pushes, lagMaxMillis, maxDeviation);
+        }
+    }
+}
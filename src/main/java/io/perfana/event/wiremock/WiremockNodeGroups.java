@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Named groups of wiremock nodes, from the <code>wiremockGroups</code> property, e.g.
+ * <code>payments=http://wm1:8080,http://wm2:8080;search=http://wm3:8080</code>, and the
+ * per-node variables <code>${node.index}</code>, <code>${node.number}</code> and <code>${node.count}</code>
+ * that can be used in the replacement values of an event.
+ */
+class WiremockNodeGroups {
+
+    static final String SETTING_GROUP = "group";
+
+    static final String NODE_INDEX = "${node.index}";
+    static final String NODE_NUMBER = "${node.number}";
+    static final String NODE_COUNT = "${node.count}";
+
+    private static final Pattern NODE_VARIABLE = Pattern.compile("\\$\\{node\\.(index|number|count)}");
+
+    /** group name to node urls */
+    private final Map<String, List<String>> groups;
+
+    private WiremockNodeGroups(Map<String, List<String>> groups) {
+        this.groups = groups;
+    }
+
+    static WiremockNodeGroups parse(String wiremockGroups) {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        if (wiremockGroups == null || wiremockGroups.isBlank()) {
+            return new WiremockNodeGroups(groups);
+        }
+        for (String group : wiremockGroups.split(";")) {
+            if (group.isBlank()) {
+                continue;
+            }
+            int equals = group.indexOf('=');
+            if (equals <= 0) {
+                throw new WiremockEventException("invalid wiremock group, expected name=url,url: " + group);
+            }
+            String name = group.substring(0, equals).trim();
+            List<String> urls = urls(group.substring(equals + 1));
+            if (urls.isEmpty()) {
+                throw new WiremockEventException("wiremock group without nodes: " + name);
+            }
+            if (groups.put(name, urls) != null) {
+                throw new WiremockEventException("duplicate wiremock group: " + name);
+            }
+        }
+        return new WiremockNodeGroups(groups);
+    }
+
+    static List<String> urls(String commaSeparated) {
+        List<String> urls = new ArrayList<>();
+        if (commaSeparated != null) {
+            for (String url : commaSeparated.split(",")) {
+                if (!url.isBlank()) {
+                    urls.add(url.trim());
+                }
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * @return the urls of all nodes: the nodes of <code>wiremockUrl</code> followed by the nodes that are only in a group
+     */
+    List<String> allUrls(String wiremockUrl) {
+        Set<String> all = new LinkedHashSet<>(urls(wiremockUrl));
+        groups.values().forEach(all::addAll);
+        return new ArrayList<>(all);
+    }
+
+    /**
+     * @return the urls of the group
+     * @throws WiremockEventException for an unknown group
+     */
+    List<String> urlsOf(String group) {
+        List<String> urls = groups.get(group);
+        if (urls == null) {
+            throw new WiremockEventException("unknown wiremock group: " + group + ", known groups: " + groups.keySet());
+        }
+        return Collections.unmodifiableList(urls);
+    }
+
+    static boolean hasNodeVariables(Map<String, String> settings) {
+        return settings.values().stream().anyMatch(value -> value != null && NODE_VARIABLE.matcher(value).find());
+    }
+
+    /**
+     * @return the settings with the node variables replaced for the node at <code>index</code> of <code>count</code> target nodes
+     */
+    static Map<String, String> forNode(Map<String, String> settings, int index, int count) {
+        Map<String, String> nodeSettings = new HashMap<>(settings.size());
+        settings.forEach((key, value) -> nodeSettings.put(key, value == null ? null : value
+                .replace(NODE_INDEX, String.valueOf(index))
+                .replace(NODE_NUMBER, String.valueOf(index + 1))
+                .replace(NODE_COUNT, String.valueOf(count))));
+        return nodeSettings;
+    }
+}
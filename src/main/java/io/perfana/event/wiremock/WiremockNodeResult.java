@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of one dispatch to one wiremock node.
+ */
+class WiremockNodeResult {
+
+    private final String node;
+    private int uploaded;
+    private int failed;
+    private int unchanged;
+    private long durationNanos;
+    private long completedAtMillis;
+    private boolean timedOut;
+    private Exception error;
+
+    WiremockNodeResult(String node) {
+        this.node = node;
+    }
+
+    synchronized void uploaded() {
+        uploaded++;
+    }
+
+    synchronized void unchanged() {
+        unchanged++;
+    }
+
+    synchronized void failed(Exception e) {
+        failed++;
+        if (error == null) {
+            error = e;
+        }
+    }
+
+    synchronized void timedOut() {
+        timedOut = true;
+    }
+
+    synchronized void completed(long durationNanos) {
+        this.durationNanos = durationNanos;
+        this.completedAtMillis = System.currentTimeMillis();
+    }
+
+    String getNode() {
+        return node;
+    }
+
+    synchronized int getUploaded() {
+        return uploaded;
+    }
+
+    synchronized int getFailed() {
+        return failed;
+    }
+
+    synchronized int getUnchanged() {
+        return unchanged;
+    }
+
+    synchronized long getDurationNanos() {
+        return durationNanos;
+    }
+
+    synchronized long getDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    }
+
+    /**
+     * @return epoch millis when the node finished, 0 when it did not finish
+     */
+    synchronized long getCompletedAtMillis() {
+        return completedAtMillis;
+    }
+
+    synchronized boolean isTimedOut() {
+        return timedOut;
+    }
+
+    synchronized Exception getError() {
+        return error;
+    }
+
+    synchronized boolean isSuccess() {
+        return failed == 0 && !timedOut;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "node " + node +
+            ": uploaded=" + uploaded +
+            ", failed=" + failed +
+            (unchanged > 0 ? ", unchanged=" + unchanged : "") +
+            ", durationMillis=" + getDurationMillis() +
+            (timedOut ? ", timed out" : "") +
+            (error != null ? ", error=" + error.getMessage() : "");
+    }
+}
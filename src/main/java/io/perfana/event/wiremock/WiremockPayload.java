@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A wiremock file ready to be sent to one or more wiremock nodes: either rendered
+ * in memory, or streamed from disk with the replacements applied on the fly.
+ */
+class WiremockPayload {
+
+    static final String GZIP = "gzip";
+
+    private final String name;
+    private final byte[] body;
+    private final File file;
+    private final Map<String, String> replacements;
+    private byte[] compressedBody;
+
+    WiremockPayload(String name, byte[] body) {
+        this(name, body, null, null);
+    }
+
+    private WiremockPayload(String name, byte[] body, File file, Map<String, String> replacements) {
+        this.name = name;
+        this.body = body;
+        this.file = file;
+        this.replacements = replacements;
+    }
+
+    static WiremockPayload streaming(String name, File file, Map<String, String> replacements) {
+        return new WiremockPayload(name, null, file, replacements);
+    }
+
+    /**
+     * A rendered payload with a gzip compressed copy made before, e.g. by the bundle packer.
+     */
+    static WiremockPayload precompressed(String name, byte[] body, byte[] compressedBody) {
+        WiremockPayload payload = new WiremockPayload(name, body);
+        payload.compressedBody = compressedBody;
+        return payload;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isStreaming() {
+        return body == null;
+    }
+
+    /**
+     * @return the rendered body, or null for a streaming payload
+     */
+    byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return the size of the body, or -1 when unknown before sending
+     */
+    long getContentLength() {
+        if (body != null) {
+            return body.length;
+        }
+        return replacements == null || replacements.isEmpty() ? file.length() : -1;
+    }
+
+    InputStream openStream() throws IOException {
+        return body != null ? new ByteArrayInputStream(body) : createEntity(ContentType.DEFAULT_BINARY).getContent();
+    }
+
+    HttpEntity createEntity(ContentType contentType) {
+        return body != null ? new ByteArrayEntity(body, contentType) : new WiremockFileEntity(file, replacements, contentType);
+    }
+
+    /**
+     * A rendered body is compressed only once, for all nodes. A streaming body is compressed while it is sent.
+     */
+    HttpEntity createCompressedEntity(ContentType contentType) {
+        if (body == null) {
+            return new GzipCompressingEntity(createEntity(contentType));
+        }
+        ByteArrayEntity entity = new ByteArrayEntity(getCompressedBody(), contentType);
+        entity.setContentEncoding(GZIP);
+        return entity;
+    }
+
+    synchronized byte[] getCompressedBody() {
+        if (compressedBody == null) {
+            compressedBody = gzip(body);
+        }
+        return compressedBody;
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 8));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new WiremockClientException("gzip of payload failed", e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+        return "WiremockPayload{" +
+            "name='" + name + '\'' +
+            (body != null ? ", bytes=" + body.length : ", streaming from " + file) +
+            '}';
+    }
+}
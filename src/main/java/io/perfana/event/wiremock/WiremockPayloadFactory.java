@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Turns the settings of a custom event (<code>file=...</code> plus replacements,
+ * or <code>directory=...</code>) into rendered payloads.
+ */
+class WiremockPayloadFactory {
+
+    static final String SETTING_FILE = "file";
+    static final String SETTING_DIRECTORY = "directory";
+
+    private final File rootDir;
+    private final WiremockTemplateCache templateCache;
+    private final long streamingThresholdBytes;
+    private final WiremockMetrics metrics;
+    private final EventLogger logger;
+    private final WiremockFileIndex index;
+    private final WiremockBundle bundle;
+
+    WiremockPayloadFactory(File rootDir, WiremockTemplateCache templateCache, long streamingThresholdBytes, WiremockMetrics metrics, EventLogger logger) {
+        this(rootDir, templateCache, streamingThresholdBytes, metrics, logger, null);
+    }
+
+    /**
+     * @param index when not null, files and directories are looked up in the index instead of on disk
+     */
+    WiremockPayloadFactory(File rootDir, WiremockTemplateCache templateCache, long streamingThresholdBytes, WiremockMetrics metrics,
+                           EventLogger logger, WiremockFileIndex index) {
+        this(rootDir, templateCache, streamingThresholdBytes, metrics, logger, index, null);
+    }
+
+    /**
+     * @param bundle when not null, files and directories are served from the bundle instead of from disk
+     */
+    WiremockPayloadFactory(File rootDir, WiremockTemplateCache templateCache, long streamingThresholdBytes, WiremockMetrics metrics,
+                           EventLogger logger, WiremockFileIndex index, WiremockBundle bundle) {
+        this.index = index;
+        this.bundle = bundle;
+        this.rootDir = rootDir;
+        this.templateCache = templateCache;
+        this.streamingThresholdBytes = streamingThresholdBytes;
+        this.metrics = metrics;
+        this.logger = logger;
+    }
+
+    /**
+     * @return true when the file is too large to be kept in memory and is streamed from disk instead
+     */
+    boolean isStreamed(File file) {
+        return streamingThresholdBytes > 0 && file.length() >= streamingThresholdBytes;
+    }
+
+    List<WiremockPayload> create(Map<String, String> settings) {
+
+        if (settings.containsKey(SETTING_FILE) && settings.containsKey(SETTING_DIRECTORY)) {
+            throw new WiremockEventException("Both file and directory settings are present. Please use only one.");
+        }
+
+        if (settings.containsKey(SETTING_FILE)) {
+            String file = settings.get(SETTING_FILE);
+
+            Map<String, String> replacements = settings.entrySet().stream()
+                    .filter(e -> !e.getKey().equals(SETTING_FILE))
+                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+
+            if (bundle != null) {
+                WiremockBundle.Entry entry = bundle.file(file);
+                if (entry == null) {
+                    logger.error("Wiremock json file is not in the bundle: " + file);
+                    return Collections.emptyList();
+                }
+                return renderBundlePayloads(Collections.singletonList(entry), replacements);
+            }
+            if (index != null) {
+                WiremockFileIndex.IndexedFile indexed = index.file(file);
+                if (indexed == null) {
+                    logger.error("Wiremock json file does not exist: " + new File(rootDir, file));
+                    return Collections.emptyList();
+                }
+                return renderIndexedPayloads(Collections.singletonList(indexed), replacements);
+            }
+
+            File jsonFile = new File(rootDir, file);
+            if (!jsonFile.exists()) {
+                logger.error("Wiremock json file does not exist: " + jsonFile);
+                return Collections.emptyList();
+            }
+            return renderPayloads(new File[]{jsonFile}, replacements);
+        }
+
+        // directory will load all files in the directory after deleting the old ones
+        if (settings.containsKey(SETTING_DIRECTORY)) {
+            String directory = settings.get(SETTING_DIRECTORY);
+            if (bundle != null) {
+                List<WiremockBundle.Entry> entries = bundle.directory(directory);
+                if (entries == null) {
+                    throw new WiremockEventException("Directory is not in the bundle: " + directory);
+                }
+                return renderBundlePayloads(entries, null);
+            }
+            if (index != null) {
+                List<WiremockFileIndex.IndexedFile> indexed = index.directory(directory);
+                if (indexed == null) {
+                    throw new WiremockEventException("Directory does not exist: " + new File(rootDir, directory));
+                }
+                return renderIndexedPayloads(indexed, null);
+            }
+            File dir = new File(rootDir, directory);
+            if (!dir.exists()) {
+                throw new WiremockEventException("Directory does not exist: " + dir);
+            }
+            File[] files = dir.listFiles();
+            if (files != null) {
+                return renderPayloads(files, null);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private List<WiremockPayload> renderPayloads(File[] files, Map<String, String> replacements) {
+        if (replacements == null) {
+            logger.info("No replacements provided, skipping replacements.");
+        }
+        return Arrays.stream(files)
+                .peek(file -> logger.info("check " + file))
+                .filter(file -> !file.isDirectory())
+                .filter(File::canRead)
+                .filter(file -> file.getName().endsWith(".json"))
+                .peek(file -> logger.info("import " + file))
+                .map(file -> renderPayload(file, replacements))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private List<WiremockPayload> renderIndexedPayloads(List<WiremockFileIndex.IndexedFile> files, Map<String, String> replacements) {
+        if (replacements == null) {
+            logger.info("No replacements provided, skipping replacements.");
+        }
+        List<WiremockPayload> payloads = new ArrayList<>(files.size());
+        for (WiremockFileIndex.IndexedFile indexed : files) {
+            File file = indexed.getFile();
+            logger.info("import " + file);
+            WiremockTemplate template = indexed.getTemplate();
+            if (template == null) {
+                payloads.add(WiremockPayload.streaming(file.getName(), file, replacements));
+            }
+            else {
+                long startNanos = System.nanoTime();
+                byte[] body = template.render(replacements);
+                metrics.recordTime(WiremockMetrics.Phase.RENDER, WiremockMetrics.ALL_NODES, System.nanoTime() - startNanos);
+                payloads.add(new WiremockPayload(file.getName(), body));
+            }
+        }
+        return payloads;
+    }
+
+    private List<WiremockPayload> renderBundlePayloads(List<WiremockBundle.Entry> entries, Map<String, String> replacements) {
+        List<WiremockPayload> payloads = new ArrayList<>(entries.size());
+        for (WiremockBundle.Entry entry : entries) {
+            logger.info("import " + entry.getPath() + " from bundle");
+            long startNanos = System.nanoTime();
+            WiremockTemplate template = entry.getTemplate();
+            long readNanos = System.nanoTime();
+            byte[] body = template.render(replacements);
+            metrics.recordTime(WiremockMetrics.Phase.READ, WiremockMetrics.ALL_NODES, readNanos - startNanos);
+            metrics.recordTime(WiremockMetrics.Phase.RENDER, WiremockMetrics.ALL_NODES, System.nanoTime() - readNanos);
+            // the compressed copy is only valid when nothing was replaced
+            byte[] compressed = body == template.getSource() ? entry.getCompressed() : null;
+            payloads.add(compressed != null
+                    ? WiremockPayload.precompressed(entry.getName(), body, compressed)
+                    : new WiremockPayload(entry.getName(), body));
+        }
+        return payloads;
+    }
+
+    private WiremockPayload renderPayload(File file, Map<String, String> replacements) {
+        if (isStreamed(file)) {
+            return WiremockPayload.streaming(file.getName(), file, replacements);
+        }
+        try {
+            long startNanos = System.nanoTime();
+            WiremockTemplate template = templateCache.get(file);
+            long readNanos = System.nanoTime();
+            byte[] body = template.render(replacements);
+            metrics.recordTime(WiremockMetrics.Phase.READ, WiremockMetrics.ALL_NODES, readNanos - startNanos);
+            metrics.recordTime(WiremockMetrics.Phase.RENDER, WiremockMetrics.ALL_NODES, System.nanoTime() - readNanos);
+            return new WiremockPayload(file.getName(), body);
+        } catch (IOException e) {
+            logger.error("reading file: " + file);
+            return null;
+        }
+    }
+}
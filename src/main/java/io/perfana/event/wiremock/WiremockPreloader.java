@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Warm mode: loads all wiremock files in memory before the test starts and pre-renders
+ * the payloads of all events found in the schedule script, so a custom event only
+ * needs to send ready-made bytes.
+ * <p>
+ * With <code>checkFiles</code>, the modification time and size of the files of a pre-rendered event are checked
+ * when it is used, and the event is rendered again when they changed. Without it, the owner of the preloader
+ * must call {@link #clear()} when files change, as the file index does.
+ */
+class WiremockPreloader {
+
+    private final File rootDir;
+    private final WiremockTemplateCache templateCache;
+    private final WiremockPayloadFactory payloadFactory;
+    private final EventLogger logger;
+    private final boolean checkFiles;
+
+    private final Map<String, Prerendered> prerendered;
+
+    WiremockPreloader(File rootDir, WiremockTemplateCache templateCache, WiremockPayloadFactory payloadFactory, EventLogger logger,
+                      boolean checkFiles) {
+        this(rootDir, templateCache, payloadFactory, logger, checkFiles, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @param prerendered the pre-rendered events, shared with other events that use the same files
+     */
+    WiremockPreloader(File rootDir, WiremockTemplateCache templateCache, WiremockPayloadFactory payloadFactory, EventLogger logger,
+                      boolean checkFiles, Map<String, Prerendered> prerendered) {
+        this.prerendered = prerendered;
+        this.rootDir = rootDir;
+        this.templateCache = templateCache;
+        this.payloadFactory = payloadFactory;
+        this.logger = logger;
+        this.checkFiles = checkFiles && rootDir != null;
+    }
+
+    void preload(String scheduleScript, Set<String> eventNames) {
+        long startNanos = System.nanoTime();
+
+        long fileBytes = loadAllFiles();
+        if (scheduleScript != null) {
+            prerenderEvents(scheduleScript, eventNames);
+        }
+
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        logger.info(String.format("preloaded %d bytes of wiremock files and %d pre-rendered events using %d bytes in %d ms",
+                fileBytes, prerendered.size(), prerenderedBytes(), durationMillis));
+    }
+
+    /**
+     * @return the pre-rendered payloads for these event settings, rendered again when the files changed,
+     * or null when not pre-rendered
+     */
+    List<WiremockPayload> get(Map<String, String> settings) {
+        Prerendered event = prerendered.get(key(settings));
+        if (event == null) {
+            return null;
+        }
+        if (checkFiles && event.filesStamp != filesStamp(settings)) {
+            logger.info("wiremock files changed since pre-rendering " + settings + ", rendering again");
+            prerender(settings);
+            event = prerendered.get(key(settings));
+        }
+        return event == null ? null : event.payloads;
+    }
+
+    void clear() {
+        prerendered.clear();
+    }
+
+    private long loadAllFiles() {
+        if (rootDir == null) {
+            // served from a bundle, nothing to load
+            return 0;
+        }
+        try (Stream<Path> paths = Files.walk(rootDir.toPath())) {
+            List<File> files = paths
+                    .filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().endsWith(".json"))
+                    .map(Path::toFile)
+                    .filter(file -> !payloadFactory.isStreamed(file))
+                    .collect(Collectors.toList());
+            long bytes = 0;
+            for (File file : files) {
+                bytes += templateCache.get(file).getSourceLength();
+            }
+            return bytes;
+        } catch (IOException e) {
+            throw new WiremockEventException("failed to preload wiremock files from " + rootDir, e);
+        }
+    }
+
+    private void prerenderEvents(String scheduleScript, Set<String> eventNames) {
+        scheduleScript.lines()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .map(this::parseLine)
+                .filter(event -> event != null && eventNames.contains(event.getName().toLowerCase(Locale.ROOT)))
+                .map(event -> WiremockEvent.parseSettings(event.getSettings()))
+                .filter(settings -> !prerendered.containsKey(key(settings)))
+                .forEach(this::prerender);
+    }
+
+    private CustomEvent parseLine(String line) {
+        try {
+            return CustomEvent.createFromLine(line);
+        } catch (Exception e) {
+            logger.warn("skip preload of schedule line [" + line + "]: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void prerender(Map<String, String> settings) {
+        try {
+            // stamped before rendering: a change while rendering is seen on the next use
+            long filesStamp = filesStamp(settings);
+            prerendered.put(key(settings), new Prerendered(payloadFactory.create(settings), filesStamp));
+        } catch (WiremockEventException e) {
+            prerendered.remove(key(settings));
+            logger.warn("skip preload of event settings " + settings + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return a stamp of the modification times and sizes of the files of an event, and of its directory listing
+     */
+    private long filesStamp(Map<String, String> settings) {
+        if (!checkFiles) {
+            return 0;
+        }
+        String file = settings.get(WiremockPayloadFactory.SETTING_FILE);
+        if (file != null) {
+            return stamp(new File(rootDir, file));
+        }
+        String directory = settings.get(WiremockPayloadFactory.SETTING_DIRECTORY);
+        if (directory == null) {
+            return 0;
+        }
+        File dir = new File(rootDir, directory);
+        long stamp = stamp(dir);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            // a sum, since the order of the listing is not defined
+            for (File each : files) {
+                stamp += 31 * stamp(each) + each.getName().hashCode();
+            }
+        }
+        return stamp;
+    }
+
+    private static long stamp(File file) {
+        return 31 * file.lastModified() + file.length();
+    }
+
+    private long prerenderedBytes() {
+        Set<byte[]> unique = Collections.newSetFromMap(new IdentityHashMap<>());
+        prerendered.values().forEach(event -> event.payloads.stream()
+                .filter(payload -> !payload.isStreaming())
+                .forEach(payload -> unique.add(payload.getBody())));
+        return unique.stream().mapToLong(body -> body.length).sum();
+    }
+
+    private static String key(Map<String, String> settings) {
+        return new TreeMap<>(settings).toString();
+    }
+
+    /**
+     * The payloads of one event, with the stamp of its files when it was rendered.
+     */
+    static class Prerendered {
+        private final List<WiremockPayload> payloads;
+        private final long filesStamp;
+
+        Prerendered(List<WiremockPayload> payloads, long filesStamp) {
+            this.payloads = payloads;
+            this.filesStamp = filesStamp;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Applies events in the background with a queue per node: the event returns at once.
+ * A queued change that is not sent yet is replaced by a newer change for the same target,
+ * so a slow node skips values the schedule has already left behind.
+ * Each node applies its changes one at a time, in order of arrival; the nodes run in parallel.
+ */
+class WiremockQueuedDispatch {
+
+    private final Map<String, NodeQueue> queues = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final EventLogger logger;
+
+    WiremockQueuedDispatch(EventLogger logger) {
+        this.executor = Executors.newCachedThreadPool(new WiremockDispatcher.DaemonThreadFactory("wiremock-queue-"));
+        this.logger = logger;
+    }
+
+    /**
+     * @param target what the change applies to, e.g. a file or directory: a queued change for the same target is dropped
+     * @param done called per node after the change is applied or failed
+     */
+    void submit(String description, String target, List<WiremockClient> nodes,
+                BiConsumer<WiremockClient, WiremockNodeResult> work, Consumer<WiremockNodeResult> done) {
+        for (WiremockClient client : nodes) {
+            queues.computeIfAbsent(client.getBaseUrl(), node -> new NodeQueue(client))
+                    .offer(new Change(description, target, work, done));
+        }
+    }
+
+    /**
+     * Wait until all queued changes are applied, or the deadline has passed.
+     * @return true when all queues are empty
+     */
+    boolean drain(long timeoutMillis) {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean drained = true;
+        for (NodeQueue queue : queues.values()) {
+            try {
+                drained &= queue.awaitIdle(deadlineNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return drained;
+    }
+
+    int getApplied(String node) {
+        NodeQueue queue = queues.get(node);
+        return queue == null ? 0 : queue.getApplied();
+    }
+
+    int getDropped(String node) {
+        NodeQueue queue = queues.get(node);
+        return queue == null ? 0 : queue.getDropped();
+    }
+
+    String report() {
+        StringBuilder report = new StringBuilder("wiremock queued dispatch:");
+        queues.values().forEach(queue -> report.append(System.lineSeparator()).append("  ").append(queue));
+        return report.toString();
+    }
+
+    /**
+     * Stops the changes in flight, changes that are still queued are not applied.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private class NodeQueue {
+        private final WiremockClient client;
+        private final LinkedHashMap<String, Change> pending = new LinkedHashMap<>();
+        private boolean running;
+        private int applied;
+        private int dropped;
+        private int failed;
+
+        private NodeQueue(WiremockClient client) {
+            this.client = client;
+        }
+
+        private synchronized void offer(Change change) {
+            // the newer change goes to the end: changes queued in between can overlap the same mappings
+            Change superseded = pending.remove(change.target);
+            pending.put(change.target, change);
+            if (superseded != null) {
+                dropped++;
+                logger.debug(String.format("%s: dropped queued [%s], superseded by [%s]", client.getBaseUrl(), superseded.description, change.description));
+            }
+            if (!running) {
+                running = true;
+                executor.execute(this::run);
+            }
+        }
+
+        private void run() {
+            while (true) {
+                Change change;
+                synchronized (this) {
+                    Iterator<Change> next = pending.values().iterator();
+                    if (!next.hasNext() || Thread.currentThread().isInterrupted()) {
+                        running = false;
+                        notifyAll();
+                        return;
+                    }
+                    change = next.next();
+                    next.remove();
+                }
+                apply(change);
+            }
+        }
+
+        private void apply(Change change) {
+            WiremockNodeResult result = new WiremockNodeResult(client.getBaseUrl());
+            long startNanos = System.nanoTime();
+            try {
+                change.work.accept(client, result);
+            } catch (Exception e) {
+                result.failed(e);
+            } finally {
+                result.completed(System.nanoTime() - startNanos);
+            }
+            synchronized (this) {
+                if (result.isSuccess()) {
+                    applied++;
+                }
+                else {
+                    failed++;
+                }
+            }
+            try {
+                change.done.accept(result);
+            } catch (RuntimeException e) {
+                logger.error(change.description + " on " + client.getBaseUrl() + ": " + e.getMessage());
+            }
+        }
+
+        private synchronized boolean awaitIdle(long deadlineNanos) throws InterruptedException {
+            while (running || !pending.isEmpty()) {
+                long waitMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (waitMillis <= 0) {
+                    return false;
+                }
+                wait(waitMillis);
+            }
+            return true;
+        }
+
+        private synchronized int getApplied() {
+            return applied;
+        }
+
+        private synchronized int getDropped() {
+            return dropped;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("node %s: applied=%d, dropped=%d, failed=%d, pending=%d",
+                    client.getBaseUrl(), applied, dropped, failed, pending.size());
+        }
+    }
+
+    private static class Change {
+        private final String description;
+        private final String target;
+        private final BiConsumer<WiremockClient, WiremockNodeResult> work;
+        private final Consumer<WiremockNodeResult> done;
+
+        private Change(String description, String target, BiConsumer<WiremockClient, WiremockNodeResult> work, Consumer<WiremockNodeResult> done) {
+            this.description = description;
+            this.target = target;
+            this.work = work;
+            this.done = done;
+        }
+    }
+}
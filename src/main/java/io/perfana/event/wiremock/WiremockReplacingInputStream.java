@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replaces <code>${key}</code> placeholders while the bytes stream by, with the same
+ * semantics as {@link WiremockTemplate}. Only a single placeholder is buffered at a time.
+ */
+class WiremockReplacingInputStream extends InputStream {
+
+    private static final int MAX_KEY_LENGTH = 1024;
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] NULL_BYTES = "null".getBytes(StandardCharsets.UTF_8);
+
+    private final PushbackInputStream in;
+    private final Map<String, byte[]> replacements;
+    private final ByteArrayOutputStream key = new ByteArrayOutputStream(64);
+
+    private byte[] pending = EMPTY;
+    private int pendingPosition = 0;
+
+    WiremockReplacingInputStream(InputStream in, Map<String, String> replacements) {
+        this.in = new PushbackInputStream(in, 2);
+        this.replacements = new HashMap<>();
+        replacements.forEach((k, v) -> this.replacements.put(k, v == null ? NULL_BYTES : v.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (pendingPosition >= pending.length) {
+            int b = in.read();
+            if (b != '$') {
+                return b;
+            }
+            int next = in.read();
+            if (next != '{') {
+                unread(next);
+                return b;
+            }
+            readPlaceholder();
+        }
+        return pending[pendingPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        int count = 0;
+        while (count < length) {
+            if (pendingPosition < pending.length) {
+                int chunk = Math.min(length - count, pending.length - pendingPosition);
+                System.arraycopy(pending, pendingPosition, buffer, offset + count, chunk);
+                pendingPosition += chunk;
+                count += chunk;
+                continue;
+            }
+            if (count > 0 && in.available() == 0) {
+                break;
+            }
+            int b = read();
+            if (b == -1) {
+                break;
+            }
+            buffer[offset + count++] = (byte) b;
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    /**
+     * Called after "${" has been read: fills pending with the replacement or with the original text.
+     */
+    private void readPlaceholder() throws IOException {
+        key.reset();
+        while (true) {
+            int c = in.read();
+            if (c == -1 || key.size() >= MAX_KEY_LENGTH) {
+                unread(c);
+                pendLiteral();
+                return;
+            }
+            if (c == '}') {
+                String name = key.toString(StandardCharsets.UTF_8);
+                byte[] value = replacements.get(name);
+                if (value == null) {
+                    key.write(c);
+                    pendLiteral();
+                }
+                else {
+                    pend(value);
+                }
+                return;
+            }
+            if (c == '$') {
+                int next = in.read();
+                if (next == '{') {
+                    // for "${a${b}" only "${b}" is a placeholder
+                    in.unread(next);
+                    in.unread(c);
+                    pendLiteral();
+                    return;
+                }
+                unread(next);
+            }
+            key.write(c);
+        }
+    }
+
+    private void pendLiteral() {
+        byte[] keyBytes = key.toByteArray();
+        byte[] literal = new byte[keyBytes.length + 2];
+        literal[0] = '$';
+        literal[1] = '{';
+        System.arraycopy(keyBytes, 0, literal, 2, keyBytes.length);
+        pend(literal);
+    }
+
+    private void pend(byte[] bytes) {
+        pending = bytes;
+        pendingPosition = 0;
+    }
+
+    private void unread(int b) throws IOException {
+        if (b != -1) {
+            in.unread(b);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
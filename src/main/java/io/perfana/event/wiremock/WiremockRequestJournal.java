@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the request journal of the wiremock nodes small during long tests. Wiremock keeps every
+ * request in memory, which fills the heap of the node and slows down its responses over time.
+ * Resets run on the nodes in parallel, optionally after counting the requests that are dropped.
+ * Periodic resets have their own threads, so a slow node does not hold up the events.
+ */
+class WiremockRequestJournal {
+
+    static final long DEFAULT_CHECK_SECONDS = 10;
+
+    private final WiremockDispatcher dispatcher;
+    private final Duration eventDeadline;
+    private final boolean capture;
+    private final long maxEntries;
+    private final EventLogger logger;
+    private final Map<String, LongAdder> captured = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> resets = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private WiremockDispatcher periodicDispatcher;
+
+    /**
+     * @param capture count the requests in the journal before each reset
+     * @param maxEntries when above 0, the periodic reset only resets nodes with at least this many requests
+     */
+    WiremockRequestJournal(WiremockDispatcher dispatcher, Duration eventDeadline, boolean capture, long maxEntries, EventLogger logger) {
+        this.dispatcher = dispatcher;
+        this.eventDeadline = eventDeadline;
+        this.capture = capture;
+        this.maxEntries = maxEntries;
+        this.logger = logger;
+    }
+
+    /**
+     * Reset the journals of the nodes every period, in the background.
+     */
+    void start(List<WiremockClient> targets, long periodSeconds) {
+        periodicDispatcher = new WiremockDispatcher(targets, targets.size(), eventDeadline, logger);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new WiremockDispatcher.DaemonThreadFactory("wiremock-request-journal-"));
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reset(periodicDispatcher, "periodic request journal reset", targets, capture, maxEntries);
+            } catch (RuntimeException e) {
+                logger.error("periodic request journal reset failed: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        logger.info(String.format("reset request journal of %d node(s) every %d seconds%s", targets.size(), periodSeconds,
+                maxEntries > 0 ? " when it holds " + maxEntries + " requests or more" : ""));
+    }
+
+    /**
+     * @param threshold only reset nodes with at least this many requests, 0 to always reset
+     */
+    List<WiremockNodeResult> reset(String description, List<WiremockClient> targets, boolean capture, long threshold) {
+        return reset(dispatcher, description, targets, capture, threshold);
+    }
+
+    private List<WiremockNodeResult> reset(WiremockDispatcher dispatcher, String description, List<WiremockClient> targets,
+                                           boolean capture, long threshold) {
+        Map<String, Long> counts = new TreeMap<>();
+        List<WiremockNodeResult> results = dispatcher.dispatch(description, targets, (client, result) -> {
+            String node = client.getBaseUrl();
+            long requests = -1;
+            if (capture || threshold > 0) {
+                requests = client.countRequests();
+                if (requests < threshold) {
+                    result.unchanged();
+                    return;
+                }
+            }
+            client.resetRequests();
+            result.uploaded();
+            resets.computeIfAbsent(node, k -> new LongAdder()).increment();
+            if (requests >= 0) {
+                captured.computeIfAbsent(node, k -> new LongAdder()).add(requests);
+                synchronized (counts) {
+                    counts.put(node, requests);
+                }
+            }
+        });
+        if (!counts.isEmpty()) {
+            logger.info(String.format("%s: requests in the journal before the reset %s", description, counts));
+        }
+        return results;
+    }
+
+    /**
+     * @return the captured requests per node, including the requests still in the journals
+     */
+    String summary(List<WiremockClient> targets) {
+        StringBuilder summary = new StringBuilder("wiremock request journal:");
+        for (WiremockClient client : targets) {
+            String node = client.getBaseUrl();
+            long remaining;
+            try {
+                remaining = capture ? client.countRequests() : 0;
+            } catch (WiremockClientException e) {
+                logger.warn("cannot count requests on " + node + ": " + e.getMessage());
+                remaining = 0;
+            }
+            LongAdder count = captured.get(node);
+            LongAdder resetCount = resets.get(node);
+            summary.append(String.format("%n  node %s: resets=%d", node, resetCount == null ? 0 : resetCount.sum()));
+            if (capture) {
+                summary.append(String.format(", requests=%d", (count == null ? 0 : count.sum()) + remaining));
+            }
+        }
+        return summary.toString();
+    }
+
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (periodicDispatcher != null) {
+            periodicDispatcher.shutdown();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Shares connection pools and wiremock file contents between the wiremock events of one jvm, for schedulers
+ * that drive many event configs pointing to the same nodes and the same files.
+ * Each resource is reference counted: the first event creates it, the last event to release it closes it.
+ */
+class WiremockSharedRegistry {
+
+    private static final WiremockSharedRegistry INSTANCE = new WiremockSharedRegistry();
+
+    private final Map<String, Shared<?>> resources = new HashMap<>();
+
+    static WiremockSharedRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the http client for these nodes and connection settings
+     */
+    Lease<CloseableHttpClient> httpClient(WiremockEventContext context, List<String> nodeUrls) {
+        String key = String.format("http %s proxy=%s perRoute=%d total=%d evict=%d connect=%d socket=%d request=%d",
+                new TreeSet<>(nodeUrls), context.isUseProxy(), context.getMaxConnectionsPerRoute(), context.getMaxConnectionsTotal(),
+                context.getIdleConnectionEvictSeconds(), context.getConnectTimeoutMillis(), context.getSocketTimeoutMillis(),
+                context.getConnectionRequestTimeoutMillis());
+        return acquire(key, () -> WiremockHttpClientFactory.create(context), httpClient -> {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                throw new WiremockEventException("closing shared http client failed", e);
+            }
+        });
+    }
+
+    /**
+     * @param source the files dir or bundle file, as configured
+     */
+    Lease<Content> content(String source, Supplier<Content> factory) {
+        return acquire("content " + source, factory, Content::clear);
+    }
+
+    synchronized int size() {
+        return resources.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> Lease<T> acquire(String key, Supplier<T> factory, Consumer<T> close) {
+        Shared<T> shared = (Shared<T>) resources.get(key);
+        if (shared == null) {
+            shared = new Shared<>(factory.get(), close);
+            resources.put(key, shared);
+        }
+        shared.references++;
+        return new Lease<>(this, key, shared.resource);
+    }
+
+    private void release(Lease<?> lease) {
+        Shared<?> shared;
+        synchronized (this) {
+            shared = resources.get(lease.key);
+            if (shared == null || --shared.references > 0) {
+                return;
+            }
+            resources.remove(lease.key);
+        }
+        shared.close();
+    }
+
+    /**
+     * The use of a shared resource by one event.
+     */
+    static class Lease<T> {
+        private final WiremockSharedRegistry registry;
+        private final String key;
+        private final T resource;
+        private boolean released;
+
+        private Lease(WiremockSharedRegistry registry, String key, T resource) {
+            this.registry = registry;
+            this.key = key;
+            this.resource = resource;
+        }
+
+        T get() {
+            return resource;
+        }
+
+        /**
+         * Closes the resource when this is the last lease, releasing twice has no effect.
+         */
+        synchronized void release() {
+            if (!released) {
+                released = true;
+                registry.release(this);
+            }
+        }
+    }
+
+    /**
+     * The wiremock files of one files dir or bundle: parsed templates and pre-rendered events.
+     */
+    static class Content {
+        private final WiremockBundle bundle;
+        private final WiremockTemplateCache templateCache = new WiremockTemplateCache();
+        private final Map<String, WiremockPreloader.Prerendered> prerendered = new ConcurrentHashMap<>();
+
+        Content(WiremockBundle bundle) {
+            this.bundle = bundle;
+        }
+
+        WiremockBundle getBundle() {
+            return bundle;
+        }
+
+        WiremockTemplateCache getTemplateCache() {
+            return templateCache;
+        }
+
+        Map<String, WiremockPreloader.Prerendered> getPrerendered() {
+            return prerendered;
+        }
+
+        private void clear() {
+            templateCache.clear();
+            prerendered.clear();
+        }
+    }
+
+    private static class Shared<T> {
+        private final T resource;
+        private final Consumer<T> close;
+        private int references;
+
+        private Shared(T resource, Consumer<T> close) {
+            this.resource = resource;
+            this.close = close;
+        }
+
+        private void close() {
+            close.accept(resource);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A wiremock file parsed once into literal and <code>${key}</code> placeholder segments.
+ * <p>
+ * Rendering replaces each placeholder that has a replacement with its value (a null value
+ * becomes "null") and leaves unknown placeholders as is. Replacement values are inserted
+ * literally and are not scanned for placeholders again.
+ */
+class WiremockTemplate {
+
+    private static final String PLACEHOLDER_START = "${";
+    private static final char PLACEHOLDER_END = '}';
+    private static final byte[] NULL_BYTES = "null".getBytes(StandardCharsets.UTF_8);
+
+    /** literals[i] precedes keys[i], the last literal follows the last key */
+    private final byte[][] literals;
+    private final String[] keys;
+    private final byte[][] placeholders;
+    private final byte[] source;
+    private final int literalLength;
+    private final Set<String> placeholderKeys;
+
+    private WiremockTemplate(List<String> literals, List<String> keys, byte[] source) {
+        this(literals.stream().map(WiremockTemplate::bytes).toArray(byte[][]::new), keys, source);
+    }
+
+    private WiremockTemplate(byte[][] literals, List<String> keys, byte[] source) {
+        this.literals = literals;
+        this.keys = keys.toArray(new String[0]);
+        this.placeholders = keys.stream().map(key -> bytes(PLACEHOLDER_START + key + PLACEHOLDER_END)).toArray(byte[][]::new);
+        this.source = source;
+        int length = 0;
+        for (byte[] literal : this.literals) {
+            length += literal.length;
+        }
+        this.literalLength = length;
+        this.placeholderKeys = Collections.unmodifiableSet(new LinkedHashSet<>(keys));
+    }
+
+    static WiremockTemplate parse(String text) {
+        List<String> literals = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+
+        int position = 0;
+        while (true) {
+            int start = text.indexOf(PLACEHOLDER_START, position);
+            int end = start == -1 ? -1 : text.indexOf(PLACEHOLDER_END, start + PLACEHOLDER_START.length());
+            if (end == -1) {
+                literals.add(text.substring(position));
+                break;
+            }
+            // for "${a${b}" only "${b}" is a placeholder
+            start = text.lastIndexOf(PLACEHOLDER_START, end - PLACEHOLDER_START.length());
+            literals.add(text.substring(position, start));
+            keys.add(text.substring(start + PLACEHOLDER_START.length(), end));
+            position = end + 1;
+        }
+        return new WiremockTemplate(literals, keys, bytes(text));
+    }
+
+    /**
+     * Create a template from segments parsed before, e.g. by the bundle packer, without scanning the source again.
+     * @param literalLengths the byte length of each literal, one more than the number of keys
+     */
+    static WiremockTemplate fromSegments(byte[] source, int[] literalLengths, List<String> keys) {
+        if (literalLengths.length != keys.size() + 1) {
+            throw new IllegalArgumentException("expected " + (keys.size() + 1) + " literals, got " + literalLengths.length);
+        }
+        byte[][] literals = new byte[literalLengths.length][];
+        int offset = 0;
+        for (int i = 0; i < literalLengths.length; i++) {
+            literals[i] = Arrays.copyOfRange(source, offset, offset + literalLengths[i]);
+            offset += literalLengths[i];
+            if (i < keys.size()) {
+                offset += bytes(PLACEHOLDER_START + keys.get(i) + PLACEHOLDER_END).length;
+            }
+        }
+        if (offset != source.length) {
+            throw new IllegalArgumentException("segments do not match the source length " + source.length);
+        }
+        return new WiremockTemplate(literals, keys, source);
+    }
+
+    /**
+     * @return the byte length of each literal segment, for {@link #fromSegments}
+     */
+    int[] getLiteralLengths() {
+        int[] lengths = new int[literals.length];
+        for (int i = 0; i < literals.length; i++) {
+            lengths[i] = literals[i].length;
+        }
+        return lengths;
+    }
+
+    /**
+     * @return the placeholder key of each placeholder segment, in order, for {@link #fromSegments}
+     */
+    List<String> getKeys() {
+        return Arrays.asList(keys.clone());
+    }
+
+    /**
+     * @return the source bytes: do not modify
+     */
+    byte[] getSource() {
+        return source;
+    }
+
+    Set<String> getPlaceholderKeys() {
+        return placeholderKeys;
+    }
+
+    /**
+     * @return the size of the original file in bytes
+     */
+    int getSourceLength() {
+        return source.length;
+    }
+
+    /**
+     * Render with the given replacements into one new byte array (UTF-8).
+     * When there is nothing to replace the parsed source bytes are returned as is: do not modify the result.
+     */
+    byte[] render(Map<String, String> replacements) {
+        if (keys.length == 0 || replacements == null || replacements.isEmpty()) {
+            return source;
+        }
+
+        byte[][] values = new byte[keys.length][];
+        int length = literalLength;
+        for (int i = 0; i < keys.length; i++) {
+            byte[] value = valueBytes(replacements, i);
+            values[i] = value;
+            length += value.length;
+        }
+
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (int i = 0; i < keys.length; i++) {
+            offset = append(result, offset, literals[i]);
+            offset = append(result, offset, values[i]);
+        }
+        append(result, offset, literals[keys.length]);
+        return result;
+    }
+
+    private byte[] valueBytes(Map<String, String> replacements, int index) {
+        String key = keys[index];
+        if (!replacements.containsKey(key)) {
+            return placeholders[index];
+        }
+        String value = replacements.get(key);
+        return value == null ? NULL_BYTES : bytes(value);
+    }
+
+    private static int append(byte[] target, int offset, byte[] part) {
+        System.arraycopy(part, 0, target, offset, part.length);
+        return offset + part.length;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
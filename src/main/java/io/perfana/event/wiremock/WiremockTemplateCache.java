@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the parsed template of each wiremock file, the file is parsed again only when it has changed on disk.
+ */
+class WiremockTemplateCache {
+
+    private final Map<Path, CachedTemplate> templates = new ConcurrentHashMap<>();
+
+    WiremockTemplate get(File file) throws IOException {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        long lastModified = file.lastModified();
+        long size = file.length();
+
+        CachedTemplate cached = templates.get(path);
+        if (cached != null && cached.lastModified == lastModified && cached.size == size) {
+            return cached.template;
+        }
+
+        WiremockTemplate template = WiremockTemplate.parse(Files.readString(path));
+        templates.put(path, new CachedTemplate(lastModified, size, template));
+        return template;
+    }
+
+    void clear() {
+        templates.clear();
+    }
+
+    private static class CachedTemplate {
+        private final long lastModified;
+        private final long size;
+        private final WiremockTemplate template;
+
+        private CachedTemplate(long lastModified, long size, WiremockTemplate template) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.template = template;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import java.io.IOException;
+
+/**
+ * Measures the time to write a request and the time waiting for the response separately,
+ * the durations are put in the http context.
+ */
+class WiremockTimingRequestExecutor extends HttpRequestExecutor {
+
+    static final String SEND_NANOS = "wiremock.send.nanos";
+    static final String SERVER_RESPONSE_NANOS = "wiremock.server.response.nanos";
+
+    @Override
+    protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection conn, HttpContext context) throws IOException, HttpException {
+        long startNanos = System.nanoTime();
+        try {
+            return super.doSendRequest(request, conn, context);
+        } finally {
+            context.setAttribute(SEND_NANOS, System.nanoTime() - startNanos);
+        }
+    }
+
+    @Override
+    protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection conn, HttpContext context) throws HttpException, IOException {
+        long startNanos = System.nanoTime();
+        try {
+            return super.doReceiveResponse(request, conn, context);
+        } finally {
+            context.setAttribute(SERVER_RESPONSE_NANOS, System.nanoTime() - startNanos);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.perfana.eventscheduler.api.CustomEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-phase apply: new mappings are first staged on all nodes, inactive behind a wiremock scenario state,
+ * and then activated on all nodes at once by switching the scenario state. Each target (file or directory)
+ * has its own scenario, so targets do not deactivate each other.
+ * <p>
+ * The state is switched with a plain request to a switch stub that is staged with the mappings, which works with
+ * all wiremock versions: the scenario state admin api only exists since wiremock 3.
+ * Staged generations are remembered per node until a newer generation is activated on that node,
+ * so a generation that was staged but never activated is still deleted.
+ * <p>
+ * The scenario names contain a token per instance, so a next test run does not reuse the states and ids of this run.
+ * After the test all remaining copies and switch stubs are deleted: active copies would shadow later direct uploads.
+ */
+class WiremockTwoPhaseApply {
+
+    static final String STATE_PREFIX = "generation-";
+    static final String SWITCH_PATH = "/__perfana/two-phase/";
+
+    private final String scenarioPrefix;
+    private final AtomicLong generation = new AtomicLong();
+    /** scenario to node url to the ids per generation on that node */
+    private final Map<String, Map<String, NavigableMap<Long, List<String>>>> generations = new ConcurrentHashMap<>();
+    /** target to its upcoming events in the schedule, to stage ahead */
+    private final Map<String, Queue<CustomEvent>> planned = new ConcurrentHashMap<>();
+
+    WiremockTwoPhaseApply(String eventName) {
+        this.scenarioPrefix = "perfana-" + sanitize(eventName) + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /**
+     * Create one import with copies of all mappings, with new ids and bound to a new generation of the scenario.
+     * @return the staged mappings, or null when the payloads cannot be staged, e.g. because mappings use scenarios themselves
+     */
+    Staged stage(String target, List<WiremockPayload> payloads) {
+        if (payloads.stream().anyMatch(WiremockPayload::isStreaming)) {
+            return null;
+        }
+        String scenario = scenarioPrefix + "-" + sanitize(target);
+        long gen = generation.incrementAndGet();
+        String state = STATE_PREFIX + gen;
+
+        List<ObjectNode> staged = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (WiremockPayload payload : payloads) {
+            List<ObjectNode> mappings = WiremockMappings.mappings(WiremockMappings.parse(payload.getBody()));
+            for (ObjectNode mapping : mappings) {
+                if (mapping.has("scenarioName")) {
+                    return null;
+                }
+                String originalId = WiremockMappings.id(mapping);
+                String key = scenario + ":" + gen + ":" + (originalId == null ? payload.getName() + ":" + staged.size() : originalId);
+                String id = UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+
+                ObjectNode copy = mapping.deepCopy();
+                copy.remove("uuid");
+                copy.put("id", id);
+                copy.put("scenarioName", scenario);
+                copy.put("requiredScenarioState", state);
+                staged.add(copy);
+                ids.add(id);
+            }
+        }
+        if (staged.isEmpty()) {
+            return null;
+        }
+        String switchPath = SWITCH_PATH + scenario + "/" + state;
+        String switchId = UUID.nameUUIDFromBytes((scenario + ":" + gen + ":switch").getBytes(StandardCharsets.UTF_8)).toString();
+        staged.add(switchMapping(switchId, switchPath, scenario, state));
+        ids.add(switchId);
+
+        JsonNode importOptions = WiremockMappings.OBJECT_MAPPER.createObjectNode()
+                .put("duplicatePolicy", "OVERWRITE")
+                .put("deleteAllNotInImport", false);
+        WiremockPayload payload = new WiremockPayload(target + " (" + state + ")", WiremockMappings.toImport(staged, importOptions));
+        return new Staged(scenario, state, gen, switchPath, payload, Collections.unmodifiableList(ids));
+    }
+
+    /**
+     * A stub in the scenario that matches in any state and moves the scenario to the new state.
+     */
+    private static ObjectNode switchMapping(String id, String switchPath, String scenario, String state) {
+        ObjectNode mapping = WiremockMappings.OBJECT_MAPPER.createObjectNode();
+        mapping.put("id", id);
+        mapping.put("priority", 1);
+        mapping.putObject("request").put("method", "PUT").put("urlPath", switchPath);
+        mapping.putObject("response").put("status", 200);
+        mapping.put("scenarioName", scenario);
+        mapping.put("newScenarioState", state);
+        return mapping;
+    }
+
+    /**
+     * Remember the staged ids on this node, until a newer generation is activated.
+     */
+    void staged(String node, Staged staged) {
+        nodeGenerations(staged, node).put(staged.generation, staged.ids);
+    }
+
+    /**
+     * Forget the staged ids on this node, when they are deleted without being activated.
+     */
+    void discarded(String node, Staged staged) {
+        nodeGenerations(staged, node).remove(staged.generation);
+    }
+
+    /**
+     * @return the ids of the older generations on this node, to be deleted: the previous active generation
+     * and generations whose activation failed. Newer generations, staged ahead, are kept.
+     */
+    List<String> activated(String node, Staged staged) {
+        NavigableMap<Long, List<String>> older = nodeGenerations(staged, node).headMap(staged.generation, false);
+        List<String> ids = new ArrayList<>();
+        older.values().forEach(ids::addAll);
+        older.clear();
+        return ids;
+    }
+
+    private NavigableMap<Long, List<String>> nodeGenerations(Staged staged, String node) {
+        return generations.computeIfAbsent(staged.scenario, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(node, k -> new ConcurrentSkipListMap<>());
+    }
+
+    /**
+     * Add an upcoming event of the schedule for this target, in schedule order.
+     */
+    void plan(String target, CustomEvent event) {
+        planned.computeIfAbsent(target, k -> new ConcurrentLinkedQueue<>()).add(event);
+    }
+
+    /**
+     * @return the next planned event for this target, or null when there are no more
+     */
+    CustomEvent nextPlanned(String target) {
+        Queue<CustomEvent> events = planned.get(target);
+        return events == null ? null : events.poll();
+    }
+
+    Set<String> plannedTargets() {
+        return planned.keySet();
+    }
+
+    /**
+     * @return the ids of all generations still on this node: the active one, and staged or failed ones
+     */
+    List<String> remaining(String node) {
+        List<String> ids = new ArrayList<>();
+        generations.values().forEach(nodes -> {
+            NavigableMap<Long, List<String>> nodeGenerations = nodes.get(node);
+            if (nodeGenerations != null) {
+                nodeGenerations.values().forEach(ids::addAll);
+            }
+        });
+        return ids;
+    }
+
+    void clear() {
+        generations.clear();
+        planned.clear();
+    }
+
+    private static String sanitize(String name) {
+        return name == null ? "" : name.replaceAll("[^A-Za-z0-9_.-]", "_");
+    }
+
+    static class Staged {
+        private final String scenario;
+        private final String state;
+        private final long generation;
+        private final String switchPath;
+        private final WiremockPayload payload;
+        private final List<String> ids;
+
+        private Staged(String scenario, String state, long generation, String switchPath, WiremockPayload payload, List<String> ids) {
+            this.scenario = scenario;
+            this.state = state;
+            this.generation = generation;
+            this.switchPath = switchPath;
+            this.payload = payload;
+            this.ids = ids;
+        }
+
+        String getScenario() {
+            return scenario;
+        }
+
+        String getState() {
+            return state;
+        }
+
+        /**
+         * @return the path of the switch stub that activates this generation
+         */
+        String getSwitchPath() {
+            return switchPath;
+        }
+
+        WiremockPayload getPayload() {
+            return payload;
+        }
+
+        List<String> getIds() {
+            return ids;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Verifies in the background that a change took effect on each node: the mappings or settings
+ * on the node contain what was sent, and optionally the latency of a stub matches the intended delay.
+ */
+class WiremockVerifier {
+
+    private static final int MAX_REPORTED_FAILURES = 10;
+
+    private final String probePath;
+    private final int probeRequests;
+    private final long toleranceMillis;
+    private final WiremockMetrics metrics;
+    private final EventLogger logger;
+    private final ExecutorService executor;
+    private final List<Future<?>> pending = new CopyOnWriteArrayList<>();
+    private final List<Result> results = new CopyOnWriteArrayList<>();
+
+    WiremockVerifier(WiremockEventContext context, WiremockMetrics metrics, EventLogger logger) {
+        this.probePath = context.getVerifyProbePath();
+        this.probeRequests = Math.max(1, context.getVerifyProbeRequests());
+        this.toleranceMillis = context.getVerifyToleranceMillis();
+        this.metrics = metrics;
+        this.logger = logger;
+        this.executor = Executors.newCachedThreadPool(new WiremockDispatcher.DaemonThreadFactory("wiremock-verify-"));
+    }
+
+    /**
+     * Start the verification of an applied event on the target nodes.
+     */
+    void verify(String description, List<WiremockPayload> payloads, String uriPath, Map<String, String> settings, List<WiremockClient> targets) {
+        List<JsonNode> expected = payloads.stream()
+                .filter(payload -> !payload.isStreaming())
+                .map(payload -> WiremockMappings.parse(payload.getBody()))
+                .collect(Collectors.toList());
+        boolean isSettings = WiremockEvent.ADMIN_SETTINGS_URI.equals(uriPath);
+        Long intendedDelay = parseDelay(settings.get(WiremockGeneratedSchedule.DEFAULT_VARIABLE));
+
+        for (WiremockClient client : targets) {
+            pending.add(executor.submit(() -> {
+                Result result = new Result(description, client.getBaseUrl());
+                try {
+                    if (isSettings) {
+                        verifySettings(client, expected, result);
+                    }
+                    else {
+                        verifyMappings(client, expected, result);
+                    }
+                    if (probePath != null && intendedDelay != null) {
+                        probeLatency(client, intendedDelay, result);
+                    }
+                } catch (Exception e) {
+                    result.fail("verification failed: " + e.getMessage());
+                }
+                results.add(result);
+                if (result.isSuccess()) {
+                    logger.info("verified " + result);
+                }
+                else {
+                    logger.error("verification failed " + result);
+                }
+            }));
+        }
+    }
+
+    private void verifyMappings(WiremockClient client, List<JsonNode> expected, Result result) {
+        ActualMappings actual = new ActualMappings(WiremockMappings.mappings(WiremockMappings.parse(
+                client.getAdmin(WiremockEvent.MAPPINGS_URI).getBytes(StandardCharsets.UTF_8))));
+
+        int checked = 0;
+        int missing = 0;
+        for (JsonNode root : expected) {
+            for (ObjectNode mapping : WiremockMappings.mappings(root)) {
+                checked++;
+                if (!actual.contains(mapping)) {
+                    missing++;
+                }
+            }
+        }
+        result.mappings(checked, missing);
+        if (missing > 0) {
+            result.fail(missing + " of " + checked + " mappings not found as sent");
+        }
+    }
+
+    private static boolean sameStub(JsonNode actual, JsonNode expected) {
+        return WiremockMappings.contains(actual.get("request"), expected.get("request"))
+                && WiremockMappings.contains(actual.get("response"), expected.get("response"));
+    }
+
+    /**
+     * The mappings on a node, indexed by id and by request method and url, so checking
+     * the expected mappings does not scan all mappings on the node for each of them.
+     */
+    static class ActualMappings {
+        private static final String[] URL_FIELDS = { "url", "urlPath", "urlPattern", "urlPathPattern" };
+
+        private final Map<String, ObjectNode> byId = new HashMap<>();
+        private final Map<String, List<ObjectNode>> byRequest = new HashMap<>();
+        private final List<ObjectNode> all;
+
+        ActualMappings(List<ObjectNode> mappings) {
+            this.all = mappings;
+            for (ObjectNode mapping : mappings) {
+                String id = WiremockMappings.id(mapping);
+                if (id != null) {
+                    byId.putIfAbsent(id, mapping);
+                }
+                String key = requestKey(mapping);
+                if (key != null) {
+                    byRequest.computeIfAbsent(key, k -> new ArrayList<>()).add(mapping);
+                }
+            }
+        }
+
+        /**
+         * @return true when a mapping on the node contains the expected request and response
+         */
+        boolean contains(ObjectNode expected) {
+            String id = WiremockMappings.id(expected);
+            ObjectNode sameId = id == null ? null : byId.get(id);
+            if (sameId != null && sameStub(sameId, expected)) {
+                return true;
+            }
+            String key = requestKey(expected);
+            // without method and url the expected request can match any mapping
+            List<ObjectNode> candidates = key == null ? all : byRequest.getOrDefault(key, Collections.emptyList());
+            return candidates.stream().anyMatch(candidate -> sameStub(candidate, expected));
+        }
+
+        /**
+         * A mapping that contains the expected request has the same method and url field,
+         * so mappings with another key cannot match.
+         */
+        private static String requestKey(JsonNode mapping) {
+            JsonNode request = mapping.get("request");
+            if (request == null || !request.hasNonNull("method")) {
+                return null;
+            }
+            for (String field : URL_FIELDS) {
+                if (request.hasNonNull(field)) {
+                    return request.get("method").asText() + " " + field + " " + request.get(field).asText();
+                }
+            }
+            return null;
+        }
+    }
+
+    private void verifySettings(WiremockClient client, List<JsonNode> expected, Result result) {
+        JsonNode actual = WiremockMappings.parse(client.getAdmin(WiremockEvent.ADMIN_SETTINGS_URI).getBytes(StandardCharsets.UTF_8));
+        JsonNode settings = actual.has("settings") ? actual.get("settings") : actual;
+        // with more settings files, the last one wins
+        if (!expected.isEmpty() && !WiremockMappings.contains(settings, expected.get(expected.size() - 1))) {
+            result.fail("settings differ from what was sent: " + settings);
+        }
+    }
+
+    private void probeLatency(WiremockClient client, long intendedDelayMillis, Result result) {
+        List<CompletableFuture<Long>> calls = new ArrayList<>(probeRequests);
+        for (int i = 0; i < probeRequests; i++) {
+            calls.add(CompletableFuture.supplyAsync(() -> client.timeStubCall(probePath), executor));
+        }
+        List<Long> millis = calls.stream()
+                .map(CompletableFuture::join)
+                .peek(nanos -> metrics.recordTime(WiremockMetrics.Phase.PROBE_LATENCY, client.getBaseUrl(), nanos))
+                .map(TimeUnit.NANOSECONDS::toMillis)
+                .sorted()
+                .collect(Collectors.toList());
+        long median = millis.get(millis.size() / 2);
+        long drift = median - intendedDelayMillis;
+        result.latency(intendedDelayMillis, millis.get(0), median, millis.get(millis.size() - 1));
+        if (Math.abs(drift) > toleranceMillis) {
+            result.fail(String.format("latency drift %d ms for %s is beyond the tolerance of %d ms", drift, probePath, toleranceMillis));
+        }
+    }
+
+    private static Long parseDelay(String delay) {
+        try {
+            return delay == null ? null : Long.parseLong(delay.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Wait for the running verifications, at most until the deadline.
+     * @return all verification results so far
+     */
+    List<Result> awaitResults(long timeoutMillis) {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Future<?> future : pending) {
+            try {
+                future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+                pending.remove(future);
+            } catch (TimeoutException e) {
+                logger.warn("verification still running after " + timeoutMillis + " ms");
+                break;
+            } catch (ExecutionException | CancellationException e) {
+                pending.remove(future);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(results));
+    }
+
+    /**
+     * @return a summary of the failed verifications, or null when all verifications succeeded
+     */
+    static String failures(List<Result> results) {
+        List<Result> failed = results.stream().filter(result -> !result.isSuccess()).collect(Collectors.toList());
+        if (failed.isEmpty()) {
+            return null;
+        }
+        return failed.size() + " of " + results.size() + " verifications failed: " + failed.stream()
+                .limit(MAX_REPORTED_FAILURES)
+                .map(Result::toString)
+                .collect(Collectors.joining("; "));
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    static class Result {
+        private final String description;
+        private final String node;
+        private final List<String> failures = new ArrayList<>();
+        private int mappingsChecked;
+        private int mappingsMissing;
+        private long intendedDelayMillis = -1;
+        private long minMillis;
+        private long medianMillis;
+        private long maxMillis;
+
+        private Result(String description, String node) {
+            this.description = description;
+            this.node = node;
+        }
+
+        private synchronized void fail(String failure) {
+            failures.add(failure);
+        }
+
+        private synchronized void mappings(int checked, int missing) {
+            this.mappingsChecked = checked;
+            this.mappingsMissing = missing;
+        }
+
+        private synchronized void latency(long intendedDelayMillis, long minMillis, long medianMillis, long maxMillis) {
+            this.intendedDelayMillis = intendedDelayMillis;
+            this.minMillis = minMillis;
+            this.medianMillis = medianMillis;
+            this.maxMillis = maxMillis;
+        }
+
+        synchronized boolean isSuccess() {
+            return failures.isEmpty();
+        }
+
+        @Override
+        public synchronized String toString() {
+            return description + " on node " + node +
+                (mappingsChecked > 0 ? ": mappings checked=" + mappingsChecked + ", missing=" + mappingsMissing : "") +
+                (intendedDelayMillis >= 0 ? String.format(", latency intended=%d ms min=%d ms p50=%d ms max=%d ms",
+                        intendedDelayMillis, minMillis, medianMillis, maxMillis) : "") +
+                (failures.isEmpty() ? "" : ", " + String.join(", ", failures));
+        }
+    }
+}
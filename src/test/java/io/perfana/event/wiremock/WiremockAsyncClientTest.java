@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.eventscheduler.EventMessageBusSimple;
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Events with <code>asyncClient=true</code> against wiremock nodes.
+ */
+public class WiremockAsyncClientTest {
+
+    private static final String CHANGE = "PT1S|wiremock-change-mappings|file=wiremock-delay.json;delay=";
+
+    @Rule
+    public WireMockRule node1 = new WireMockRule(wireMockConfig().dynamicPort());
+
+    @Rule
+    public WireMockRule node2 = new WireMockRule(wireMockConfig().dynamicPort());
+
+    @Test
+    public void allNodesAreUpdated() {
+        WiremockEvent event = event(url(node1) + "," + url(node2), false, true);
+        event.beforeTest();
+        event.customEvent(CustomEvent.createFromLine(CHANGE + "100"));
+        event.afterTest();
+
+        assertEquals(List.of(100), delays(node1));
+        assertEquals(List.of(100), delays(node2));
+    }
+
+    @Test
+    public void compressedUploadsAreApplied() {
+        WiremockEvent event = event(url(node1) + "," + url(node2), true, true);
+        event.beforeTest();
+        event.customEvent(CustomEvent.createFromLine(CHANGE + "200"));
+        event.afterTest();
+
+        assertEquals(List.of(200), delays(node1));
+        assertEquals(List.of(200), delays(node2));
+    }
+
+    @Test
+    public void failingNodeDoesNotStopTheOthers() throws IOException {
+        WiremockEvent event = event(url(node1) + ",http://localhost:" + unusedPort(), false, true);
+        event.beforeTest();
+        event.customEvent(CustomEvent.createFromLine(CHANGE + "300"));
+        event.afterTest();
+
+        assertEquals(List.of(300), delays(node1));
+    }
+
+    @Test
+    public void failingNodeFailsTheEventWithoutContinueOnUploadError() throws IOException {
+        WiremockEvent event = event(url(node1) + ",http://localhost:" + unusedPort(), false, false);
+        event.beforeTest();
+        try {
+            event.customEvent(CustomEvent.createFromLine(CHANGE + "400"));
+            fail("expected the failing node to fail the event");
+        } catch (WiremockEventException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Upload to wiremock failed"));
+        } finally {
+            event.afterTest();
+        }
+        assertEquals(List.of(400), delays(node1));
+    }
+
+    private static WiremockEvent event(String wiremockUrl, boolean compressUploads, boolean continueOnUploadError) {
+        WiremockEventConfig eventConfig = new WiremockEventConfig();
+        eventConfig.setName("asyncClient");
+        eventConfig.setWiremockFilesDir(new File(".", "src/test/resources/wiremock-stubs").getAbsolutePath());
+        eventConfig.setWiremockUrl(wiremockUrl);
+        eventConfig.setAsyncClient(true);
+        eventConfig.setCompressUploads(compressUploads);
+        eventConfig.setContinueOnUploadError(continueOnUploadError);
+        eventConfig.setEventDeadlineSeconds(10);
+        TestConfig testConfig = TestConfig.builder().testRunId("async-test-run").build();
+        return new WiremockEvent(eventConfig.toContext(), testConfig.toContext(), new EventMessageBusSimple(), EventLoggerStdOut.INSTANCE);
+    }
+
+    private static String url(WireMockRule node) {
+        return "http://localhost:" + node.port();
+    }
+
+    private static List<Integer> delays(WireMockRule node) {
+        return node.listAllStubMappings().getMappings().stream()
+                .map(mapping -> mapping.getResponse().getFixedDelayMilliseconds())
+                .collect(Collectors.toList());
+    }
+
+    private static int unusedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
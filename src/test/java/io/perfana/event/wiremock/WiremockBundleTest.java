@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class WiremockBundleTest {
+
+    private static final File FILES_DIR = new File(".", "src/test/resources/wiremock-stubs");
+
+    @Test
+    public void packAndRead() throws IOException {
+        File bundleFile = File.createTempFile("wiremock", ".bundle");
+        bundleFile.deleteOnExit();
+
+        int count = WiremockBundlePacker.pack(FILES_DIR, bundleFile, true);
+        WiremockBundle bundle = WiremockBundle.open(bundleFile);
+        assertEquals(count, bundle.size());
+
+        File delayFile = new File(FILES_DIR, "wiremock-delay.json");
+        String source = new String(Files.readAllBytes(delayFile.toPath()), StandardCharsets.UTF_8);
+        WiremockBundle.Entry entry = bundle.file("./wiremock-delay.json");
+        assertNotNull(entry);
+        assertEquals(source.replace("${delay}", "1234"),
+                new String(entry.getTemplate().render(Collections.singletonMap("delay", "1234")), StandardCharsets.UTF_8));
+        assertArrayEquals(entry.getTemplate().getSource(), gunzip(entry.getCompressed()));
+
+        List<WiremockBundle.Entry> directory = bundle.directory("my-mappings-dir-1");
+        assertEquals(1, directory.size());
+        assertEquals("my-mappings-dir-1/wiremock-delay.json", directory.get(0).getPath());
+        assertNull(bundle.directory("no-such-dir"));
+        assertNull(bundle.file("no-such-file.json"));
+    }
+
+    @Test(expected = WiremockEventException.class)
+    public void notABundle() {
+        WiremockBundle.open(new File(FILES_DIR, "wiremock-delay.json"));
+    }
+
+    @Test
+    public void contextWithBundleOnlyHasNoFilesDir() {
+        WiremockEventContext context = bundleOnly().toContext();
+
+        assertEquals(bundleOnly().toContext(), context);
+        assertEquals(bundleOnly().toContext().hashCode(), context.hashCode());
+    }
+
+    private static WiremockEventConfig bundleOnly() {
+        WiremockEventConfig eventConfig = new WiremockEventConfig();
+        eventConfig.setName("myWiremockEvent");
+        eventConfig.setWiremockUrl("http://localhost:8080");
+        eventConfig.setWiremockBundle("stubs.bundle");
+        return eventConfig;
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+}
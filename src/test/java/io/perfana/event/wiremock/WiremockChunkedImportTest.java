@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockChunkedImportTest {
+
+    private static final String NODE_1 = "http://node-1";
+    private static final String NODE_2 = "http://node-2";
+
+    @Test
+    public void importFileIsSplitInChunks() throws IOException {
+        String file = new String(Files.readAllBytes(new File(".", "src/test/resources/wiremock-stubs/afterburner-stubs.json").toPath()), StandardCharsets.UTF_8);
+        byte[] body = file.replace("${delay}", "100").getBytes(StandardCharsets.UTF_8);
+        int total = WiremockMappings.mappings(WiremockMappings.parse(body)).size();
+
+        List<JsonNode> chunks = readChunks(new WiremockPayload("afterburner-stubs.json", body), 10);
+
+        assertEquals((total + 9) / 10, chunks.size());
+        int count = 0;
+        for (JsonNode chunk : chunks) {
+            int size = WiremockMappings.mappings(chunk).size();
+            assertTrue(size > 0 && size <= 10);
+            assertFalse(chunk.path(WiremockMappings.IMPORT_OPTIONS).path(WiremockMappings.DELETE_ALL_NOT_IN_IMPORT).asBoolean());
+            count += size;
+        }
+        assertEquals(total, count);
+    }
+
+    @Test
+    public void importOptionsAndOtherFieldsAroundMappings() {
+        String json = "{\"meta\":{\"total\":3},\"importOptions\":{\"duplicatePolicy\":\"IGNORE\",\"deleteAllNotInImport\":true}," +
+                "\"mappings\":[{\"id\":\"1\"},{\"id\":\"2\"},{\"id\":\"3\"}],\"other\":[1,2]}";
+        WiremockPayload payload = new WiremockPayload("import.json", json.getBytes(StandardCharsets.UTF_8));
+
+        try (WiremockChunkedImport.Chunks chunks = new WiremockChunkedImport.Chunks(payload, 2)) {
+            JsonNode first = WiremockMappings.parse(chunks.next().getBody());
+            JsonNode second = WiremockMappings.parse(chunks.next().getBody());
+            assertNull(chunks.next());
+
+            assertEquals(2, first.get(WiremockMappings.MAPPINGS).size());
+            assertEquals("3", WiremockMappings.id(second.get(WiremockMappings.MAPPINGS).get(0)));
+            assertEquals("IGNORE", first.path(WiremockMappings.IMPORT_OPTIONS).path("duplicatePolicy").asText());
+            assertTrue(WiremockChunkedImport.isReplacing(payload));
+        }
+    }
+
+    @Test
+    public void importOptionsAfterMappingsApplyToAllChunks() {
+        String json = "{\"mappings\":[{\"id\":\"1\"},{\"id\":\"2\"},{\"id\":\"3\"}]," +
+                "\"importOptions\":{\"duplicatePolicy\":\"IGNORE\",\"deleteAllNotInImport\":true}}";
+        WiremockPayload payload = new WiremockPayload("import.json", json.getBytes(StandardCharsets.UTF_8));
+
+        List<JsonNode> chunks = readChunks(payload, 2);
+
+        assertEquals(2, chunks.size());
+        for (JsonNode chunk : chunks) {
+            assertEquals("IGNORE", chunk.path(WiremockMappings.IMPORT_OPTIONS).path("duplicatePolicy").asText());
+        }
+        assertTrue(WiremockChunkedImport.isReplacing(payload));
+    }
+
+    @Test
+    public void importWithoutOptionsIsNotReplacing() {
+        String json = "{\"mappings\":[{\"id\":\"1\"}],\"meta\":{\"total\":1}}";
+        assertFalse(WiremockChunkedImport.isReplacing(new WiremockPayload("import.json", json.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void chunksInFlightAreLimitedPerNode() {
+        Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> maxInFlight = new ConcurrentHashMap<>();
+        List<WiremockNodeResult> results = importChunked(2, Duration.ofSeconds(10), (client, chunk) -> {
+            int current = inFlight.computeIfAbsent(client.getBaseUrl(), node -> new AtomicInteger()).incrementAndGet();
+            maxInFlight.computeIfAbsent(client.getBaseUrl(), node -> new AtomicInteger()).accumulateAndGet(current, Math::max);
+            sleep(50);
+            inFlight.get(client.getBaseUrl()).decrementAndGet();
+        });
+
+        for (WiremockNodeResult result : results) {
+            assertTrue(result.toString(), result.isSuccess());
+            assertEquals(5, result.getUploaded());
+            assertEquals(2, maxInFlight.get(result.getNode()).get());
+        }
+    }
+
+    @Test
+    public void slowNodeDoesNotHoldBackTheOtherNodes() {
+        long start = System.nanoTime();
+        List<WiremockNodeResult> results = importChunked(1, Duration.ofMillis(500), (client, chunk) -> {
+            if (client.getBaseUrl().equals(NODE_2)) {
+                sleep(2000);
+            }
+        });
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+        assertTrue(results.get(0).toString(), results.get(0).isSuccess());
+        assertEquals(5, results.get(0).getUploaded());
+        assertTrue(results.get(1).isTimedOut());
+    }
+
+    @Test
+    public void failedChunkStopsOnlyThatNode() {
+        AtomicInteger calls = new AtomicInteger();
+        List<WiremockNodeResult> results = importChunked(1, Duration.ofSeconds(10), (client, chunk) -> {
+            if (client.getBaseUrl().equals(NODE_2) && calls.incrementAndGet() == 2) {
+                throw new WiremockClientException("rejected " + chunk.getName());
+            }
+        });
+
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(5, results.get(0).getUploaded());
+        assertFalse(results.get(1).isSuccess());
+        assertEquals(1, results.get(1).getUploaded());
+        assertEquals(1, results.get(1).getFailed());
+        assertEquals("rejected import.json#2", results.get(1).getError().getMessage());
+    }
+
+    /**
+     * Import ten mappings in chunks of two on two nodes.
+     */
+    private static List<WiremockNodeResult> importChunked(int maxInFlight, Duration deadline, BiConsumer<WiremockClient, WiremockPayload> upload) {
+        StringBuilder json = new StringBuilder("{\"mappings\":[");
+        for (int i = 1; i <= 10; i++) {
+            json.append(i > 1 ? "," : "").append("{\"id\":\"").append(i).append("\"}");
+        }
+        json.append("]}");
+        WiremockPayload payload = new WiremockPayload("import.json", json.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<WiremockClient> nodes = List.of(
+            new WiremockClient(NODE_1, EventLoggerStdOut.INSTANCE, null, new WiremockMetricsInMemory()),
+            new WiremockClient(NODE_2, EventLoggerStdOut.INSTANCE, null, new WiremockMetricsInMemory()));
+        WiremockDispatcher dispatcher = new WiremockDispatcher(nodes, 1, deadline, EventLoggerStdOut.INSTANCE);
+        WiremockChunkedImport chunkedImport = new WiremockChunkedImport(2, maxInFlight, deadline, dispatcher, new WiremockMetricsInMemory(), EventLoggerStdOut.INSTANCE);
+        try {
+            return chunkedImport.importChunked("import", nodes, List.of(payload), upload);
+        } finally {
+            chunkedImport.shutdown();
+            dispatcher.shutdown();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<JsonNode> readChunks(WiremockPayload payload, int chunkSize) {
+        List<JsonNode> result = new ArrayList<>();
+        try (WiremockChunkedImport.Chunks chunks = new WiremockChunkedImport.Chunks(payload, chunkSize)) {
+            WiremockPayload chunk;
+            while ((chunk = chunks.next()) != null) {
+                result.add(WiremockMappings.parse(chunk.getBody()));
+            }
+        }
+        return result;
+    }
+}
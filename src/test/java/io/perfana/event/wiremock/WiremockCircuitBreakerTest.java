@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WiremockCircuitBreakerTest {
+
+    private static final WiremockClientException CONNECT_FAILED =
+            new WiremockClientException("call to wiremock failed", new ConnectException("Connection refused"));
+
+    @Test
+    public void transientFailureIsRetried() {
+        WiremockCircuitBreaker breaker = new WiremockCircuitBreaker("node", 0, 2, 1, EventLoggerStdOut.INSTANCE);
+        AtomicInteger calls = new AtomicInteger();
+
+        breaker.execute(() -> {
+            if (calls.incrementAndGet() < 3) {
+                throw CONNECT_FAILED;
+            }
+        });
+
+        assertEquals(3, calls.get());
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void clientErrorIsNotRetried() {
+        WiremockCircuitBreaker breaker = new WiremockCircuitBreaker("node", 0, 2, 1, EventLoggerStdOut.INSTANCE);
+        AtomicInteger calls = new AtomicInteger();
+
+        try {
+            breaker.execute(() -> {
+                calls.incrementAndGet();
+                throw new WiremockClientException("bad request", 400);
+            });
+            fail("expected exception");
+        } catch (WiremockClientException e) {
+            assertEquals(400, e.getStatusCode());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailuresAndSkipsUntilProbed() {
+        WiremockCircuitBreaker breaker = new WiremockCircuitBreaker("node", 3, 5, 1, EventLoggerStdOut.INSTANCE);
+        AtomicInteger calls = new AtomicInteger();
+
+        try {
+            breaker.execute(() -> {
+                calls.incrementAndGet();
+                throw CONNECT_FAILED;
+            });
+            fail("expected exception");
+        } catch (WiremockClientException e) {
+            assertEquals(CONNECT_FAILED, e);
+        }
+        // retries stop as soon as the circuit opens
+        assertEquals(3, calls.get());
+        assertTrue(breaker.isOpen());
+
+        try {
+            breaker.execute(calls::incrementAndGet);
+            fail("expected exception");
+        } catch (WiremockClientException e) {
+            assertTrue(e.getMessage().contains("circuit breaker open"));
+        }
+        assertEquals(3, calls.get());
+
+        breaker.probeSucceeded();
+        breaker.execute(calls::incrementAndGet);
+        assertEquals(4, calls.get());
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void transientFailures() {
+        assertTrue(WiremockCircuitBreaker.isTransient(CONNECT_FAILED));
+        assertTrue(WiremockCircuitBreaker.isTransient(new WiremockClientException("unavailable", 503)));
+        assertTrue(WiremockCircuitBreaker.isTransient(new WiremockClientException("too many requests", 429)));
+        assertFalse(WiremockCircuitBreaker.isTransient(new WiremockClientException("not found", 404)));
+        assertFalse(WiremockCircuitBreaker.isTransient(new WiremockClientException("no cause")));
+    }
+
+    @Test
+    public void failuresAfterTheRequestWasSentAreNotRetried() {
+        assertTrue(WiremockCircuitBreaker.isTransient(new WiremockClientException("connect timeout", new ConnectTimeoutException("connect timed out"))));
+        assertFalse(WiremockCircuitBreaker.isTransient(new WiremockClientException("read timeout", new SocketTimeoutException("Read timed out"))));
+        assertFalse(WiremockCircuitBreaker.isTransient(new WiremockClientException("server error", 500)));
+        assertFalse(WiremockCircuitBreaker.isTransient(new WiremockClientException("bad gateway", 502)));
+    }
+}
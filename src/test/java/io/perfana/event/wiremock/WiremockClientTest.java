@@ -17,19 +17,37 @@ package io.perfana.event.wiremock;
 
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.junit.Assert.assertEquals;
 
 public class WiremockClientTest {
 
     @Rule
     public WireMockRule wireMockRule = new WireMockRule(options().port(8568).httpsPort(8569));
 
+    private CloseableHttpClient httpClient;
+
+    @Before
+    public void createHttpClient() {
+        httpClient = HttpClients.createDefault();
+    }
+
+    @After
+    public void closeHttpClient() throws IOException {
+        httpClient.close();
+    }
+
     private static final String MESSAGE = "{\n"+
             "    \"request\": {\n"+
             "        \"method\": \"GET\",\n"+
@@ -47,10 +65,26 @@ public class WiremockClientTest {
 
     @Test
     public void uploadFileWithReplacements() {
-        WiremockClient client = new WiremockClient("http://localhost:8568", EventLoggerStdOut.INSTANCE_DEBUG, false);
+        WiremockClient client = client();
 
         Map<String,String> replacements = new HashMap<>();
         replacements.put("delay", "2000");
         client.uploadFileWithReplacements(MESSAGE, replacements, "/__admin/mappings");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void countAndResetRequests() {
+        WiremockClient client = client();
+
+        client.timeStubCall("/not-mapped");
+        client.timeStubCall("/not-mapped");
+        assertEquals(2, client.countRequests());
+
+        client.resetRequests();
+        assertEquals(0, client.countRequests());
+    }
+
+    private WiremockClient client() {
+        return new WiremockClient("http://localhost:8568", EventLoggerStdOut.INSTANCE_DEBUG, httpClient, new WiremockMetricsInMemory());
+    }
+}
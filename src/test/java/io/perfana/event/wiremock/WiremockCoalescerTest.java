@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockCoalescerTest {
+
+    @Test
+    public void laterMappingWins() {
+        WiremockCoalescer.Batch batch = WiremockCoalescer.merge(Arrays.asList(
+                change("first", mapping("a", "/a", 100)),
+                change("second", "{\"mappings\":[" + mapping(null, "/b", 10) + "," + mapping("a", "/a", 200) + "]}"),
+                change("third", mapping(null, "/b", 20))));
+
+        assertEquals("first, second, third", batch.getDescription());
+        assertEquals(Duration.ofSeconds(1), batch.getScheduledDelay());
+
+        List<WiremockPayload> payloads = batch.getPayloads();
+        assertEquals(1, payloads.size());
+        JsonNode root = WiremockMappings.parse(payloads.get(0).getBody());
+        List<? extends JsonNode> mappings = WiremockMappings.mappings(root);
+        assertEquals(2, mappings.size());
+        assertEquals("a", WiremockMappings.id(mappings.get(0)));
+        assertEquals(200, mappings.get(0).path("response").path("fixedDelayMilliseconds").asInt());
+        assertEquals(20, mappings.get(1).path("response").path("fixedDelayMilliseconds").asInt());
+        assertEquals("OVERWRITE", root.path(WiremockMappings.IMPORT_OPTIONS).path("duplicatePolicy").asText());
+        assertFalse(root.path(WiremockMappings.IMPORT_OPTIONS).path("deleteAllNotInImport").asBoolean());
+    }
+
+    @Test
+    public void replacingImportDropsEarlierMappingsInTheWindow() {
+        WiremockCoalescer.Batch batch = WiremockCoalescer.merge(Arrays.asList(
+                change("first", mapping("a", "/a", 100)),
+                change("second", "{\"mappings\":[" + mapping("b", "/b", 10) + "],\"importOptions\":{\"deleteAllNotInImport\":true}}"),
+                change("third", mapping("c", "/c", 20))));
+
+        JsonNode root = WiremockMappings.parse(batch.getPayloads().get(0).getBody());
+        List<String> ids = WiremockMappings.mappings(root).stream().map(WiremockMappings::id).collect(Collectors.toList());
+        assertEquals(Arrays.asList("b", "c"), ids);
+        assertTrue(root.path(WiremockMappings.IMPORT_OPTIONS).path("deleteAllNotInImport").asBoolean());
+    }
+
+    @Test
+    public void eventsInTheWindowAreSentAsOneBatchOnClose() {
+        List<WiremockCoalescer.Batch> batches = new CopyOnWriteArrayList<>();
+        WiremockCoalescer coalescer = new WiremockCoalescer(60_000, batches::add, EventLoggerStdOut.INSTANCE);
+
+        assertTrue(coalescer.add("first", Duration.ofSeconds(1), payloads("first", mapping("a", "/a", 100)), Collections.emptyMap()));
+        assertTrue(coalescer.add("second", Duration.ofSeconds(2), payloads("second", mapping("b", "/b", 200)), Collections.emptyMap()));
+        assertTrue(batches.isEmpty());
+
+        coalescer.close();
+
+        assertEquals(1, batches.size());
+        assertEquals("first, second", batches.get(0).getDescription());
+        assertEquals(2, WiremockMappings.mappings(WiremockMappings.parse(batches.get(0).getPayloads().get(0).getBody())).size());
+    }
+
+    @Test
+    public void windowIsSentWhenItCloses() throws InterruptedException {
+        CountDownLatch flushed = new CountDownLatch(1);
+        WiremockCoalescer coalescer = new WiremockCoalescer(50, batch -> flushed.countDown(), EventLoggerStdOut.INSTANCE);
+
+        coalescer.add("first", Duration.ofSeconds(1), payloads("first", mapping("a", "/a", 100)), Collections.emptyMap());
+
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        coalescer.close();
+    }
+
+    @Test
+    public void flushSendsThePendingWindowBeforeReturning() {
+        List<String> sent = new CopyOnWriteArrayList<>();
+        WiremockCoalescer coalescer = new WiremockCoalescer(60_000, batch -> sent.add(batch.getDescription()), EventLoggerStdOut.INSTANCE);
+        coalescer.add("buffered", Duration.ofSeconds(1), payloads("buffered", mapping("a", "/a", 100)), Collections.emptyMap());
+
+        coalescer.flush();
+        sent.add("direct");
+
+        assertEquals(Arrays.asList("buffered", "direct"), sent);
+        coalescer.close();
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void streamedFilesAreNotCoalesced() {
+        WiremockCoalescer coalescer = new WiremockCoalescer(60_000, batch -> {}, EventLoggerStdOut.INSTANCE);
+        List<WiremockPayload> streamed = Collections.singletonList(WiremockPayload.streaming("large.json", new File("large.json"), Collections.emptyMap()));
+
+        assertFalse(coalescer.add("large", Duration.ofSeconds(1), streamed, Collections.emptyMap()));
+        coalescer.close();
+    }
+
+    private static List<WiremockPayload> payloads(String description, String json) {
+        return Collections.singletonList(new WiremockPayload(description + ".json", json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static WiremockCoalescer.Change change(String description, String json) {
+        WiremockPayload payload = new WiremockPayload(description + ".json", json.getBytes(StandardCharsets.UTF_8));
+        return new WiremockCoalescer.Change(description, Duration.ofSeconds(1), Collections.singletonList(payload), Collections.emptyMap());
+    }
+
+    private static String mapping(String id, String url, int delay) {
+        return "{" + (id == null ? "" : "\"id\":\"" + id + "\",") +
+                "\"request\":{\"method\":\"GET\",\"url\":\"" + url + "\"}," +
+                "\"response\":{\"status\":200,\"fixedDelayMilliseconds\":" + delay + "}}";
+    }
+}
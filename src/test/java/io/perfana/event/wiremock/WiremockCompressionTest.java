@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compressed uploads against a minimal http server that records what it receives.
+ */
+public class WiremockCompressionTest {
+
+    private static final byte[] MAPPING = "{\"request\":{\"url\":\"/a\"},\"response\":{\"status\":200}}".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    private CloseableHttpClient httpClient;
+    private volatile boolean acceptGzip = true;
+    private volatile String contentEncoding;
+    private volatile byte[] received;
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        httpClient = HttpClients.createDefault();
+    }
+
+    @After
+    public void stop() throws IOException {
+        httpClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void probeAcceptedByNodeThatReadsGzip() {
+        assertTrue(client().probeCompression());
+        assertEquals(WiremockPayload.GZIP, contentEncoding);
+    }
+
+    @Test
+    public void probeFallsBackWhenNodeRejectsGzip() {
+        acceptGzip = false;
+        assertFalse(client().probeCompression());
+    }
+
+    @Test
+    public void renderedUploadIsCompressed() throws IOException {
+        WiremockClient client = client();
+        client.setCompressUploads(true);
+
+        client.upload(new WiremockPayload("a.json", MAPPING), WiremockEvent.MAPPINGS_URI);
+
+        assertEquals(WiremockPayload.GZIP, contentEncoding);
+        assertArrayEquals(MAPPING, gunzip(received));
+    }
+
+    @Test
+    public void streamedUploadIsCompressedWhileSent() throws IOException {
+        File file = File.createTempFile("streamed", ".json");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "{\"response\":{\"fixedDelayMilliseconds\":${delay}}}".getBytes(StandardCharsets.UTF_8));
+        WiremockClient client = client();
+        client.setCompressUploads(true);
+
+        client.upload(WiremockPayload.streaming("streamed.json", file, Collections.singletonMap("delay", "100")), WiremockEvent.MAPPINGS_URI);
+
+        assertEquals(WiremockPayload.GZIP, contentEncoding);
+        assertEquals("{\"response\":{\"fixedDelayMilliseconds\":100}}", new String(gunzip(received), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void asyncUploadIsCompressed() throws Exception {
+        WiremockJdkAsyncClient client = asyncClient();
+        client.setCompressUploads(true);
+
+        client.uploadAsync(new WiremockPayload("a.json", MAPPING), WiremockEvent.MAPPINGS_URI).get(5, TimeUnit.SECONDS);
+
+        assertEquals(WiremockPayload.GZIP, contentEncoding);
+        assertArrayEquals(MAPPING, gunzip(received));
+    }
+
+    @Test
+    public void asyncUploadIsNotCompressedWithoutTheFlag() throws Exception {
+        asyncClient().uploadAsync(new WiremockPayload("a.json", MAPPING), WiremockEvent.MAPPINGS_URI).get(5, TimeUnit.SECONDS);
+
+        assertNull(contentEncoding);
+        assertArrayEquals(MAPPING, received);
+    }
+
+    @Test
+    public void asyncUploadRejectedByTheNodeFails() throws Exception {
+        acceptGzip = false;
+        WiremockJdkAsyncClient client = asyncClient();
+        client.setCompressUploads(true);
+
+        try {
+            client.uploadAsync(new WiremockPayload("a.json", MAPPING), WiremockEvent.MAPPINGS_URI).get(5, TimeUnit.SECONDS);
+            fail("expected the rejected upload to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof WiremockClientException);
+            assertEquals(500, ((WiremockClientException) e.getCause()).getStatusCode());
+        }
+    }
+
+    private WiremockJdkAsyncClient asyncClient() {
+        return new WiremockJdkAsyncClient("http://localhost:" + server.getAddress().getPort(), java.net.http.HttpClient.newHttpClient(),
+                Duration.ofSeconds(5), new WiremockMetricsInMemory(), EventLoggerStdOut.INSTANCE_DEBUG);
+    }
+
+    private WiremockClient client() {
+        return new WiremockClient("http://localhost:" + server.getAddress().getPort(), EventLoggerStdOut.INSTANCE_DEBUG,
+                httpClient, new WiremockMetricsInMemory());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        try (InputStream in = exchange.getRequestBody()) {
+            received = in.readAllBytes();
+        }
+        boolean rejected = WiremockPayload.GZIP.equals(contentEncoding) && !acceptGzip;
+        byte[] response = (rejected ? "cannot read body" : "{\"count\":0}").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(rejected ? 500 : 200, response.length);
+        exchange.getResponseBody().write(response);
+        exchange.close();
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        }
+    }
+}
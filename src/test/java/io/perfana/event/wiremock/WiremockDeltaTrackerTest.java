@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockDeltaTrackerTest {
+
+    private static final String NODE_1 = "http://node-1";
+    private static final String NODE_2 = "http://node-2";
+
+    private final WiremockDeltaTracker tracker = new WiremockDeltaTracker();
+
+    @Test
+    public void firstImportIsSentInFull() {
+        WiremockDeltaTracker.Prepared prepared = prepare(importOf(mapping("a", 100), mapping("b", 100)), true);
+
+        WiremockDeltaTracker.Delta delta = tracker.delta(NODE_1, prepared);
+
+        assertSame(prepared.getPayload(), delta.getPayload());
+        assertEquals(2, delta.getChanged());
+        assertEquals(2, delta.getTotal());
+    }
+
+    @Test
+    public void committedImportIsUnchanged() {
+        WiremockDeltaTracker.Prepared prepared = prepare(importOf(mapping("a", 100), mapping("b", 100)), true);
+        tracker.commit(NODE_1, tracker.delta(NODE_1, prepared));
+
+        WiremockDeltaTracker.Delta delta = tracker.delta(NODE_1, prepare(importOf(mapping("a", 100), mapping("b", 100)), true));
+
+        assertTrue(delta.isUnchanged());
+        assertEquals(0, delta.getChanged());
+    }
+
+    @Test
+    public void uncommittedDeltaIsSentAgain() {
+        tracker.delta(NODE_1, prepare(importOf(mapping("a", 100)), true));
+
+        WiremockDeltaTracker.Delta delta = tracker.delta(NODE_1, prepare(importOf(mapping("a", 100)), true));
+
+        assertEquals(1, delta.getChanged());
+    }
+
+    @Test
+    public void changedMappingIsSentInTrimmedImportThatDeletesNothing() {
+        tracker.commit(NODE_1, tracker.delta(NODE_1, prepare(replacingImportOf(mapping("a", 100), mapping("b", 100)), true)));
+
+        WiremockDeltaTracker.Delta delta = tracker.delta(NODE_1, prepare(replacingImportOf(mapping("a", 100), mapping("b", 200)), true));
+
+        assertEquals(1, delta.getChanged());
+        assertEquals(2, delta.getTotal());
+        JsonNode trimmed = parse(delta.getPayload());
+        assertEquals(List.of("b"), ids(trimmed));
+        assertFalse(trimmed.get(WiremockMappings.IMPORT_OPTIONS).get(WiremockMappings.DELETE_ALL_NOT_IN_IMPORT).asBoolean());
+    }
+
+    @Test
+    public void sameTrimmedImportIsSharedByNodes() {
+        WiremockDeltaTracker.Prepared first = prepare(importOf(mapping("a", 100), mapping("b", 100)), true);
+        tracker.commit(NODE_1, tracker.delta(NODE_1, first));
+        tracker.commit(NODE_2, tracker.delta(NODE_2, first));
+
+        WiremockDeltaTracker.Prepared second = prepare(importOf(mapping("a", 100), mapping("b", 200)), true);
+
+        assertSame(tracker.delta(NODE_1, second).getPayload(), tracker.delta(NODE_2, second).getPayload());
+    }
+
+    @Test
+    public void changedSingleMappingIsSentAsIs() {
+        tracker.commit(NODE_1, tracker.delta(NODE_1, prepare(mapping("a", 100), false)));
+
+        WiremockDeltaTracker.Prepared prepared = prepare(mapping("a", 200), false);
+        WiremockDeltaTracker.Delta delta = tracker.delta(NODE_1, prepared);
+
+        assertSame(prepared.getPayload(), delta.getPayload());
+    }
+
+    @Test
+    public void mappingsWithoutIdAreAlwaysSent() {
+        String withoutId = "{\"request\":{\"url\":\"/no-id\"},\"response\":{\"status\":200}}";
+        tracker.commit(NODE_1, tracker.delta(NODE_1, prepare(importOf(mapping("a", 100), withoutId), true)));
+
+        WiremockDeltaTracker.Delta delta = tracker.delta(NODE_1, prepare(importOf(mapping("a", 100), withoutId), true));
+
+        // only ids are tracked: an unchanged mapping without id cannot be told apart from a new one
+        assertFalse(delta.isUnchanged());
+        assertEquals(1, delta.getChanged());
+        JsonNode trimmed = parse(delta.getPayload());
+        assertEquals(1, trimmed.get(WiremockMappings.MAPPINGS).size());
+        assertEquals("/no-id", trimmed.get(WiremockMappings.MAPPINGS).get(0).get("request").get("url").asText());
+    }
+
+    @Test
+    public void nodesAreTrackedSeparately() {
+        tracker.commit(NODE_1, tracker.delta(NODE_1, prepare(importOf(mapping("a", 100)), true)));
+
+        assertTrue(tracker.delta(NODE_1, prepare(importOf(mapping("a", 100)), true)).isUnchanged());
+        assertFalse(tracker.delta(NODE_2, prepare(importOf(mapping("a", 100)), true)).isUnchanged());
+    }
+
+    @Test
+    public void forgottenNodeGetsEverythingAgain() {
+        tracker.commit(NODE_1, tracker.delta(NODE_1, prepare(importOf(mapping("a", 100), mapping("b", 100)), true)));
+
+        tracker.forget(NODE_1);
+
+        assertEquals(2, tracker.delta(NODE_1, prepare(importOf(mapping("a", 100), mapping("b", 100)), true)).getChanged());
+    }
+
+    @Test
+    public void replacingImportIsRecognized() {
+        assertTrue(prepare(replacingImportOf(mapping("a", 100)), true).isReplacing());
+        assertFalse(prepare(importOf(mapping("a", 100)), true).isReplacing());
+        assertFalse(prepare(mapping("a", 100), false).isReplacing());
+    }
+
+    private WiremockDeltaTracker.Prepared prepare(String json, boolean isImport) {
+        return tracker.prepare(new WiremockPayload("test.json", json.getBytes(StandardCharsets.UTF_8)), isImport);
+    }
+
+    private static String mapping(String id, int delay) {
+        return "{\"id\":\"" + id + "\",\"request\":{\"url\":\"/" + id + "\"},\"response\":{\"fixedDelayMilliseconds\":" + delay + "}}";
+    }
+
+    private static String importOf(String... mappings) {
+        return "{\"mappings\":[" + String.join(",", mappings) + "]}";
+    }
+
+    private static String replacingImportOf(String... mappings) {
+        return "{\"mappings\":[" + String.join(",", mappings) + "],\"importOptions\":{\"duplicatePolicy\":\"OVERWRITE\",\"deleteAllNotInImport\":true}}";
+    }
+
+    private static JsonNode parse(WiremockPayload payload) {
+        return WiremockMappings.parse(payload.getBody());
+    }
+
+    private static List<String> ids(JsonNode root) {
+        return WiremockMappings.mappings(root).stream().map(WiremockMappings::id).collect(Collectors.toList());
+    }
+}
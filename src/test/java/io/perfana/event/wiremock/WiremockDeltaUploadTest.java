@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.StubMapping;
+import io.perfana.eventscheduler.EventMessageBusSimple;
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Delta uploads must stay in line with what the nodes actually have, also after uploads that bypass the delta tracker.
+ */
+public class WiremockDeltaUploadTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(wireMockConfig().dynamicPort());
+
+    @Rule
+    public WireMockRule wireMockRule2 = new WireMockRule(wireMockConfig().dynamicPort());
+
+    @Test
+    public void importAfterReplacingImportIsSent() {
+        WiremockEvent event = event("http://localhost:" + wireMockRule.port());
+        event.beforeTest();
+        event.customEvent(CustomEvent.createFromLine("PT0S|wiremock-change-import|file=import-a.json;delay=100"));
+        event.customEvent(CustomEvent.createFromLine("PT1S|wiremock-change-import|file=replace-b.json;delay=100"));
+        assertEquals(names("b1"), stubNames(wireMockRule));
+
+        event.customEvent(CustomEvent.createFromLine("PT2S|wiremock-change-import|file=import-a.json;delay=100"));
+        event.afterTest();
+        assertEquals(names("a1", "a2", "b1"), stubNames(wireMockRule));
+    }
+
+    @Test
+    public void uniformChangeAfterPerNodeVariantsIsSentToAllNodes() {
+        WiremockEvent event = event("http://localhost:" + wireMockRule.port() + ",http://localhost:" + wireMockRule2.port());
+        event.beforeTest();
+        event.customEvent(CustomEvent.createFromLine("PT0S|wiremock-change-mappings|file=mapping-delay.json;delay=100"));
+        event.customEvent(CustomEvent.createFromLine("PT1S|wiremock-change-mappings|file=mapping-delay.json;delay=${node.number}00"));
+        assertEquals(Integer.valueOf(200), delay(wireMockRule2));
+
+        event.customEvent(CustomEvent.createFromLine("PT2S|wiremock-change-mappings|file=mapping-delay.json;delay=100"));
+        event.afterTest();
+        assertEquals(Integer.valueOf(100), delay(wireMockRule));
+        assertEquals(Integer.valueOf(100), delay(wireMockRule2));
+    }
+
+    static WiremockEvent event(String wiremockUrl) {
+        WiremockEventConfig eventConfig = new WiremockEventConfig();
+        eventConfig.setName("deltaUploads");
+        eventConfig.setWiremockFilesDir(new File(".", "src/test/resources/delta-stubs").getAbsolutePath());
+        eventConfig.setWiremockUrl(wiremockUrl);
+        eventConfig.setDeltaUploads(true);
+        TestConfig testConfig = TestConfig.builder().testRunId("delta-test-run").build();
+        return new WiremockEvent(eventConfig.toContext(), testConfig.toContext(), new EventMessageBusSimple(), EventLoggerStdOut.INSTANCE);
+    }
+
+    static Set<String> stubNames(WireMockRule wiremock) {
+        return wiremock.listAllStubMappings().getMappings().stream()
+                .map(StubMapping::getName)
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    static Integer delay(WireMockRule wiremock) {
+        return wiremock.listAllStubMappings().getMappings().stream()
+                .filter(mapping -> "delay".equals(mapping.getName()))
+                .findFirst()
+                .map(mapping -> mapping.getResponse().getFixedDelayMilliseconds())
+                .orElse(null);
+    }
+
+    static Set<String> names(String... names) {
+        return new TreeSet<>(Arrays.asList(names));
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.eventscheduler.EventMessageBusSimple;
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Parallel dispatch to several wiremock nodes, one of them slower than the event deadline.
+ */
+public class WiremockDispatcherTest {
+
+    private static final String WORK_PATH = "/work";
+
+    @Rule
+    public WireMockRule node1 = new WireMockRule(wireMockConfig().dynamicPort());
+
+    @Rule
+    public WireMockRule node2 = new WireMockRule(wireMockConfig().dynamicPort());
+
+    @Rule
+    public WireMockRule slowNode = new WireMockRule(wireMockConfig().dynamicPort());
+
+    private CloseableHttpClient httpClient;
+    private List<WiremockClient> clients;
+
+    @Before
+    public void setUp() {
+        httpClient = HttpClients.createDefault();
+        node1.stubFor(get(urlEqualTo(WORK_PATH)).willReturn(aResponse().withStatus(200)));
+        node2.stubFor(get(urlEqualTo(WORK_PATH)).willReturn(aResponse().withStatus(200)));
+        slowNode.stubFor(get(urlEqualTo(WORK_PATH)).willReturn(aResponse().withStatus(200).withFixedDelay(5_000)));
+        clients = Arrays.asList(client(node1), client(node2), client(slowNode));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        httpClient.close();
+    }
+
+    @Test
+    public void slowNodeTimesOutAtTheDeadline() {
+        WiremockDispatcher dispatcher = new WiremockDispatcher(clients, 3, Duration.ofMillis(500), EventLoggerStdOut.INSTANCE);
+        try {
+            long startNanos = System.nanoTime();
+            List<WiremockNodeResult> results = dispatcher.dispatch("work", (client, result) -> {
+                client.timeStubCall(WORK_PATH);
+                result.uploaded();
+            });
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+            assertTrue("waited " + millis + " ms", millis < 3_000);
+            assertEquals(3, results.size());
+            assertTrue(results.get(0).isSuccess());
+            assertTrue(results.get(1).isSuccess());
+            assertTrue(results.get(2).isTimedOut());
+            assertFalse(results.get(2).isSuccess());
+            assertEquals(0, results.get(2).getUploaded());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void failureOnOneNodeDoesNotStopTheOthers() {
+        WiremockDispatcher dispatcher = new WiremockDispatcher(clients, 3, Duration.ofSeconds(10), EventLoggerStdOut.INSTANCE);
+        try {
+            List<WiremockNodeResult> results = dispatcher.dispatch("work", clients.subList(0, 2), (client, result) -> {
+                if (client == clients.get(1)) {
+                    throw new WiremockClientException("node 2 is broken");
+                }
+                result.uploaded();
+            });
+
+            assertTrue(results.get(0).isSuccess());
+            assertEquals(1, results.get(1).getFailed());
+            assertEquals("node 2 is broken", results.get(1).getError().getMessage());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void dispatchAtOnceReleasesAllNodesTogether() {
+        WiremockDispatcher dispatcher = new WiremockDispatcher(clients, 3, Duration.ofSeconds(10), EventLoggerStdOut.INSTANCE);
+        Map<String, Long> startNanos = new ConcurrentHashMap<>();
+        try {
+            List<WiremockNodeResult> results = dispatcher.dispatchAtOnce("switch", clients.subList(0, 2), (client, result) -> {
+                startNanos.put(client.getBaseUrl(), System.nanoTime());
+                client.timeStubCall(WORK_PATH);
+                result.uploaded();
+            });
+
+            assertTrue(results.stream().allMatch(WiremockNodeResult::isSuccess));
+            LongSummaryStatistics starts = startNanos.values().stream().mapToLong(Long::longValue).summaryStatistics();
+            long spreadMillis = TimeUnit.NANOSECONDS.toMillis(starts.getMax() - starts.getMin());
+            assertTrue("spread " + spreadMillis + " ms", spreadMillis < 100);
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void dispatchAtOnceWithFewerThreadsThanNodesStillReachesAllNodes() {
+        WiremockDispatcher dispatcher = new WiremockDispatcher(clients, 1, Duration.ofSeconds(10), EventLoggerStdOut.INSTANCE);
+        try {
+            List<WiremockNodeResult> results = dispatcher.dispatchAtOnce("switch", clients.subList(0, 2), (client, result) -> {
+                client.timeStubCall(WORK_PATH);
+                result.uploaded();
+            });
+
+            assertEquals(2, results.size());
+            assertTrue(results.stream().allMatch(WiremockNodeResult::isSuccess));
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void uploadErrorFailsTheEventWithoutContinueOnUploadError() throws IOException {
+        WiremockEventConfig eventConfig = new WiremockEventConfig();
+        eventConfig.setName("failFast");
+        eventConfig.setWiremockFilesDir(new File(".", "src/test/resources/wiremock-stubs").getAbsolutePath());
+        eventConfig.setWiremockUrl("http://localhost:" + node1.port() + ",http://localhost:" + unusedPort());
+        eventConfig.setContinueOnUploadError(false);
+        eventConfig.setEventDeadlineSeconds(5);
+        WiremockEvent event = new WiremockEvent(eventConfig.toContext(), TestConfig.builder().testRunId("dispatch-test-run").build().toContext(),
+                new EventMessageBusSimple(), EventLoggerStdOut.INSTANCE);
+        event.beforeTest();
+        try {
+            event.customEvent(CustomEvent.createFromLine("PT1S|wiremock-change-mappings|file=wiremock-delay.json;delay=100"));
+            fail("expected the upload error to fail the event");
+        } catch (WiremockEventException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Upload to wiremock failed"));
+        } finally {
+            event.afterTest();
+        }
+        // the reachable node got the mapping anyway
+        assertEquals(2, node1.listAllStubMappings().getMappings().size());
+    }
+
+    private WiremockClient client(WireMockRule node) {
+        return new WiremockClient("http://localhost:" + node.port(), EventLoggerStdOut.INSTANCE, httpClient, new WiremockMetricsInMemory());
+    }
+
+    private static int unusedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.EventGeneratorProperties;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Test;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockEventGeneratorTest {
+
+    private static final File FILES_DIR = new File(".", "src/test/resources/wiremock-stubs");
+
+    @Test
+    public void ramp() {
+        List<CustomEvent> events = generate("shape=ramp from=100 to=5000 duration=PT10M step=PT2S start=PT1M file=afterburner-stubs.json");
+
+        assertEquals(301, events.size());
+        assertEvent(events.get(0), Duration.ofMinutes(1), "file=afterburner-stubs.json;delay=100");
+        assertEvent(events.get(150), Duration.ofMinutes(6), "file=afterburner-stubs.json;delay=2550");
+        assertEvent(events.get(300), Duration.ofMinutes(11), "file=afterburner-stubs.json;delay=5000");
+        assertEquals(WiremockEvent.EVENT_WIREMOCK_CHANGE_MAPPINGS, events.get(0).getName());
+    }
+
+    @Test
+    public void steps() {
+        List<CustomEvent> events = generate("shape=step from=0 to=300 steps=3 duration=PT3M file=afterburner-stubs.json variable=delay-1 event=wiremock-change-import");
+
+        assertEquals(4, events.size());
+        assertEvent(events.get(1), Duration.ofMinutes(1), "file=afterburner-stubs.json;delay-1=100");
+        assertEvent(events.get(3), Duration.ofMinutes(3), "file=afterburner-stubs.json;delay-1=300");
+        assertEquals(WiremockEvent.EVENT_WIREMOCK_CHANGE_IMPORT, events.get(3).getName());
+    }
+
+    @Test
+    public void sine() {
+        List<CustomEvent> events = generate("shape=sine from=100 to=300 period=PT4S duration=PT4S step=PT1S file=a.json");
+
+        assertEquals(5, events.size());
+        assertEvent(events.get(0), Duration.ZERO, "file=a.json;delay=200");
+        assertEvent(events.get(1), Duration.ofSeconds(1), "file=a.json;delay=300");
+        assertEvent(events.get(3), Duration.ofSeconds(3), "file=a.json;delay=100");
+    }
+
+    @Test
+    public void repeatedSpikes() {
+        List<CustomEvent> events = generate("shape=spike from=100 to=8000 start=PT1M duration=PT30S period=PT2M repeat=2 file=a.json");
+
+        assertEquals(4, events.size());
+        assertEvent(events.get(0), Duration.ofSeconds(60), "file=a.json;delay=8000");
+        assertEvent(events.get(1), Duration.ofSeconds(90), "file=a.json;delay=100");
+        assertEvent(events.get(2), Duration.ofSeconds(180), "file=a.json;delay=8000");
+        assertEvent(events.get(3), Duration.ofSeconds(210), "file=a.json;delay=100");
+    }
+
+    @Test
+    public void multipleSpecsAreConcatenated() {
+        List<CustomEvent> events = generate("shape=spike from=1 to=2 duration=PT1S file=a.json\n" +
+                "shape=ramp from=0 to=10 duration=PT10S step=PT1S file=b.json");
+
+        assertEquals(2 + 11, events.size());
+        assertEvent(events.get(1), Duration.ofSeconds(1), "file=a.json;delay=1");
+        assertEvent(events.get(2), Duration.ZERO, "file=b.json;delay=0");
+        assertEvent(events.get(12), Duration.ofSeconds(10), "file=b.json;delay=10");
+    }
+
+    @Test
+    public void longFineGrainedRampIsCreatedOnAccess() {
+        List<CustomEvent> events = generate("shape=ramp from=0 to=1000000 duration=P10D step=PT0.1S file=a.json");
+
+        assertEquals(8_640_001, events.size());
+        assertEvent(events.get(8_640_000), Duration.ofDays(10), "file=a.json;delay=1000000");
+    }
+
+    @Test
+    public void generatedValueIsRenderedInThePayload() {
+        List<CustomEvent> events = generate("shape=ramp from=100 to=300 duration=PT2S step=PT1S file=afterburner-stubs.json event=wiremock-change-import\n" +
+                "shape=spike from=100 to=8000 duration=PT1S file=wiremock-delay.json");
+        WiremockMetrics metrics = new WiremockMetricsInMemory();
+        WiremockPayloadFactory payloadFactory = new WiremockPayloadFactory(FILES_DIR, new WiremockTemplateCache(), 0, metrics, EventLoggerStdOut.INSTANCE);
+
+        assertEquals(List.of(100L, 200L, 300L, 8000L, 100L), events.stream()
+                .map(event -> payloadFactory.create(WiremockEvent.parseSettings(event.getSettings())).get(0))
+                .map(payload -> WiremockMappings.mappings(WiremockMappings.parse(payload.getBody())).stream()
+                        .filter(mapping -> mapping.path("response").has("fixedDelayMilliseconds"))
+                        .findFirst().orElseThrow().path("response").path("fixedDelayMilliseconds").asLong())
+                .collect(Collectors.toList()));
+    }
+
+    @Test(expected = WiremockEventException.class)
+    public void directoryTargetIsRejected() {
+        generate("shape=ramp from=100 to=5000 duration=PT10M directory=my-mappings-dir-1");
+    }
+
+    @Test(expected = WiremockEventException.class)
+    public void missingTarget() {
+        generate("shape=ramp from=100 to=5000 duration=PT10M");
+    }
+
+    @Test(expected = WiremockEventException.class)
+    public void unknownShape() {
+        generate("shape=square from=100 to=5000 duration=PT10M file=a.json");
+    }
+
+    @Test
+    public void noSchedule() {
+        assertTrue(new WiremockEventGenerator(new EventGeneratorProperties(Collections.emptyMap()), EventLoggerStdOut.INSTANCE).generate().isEmpty());
+    }
+
+    private static List<CustomEvent> generate(String schedule) {
+        EventGeneratorProperties properties = new EventGeneratorProperties(Collections.singletonMap(WiremockEventGenerator.PROPERTY_SCHEDULE, schedule));
+        return new WiremockEventGenerator(properties, EventLoggerStdOut.INSTANCE).generate();
+    }
+
+    private static void assertEvent(CustomEvent event, Duration delay, String settings) {
+        assertEquals(delay, event.getDelay());
+        assertEquals(settings, event.getSettings());
+    }
+}
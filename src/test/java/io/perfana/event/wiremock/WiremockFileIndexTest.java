@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.sun.net.httpserver.HttpServer;
+import io.perfana.eventscheduler.EventMessageBusSimple;
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockFileIndexTest {
+
+    private static final long TIMEOUT_MILLIS = 15_000;
+
+    private Path dir;
+    private WiremockFileIndex index;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("wiremock-index");
+        write("a.json", "{\"delay\":${delay}}");
+        write("b.json", "{\"name\":\"b\"}");
+        write("notes.txt", "not a mapping");
+        write("sub/c.json", "{\"name\":\"c\"}");
+        write("large.json", "{\"name\":\"" + "x".repeat(200) + "\"}");
+    }
+
+    @After
+    public void removeDir() throws IOException {
+        if (index != null) {
+            index.close();
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Collections.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void initialIndex() {
+        index = start(0);
+
+        assertEquals("{\"delay\":100}", render(index.file("a.json")));
+        // large files are streamed from disk
+        assertNull(index.file("large.json").getTemplate());
+        assertNull(index.file("notes.txt"));
+        assertEquals(List.of("a.json", "b.json", "large.json"), names(index.directory(".")));
+        assertEquals(List.of("c.json"), names(index.directory("sub")));
+        assertNull(index.directory("no-such-dir"));
+    }
+
+    @Test
+    public void watchedChangesUpdateTheIndex() throws Exception {
+        index = start(0);
+        List<Path> changed = new CopyOnWriteArrayList<>();
+        index.addListener(changed::add);
+
+        write("a.json", "{\"delay\":${delay},\"edited\":true}");
+        await(() -> "{\"delay\":100,\"edited\":true}".equals(render(index.file("a.json"))));
+        await(() -> changed.contains(Paths.get("")));
+
+        write("new-dir/d.json", "{\"name\":\"d\"}");
+        await(() -> index.directory("new-dir") != null && index.file("new-dir/d.json") != null);
+
+        Files.delete(dir.resolve("b.json"));
+        await(() -> index.file("b.json") == null);
+        assertEquals(List.of("a.json", "large.json"), names(index.directory(".")));
+
+        Files.delete(dir.resolve("sub/c.json"));
+        Files.delete(dir.resolve("sub"));
+        await(() -> index.directory("sub") == null && index.file("sub/c.json") == null);
+    }
+
+    @Test
+    public void rescanFindsChangesAndKeepsUnchangedFiles() throws Exception {
+        index = start(0);
+        WiremockFileIndex.IndexedFile unchanged = index.file("b.json");
+        List<Path> changed = new CopyOnWriteArrayList<>();
+        index.addListener(changed::add);
+
+        write("sub/c.json", "{\"name\":\"c2\"}");
+        dir.resolve("sub/c.json").toFile().setLastModified(System.currentTimeMillis() + 10_000);
+        index.rescan();
+
+        assertEquals("{\"name\":\"c2\"}", render(index.file("sub/c.json")));
+        assertSame(unchanged, index.file("b.json"));
+        // the watch service may have seen the change first, then the rescan has nothing left to report
+        await(() -> changed.contains(Paths.get("sub")));
+    }
+
+    @Test
+    public void periodicRescan() throws Exception {
+        index = start(100);
+
+        write("a.json", "{\"delay\":${delay},\"rescanned\":true}");
+
+        await(() -> "{\"delay\":100,\"rescanned\":true}".equals(render(index.file("a.json"))));
+    }
+
+    @Test
+    public void changedActiveDirectoryIsPushedAgain() throws Exception {
+        List<String> received = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                received.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath() + " "
+                        + new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        WiremockEvent event = null;
+        try {
+            WiremockEventConfig eventConfig = new WiremockEventConfig();
+            eventConfig.setName("indexed");
+            eventConfig.setWiremockFilesDir(dir.toString());
+            eventConfig.setWiremockUrl("http://localhost:" + server.getAddress().getPort());
+            eventConfig.setIndexFiles(true);
+            eventConfig.setRepushOnChange(true);
+            event = new WiremockEvent(eventConfig.toContext(), TestConfig.builder().testRunId("index-test-run").build().toContext(),
+                    new EventMessageBusSimple(), EventLoggerStdOut.INSTANCE);
+            event.beforeTest();
+            event.customEvent(CustomEvent.createFromLine("PT1S|wiremock-change-mappings|directory=sub"));
+            assertTrue(received.stream().anyMatch(request -> request.contains("\"c\"")));
+
+            write("sub/c.json", "{\"name\":\"c-edited\"}");
+
+            await(() -> received.stream().anyMatch(request -> request.startsWith("POST ") && request.contains("c-edited")));
+        } finally {
+            if (event != null) {
+                event.afterTest();
+            }
+            server.stop(0);
+        }
+    }
+
+    private WiremockFileIndex start(long rescanMillis) {
+        WiremockFileIndex fileIndex = new WiremockFileIndex(dir.toFile(), 100, rescanMillis, EventLoggerStdOut.INSTANCE);
+        fileIndex.start();
+        return fileIndex;
+    }
+
+    private void write(String path, String content) throws IOException {
+        Path file = dir.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String render(WiremockFileIndex.IndexedFile file) {
+        return file == null ? null : new String(file.getTemplate().render(Collections.singletonMap("delay", "100")), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> names(List<WiremockFileIndex.IndexedFile> files) {
+        assertNotNull(files);
+        return files.stream().map(file -> file.getFile().getName()).collect(Collectors.toList());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition not met within " + TIMEOUT_MILLIS + " ms", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
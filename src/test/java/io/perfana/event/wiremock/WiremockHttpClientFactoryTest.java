@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Timeouts and pool limits of the shared http client against a minimal http server.
+ */
+public class WiremockHttpClientFactoryTest {
+
+    private HttpServer server;
+    private final CountDownLatch slowCalled = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/fast", exchange -> {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.createContext("/slow", exchange -> {
+            slowCalled.countDown();
+            await(release);
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void stop() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void socketTimeoutEndsSlowCall() throws IOException {
+        try (CloseableHttpClient httpClient = create(10, 100, 200, 10_000)) {
+            long start = System.nanoTime();
+            try {
+                httpClient.execute(get("/slow"));
+                fail("expected a socket timeout");
+            } catch (SocketTimeoutException e) {
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                assertTrue("timed out after " + millis + " ms", millis < 5_000);
+            }
+        }
+    }
+
+    @Test
+    public void maxConnectionsPerRouteLimitsConcurrentCalls() throws Exception {
+        try (CloseableHttpClient httpClient = create(1, 100, 60_000, 200)) {
+            CompletableFuture<Integer> slow = CompletableFuture.supplyAsync(() -> status(httpClient, "/slow"));
+            assertTrue(slowCalled.await(5, TimeUnit.SECONDS));
+
+            try {
+                httpClient.execute(get("/fast"));
+                fail("expected a timeout waiting for a pooled connection");
+            } catch (ConnectionPoolTimeoutException e) {
+                // the only connection for this node is in use
+            }
+
+            release.countDown();
+            assertEquals(200, (int) slow.get(5, TimeUnit.SECONDS));
+            assertEquals(200, status(httpClient, "/fast"));
+        }
+    }
+
+    @Test
+    public void maxConnectionsTotalLimitsConcurrentCalls() throws Exception {
+        try (CloseableHttpClient httpClient = create(10, 1, 60_000, 200)) {
+            CompletableFuture<Integer> slow = CompletableFuture.supplyAsync(() -> status(httpClient, "/slow"));
+            assertTrue(slowCalled.await(5, TimeUnit.SECONDS));
+
+            try {
+                httpClient.execute(get("/fast"));
+                fail("expected a timeout waiting for a pooled connection");
+            } catch (ConnectionPoolTimeoutException e) {
+                // the only connection of the pool is in use
+            }
+
+            release.countDown();
+            assertEquals(200, (int) slow.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private static CloseableHttpClient create(int maxConnectionsPerRoute, int maxConnectionsTotal, int socketTimeoutMillis, int connectionRequestTimeoutMillis) {
+        return WiremockHttpClientFactory.create(false, maxConnectionsPerRoute, maxConnectionsTotal,
+                WiremockHttpClientFactory.DEFAULT_IDLE_CONNECTION_EVICT_SECONDS, WiremockHttpClientFactory.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                socketTimeoutMillis, connectionRequestTimeoutMillis);
+    }
+
+    private HttpGet get(String path) {
+        return new HttpGet("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private int status(CloseableHttpClient httpClient, String path) {
+        try {
+            HttpResponse response = httpClient.execute(get(path));
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
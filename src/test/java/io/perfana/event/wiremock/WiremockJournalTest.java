@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockJournalTest {
+
+    @Test
+    public void writeAndReport() throws IOException {
+        File journalFile = File.createTempFile("wiremock-journal", ".csv");
+        journalFile.deleteOnExit();
+        journalFile.delete();
+
+        WiremockJournal journal = new WiremockJournal(journalFile, EventLoggerStdOut.INSTANCE);
+        WiremockJournal.Event event = journal.event("slow, then fast", 1_000);
+        WiremockPayload payload = new WiremockPayload("delay.json", "{\"delay\":100}".getBytes(StandardCharsets.UTF_8));
+        journal.record(event, payload, "http://node-1", 1_200, 2_500_000, WiremockJournal.STATUS_OK);
+        journal.record(event, payload, "http://node-2", 1_250, 3_000_000, WiremockJournal.status(new WiremockClientException("busy", 503)));
+        journal.close();
+
+        List<WiremockJournalReport.Record> records = WiremockJournalReport.read(journalFile.toPath());
+        assertEquals(2, records.size());
+        assertEquals("http://node-2", records.get(1).getNode());
+        assertEquals("HTTP 503", records.get(1).getStatus());
+        assertEquals(records.get(0).getContentHash(), records.get(1).getContentHash());
+        assertFalse(WiremockJournal.NO_HASH.equals(records.get(0).getContentHash()));
+
+        String report = WiremockJournalReport.report(records);
+        assertTrue(report, report.contains("slow, then fast"));
+        assertTrue(report, report.contains("applied on all nodes 253 ms later"));
+        assertTrue(report, report.contains("spread between nodes 50 ms"));
+        assertTrue(report, report.contains("FAILED http://node-2 delay.json: HTTP 503"));
+    }
+
+    @Test
+    public void closeWritesAllEntriesRecordedFromManyThreads() throws Exception {
+        File journalFile = File.createTempFile("wiremock-journal", ".csv");
+        journalFile.deleteOnExit();
+        journalFile.delete();
+
+        WiremockJournal journal = new WiremockJournal(journalFile, EventLoggerStdOut.INSTANCE);
+        WiremockJournal.Event event = journal.event("many nodes", 1_000);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String node = "http://node-" + t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    WiremockPayload payload = new WiremockPayload("delay.json", ("{\"delay\":" + i + "}").getBytes(StandardCharsets.UTF_8));
+                    journal.record(event, payload, node, 1_200, 1_000_000, WiremockJournal.STATUS_OK);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        journal.close();
+
+        assertEquals(4_000, WiremockJournalReport.read(journalFile.toPath()).size());
+    }
+
+    @Test
+    public void quotesCsvFields() {
+        String line = String.join(",", WiremockJournal.csv("a, \"b\""), WiremockJournal.csv("plain"));
+        assertEquals(List.of("a, \"b\"", "plain"), WiremockJournalReport.parseCsv(line));
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockMetricsInMemoryTest {
+
+    @Test
+    public void percentilesAreExactBelowMaxSamples() {
+        WiremockMetricsInMemory metrics = new WiremockMetricsInMemory(1_000);
+        for (int i = 1; i <= 1_000; i++) {
+            metrics.recordTime(WiremockMetrics.Phase.SEND, "node-1", i);
+        }
+
+        assertEquals(500, metrics.percentile(WiremockMetrics.Phase.SEND, "node-1", 50));
+        assertEquals(990, metrics.percentile(WiremockMetrics.Phase.SEND, "node-1", 99));
+        assertEquals(-1, metrics.percentile(WiremockMetrics.Phase.SEND, "node-2", 50));
+    }
+
+    @Test
+    public void percentilesCoverTimesRecordedAfterMaxSamples() {
+        WiremockMetricsInMemory metrics = new WiremockMetricsInMemory(1_000);
+        // times grow during the test: only keeping the first samples would give a p50 of about 500
+        for (int i = 1; i <= 100_000; i++) {
+            metrics.recordTime(WiremockMetrics.Phase.SEND, "node-1", i);
+        }
+
+        long p50 = metrics.percentile(WiremockMetrics.Phase.SEND, "node-1", 50);
+        long p99 = metrics.percentile(WiremockMetrics.Phase.SEND, "node-1", 99);
+        assertTrue("p50 " + p50, p50 > 40_000 && p50 < 60_000);
+        assertTrue("p99 " + p99, p99 > 95_000);
+        assertTrue(metrics.summary().contains("count=100000"));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockModulatorTest {
+
+    private static final File FILES_DIR = new File(".", "src/test/resources/wiremock-stubs");
+
+    @Test
+    public void slowNodeSkipsAheadAndSettlesOnTheLastValue() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingClient node = new RecordingClient("http://node-1", release);
+        WiremockMetrics metrics = new WiremockMetricsInMemory();
+        WiremockPayloadFactory payloadFactory = new WiremockPayloadFactory(FILES_DIR, new WiremockTemplateCache(), 0, metrics, EventLoggerStdOut.INSTANCE);
+
+        WiremockDeltaTracker deltaTracker = new WiremockDeltaTracker();
+        WiremockDeltaTracker.Prepared before = deltaTracker.prepare(payloadFactory.create(
+                Map.of(WiremockPayloadFactory.SETTING_FILE, "afterburner-stubs.json", "delay", "100")).get(0), true);
+        deltaTracker.commit(node.getBaseUrl(), deltaTracker.delta(node.getBaseUrl(), before));
+
+        WiremockModulator modulator = new WiremockModulator(Collections.singletonList(node), payloadFactory, metrics,
+                EventLoggerStdOut.INSTANCE, null, deltaTracker);
+        WiremockCurve curve = WiremockCurve.parse(Map.of("shape", "ramp", "from", "100", "to", "1000", "duration", "PT0.4S"));
+        modulator.start("modulate delay", curve, "delay", Map.of(WiremockPayloadFactory.SETTING_FILE, "wiremock-delay.json"),
+                WiremockEvent.MAPPINGS_URI, 10);
+
+        // the first push hangs while the curve moves on
+        Thread.sleep(200);
+        release.countDown();
+
+        long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (modulator.isActive() && System.nanoTime() < deadlineNanos) {
+            Thread.sleep(10);
+        }
+        assertFalse("modulation finishes by itself when the curve is done", modulator.isActive());
+        modulator.stop();
+
+        List<Long> delays = node.getDelays();
+        assertTrue("first push starts low on the ramp: " + delays, delays.get(0) < 500);
+        assertTrue("skips the values offered while the first push was in flight: " + delays, delays.get(1) - delays.get(0) >= 300);
+        assertEquals(1000L, (long) delays.get(delays.size() - 1));
+
+        assertEquals(Collections.singleton(WiremockEvent.MAPPINGS_IMPORT_URI), node.getUriPaths());
+        assertEquals("each push overwrites the same stub", 1, node.getIds().size());
+        assertFalse("the delta tracker forgets the pushed node", deltaTracker.delta(node.getBaseUrl(), before).isUnchanged());
+    }
+
+    @Test
+    public void newModulationOfTheSameFileStopsTheRunningOne() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(0);
+        RecordingClient node = new RecordingClient("http://node-1", release);
+        WiremockMetrics metrics = new WiremockMetricsInMemory();
+        WiremockPayloadFactory payloadFactory = new WiremockPayloadFactory(FILES_DIR, new WiremockTemplateCache(), 0, metrics, EventLoggerStdOut.INSTANCE);
+        WiremockModulator modulator = new WiremockModulator(Collections.singletonList(node), payloadFactory, metrics,
+                EventLoggerStdOut.INSTANCE, null, null);
+        Map<String, String> file = Map.of(WiremockPayloadFactory.SETTING_FILE, "wiremock-delay.json");
+
+        modulator.start("slow ramp", WiremockCurve.parse(Map.of("shape", "ramp", "from", "100", "to", "200", "duration", "PT60S")),
+                "delay", file, WiremockEvent.MAPPINGS_URI, 10);
+        Thread.sleep(100);
+        modulator.start("fast ramp", WiremockCurve.parse(Map.of("shape", "ramp", "from", "5000", "to", "6000", "duration", "PT0.2S")),
+                "delay", file, WiremockEvent.MAPPINGS_URI, 10);
+
+        long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (modulator.isActive() && System.nanoTime() < deadlineNanos) {
+            Thread.sleep(10);
+        }
+        assertFalse("the slow ramp is stopped by the fast ramp", modulator.isActive());
+        Thread.sleep(50);
+        modulator.stop();
+
+        List<Long> delays = node.getDelays();
+        assertEquals(6000L, (long) delays.get(delays.size() - 1));
+    }
+
+    private static class RecordingClient extends WiremockClient {
+        private final CountDownLatch release;
+        private final List<Long> delays = Collections.synchronizedList(new ArrayList<>());
+        private final Set<String> ids = Collections.synchronizedSet(new HashSet<>());
+        private final Set<String> uriPaths = Collections.synchronizedSet(new HashSet<>());
+
+        private RecordingClient(String url, CountDownLatch release) {
+            super(url, EventLoggerStdOut.INSTANCE, null, new WiremockMetricsInMemory());
+            this.release = release;
+        }
+
+        @Override
+        void upload(WiremockPayload payload, String uriPath) {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            JsonNode root = WiremockMappings.parse(payload.getBody());
+            for (ObjectNode mapping : WiremockMappings.mappings(root)) {
+                ids.add(WiremockMappings.id(mapping));
+                delays.add(mapping.path("response").path("fixedDelayMilliseconds").asLong());
+            }
+            uriPaths.add(uriPath);
+        }
+
+        List<Long> getDelays() {
+            return new ArrayList<>(delays);
+        }
+
+        Set<String> getIds() {
+            return ids;
+        }
+
+        Set<String> getUriPaths() {
+            return uriPaths;
+        }
+    }
+}
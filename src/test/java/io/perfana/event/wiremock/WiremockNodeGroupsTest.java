@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockNodeGroupsTest {
+
+    @Test
+    public void groupsAddNodes() {
+        WiremockNodeGroups groups = WiremockNodeGroups.parse("payments=http://wm1:8080,http://wm2:8080; search=http://wm3:8080");
+
+        assertEquals(Arrays.asList("http://wm1:8080", "http://wm2:8080", "http://wm3:8080"), groups.allUrls("http://wm1:8080"));
+        assertEquals(Collections.singletonList("http://wm3:8080"), groups.urlsOf("search"));
+    }
+
+    @Test(expected = WiremockEventException.class)
+    public void unknownGroup() {
+        WiremockNodeGroups.parse("payments=http://wm1:8080").urlsOf("search");
+    }
+
+    @Test
+    public void nodeVariables() {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("file", "wiremock-delay.json");
+        settings.put("delay", "${node.number}00");
+        settings.put("label", "${node.index} of ${node.count}");
+
+        assertTrue(WiremockNodeGroups.hasNodeVariables(settings));
+        assertFalse(WiremockNodeGroups.hasNodeVariables(Collections.singletonMap("delay", "${delay}")));
+
+        Map<String, String> nodeSettings = WiremockNodeGroups.forNode(settings, 2, 3);
+        assertEquals("300", nodeSettings.get("delay"));
+        assertEquals("2 of 3", nodeSettings.get("label"));
+        assertEquals("wiremock-delay.json", nodeSettings.get("file"));
+    }
+
+    @Test
+    public void contextWithGroupsOnlyHasNoUrl() {
+        WiremockEventContext context = groupsOnly().toContext();
+
+        assertEquals(groupsOnly().toContext(), context);
+        assertEquals(groupsOnly().toContext().hashCode(), context.hashCode());
+    }
+
+    private static WiremockEventConfig groupsOnly() {
+        WiremockEventConfig eventConfig = new WiremockEventConfig();
+        eventConfig.setName("myWiremockEvent");
+        eventConfig.setWiremockFilesDir("wiremock-stubs");
+        eventConfig.setWiremockGroups("payments=http://wm1:8080");
+        return eventConfig;
+    }
+}
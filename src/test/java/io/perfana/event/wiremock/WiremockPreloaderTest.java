@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.sun.net.httpserver.HttpServer;
+import io.perfana.eventscheduler.EventMessageBusSimple;
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class WiremockPreloaderTest {
+
+    private static final File FILES_DIR = new File(".", "src/test/resources/wiremock-stubs");
+
+    @Test
+    public void eventNamesInTheScheduleAreCaseInsensitive() {
+        WiremockPreloader preloader = preloader(FILES_DIR, true);
+
+        preloader.preload("PT1S|Wiremock-Change-Mappings|file=wiremock-delay.json;delay=100\n" +
+                "PT2S|some-other-event|file=wiremock-delay.json;delay=200", WiremockEvent.CHANGE_EVENTS);
+
+        assertNotNull(preloader.get(Map.of(WiremockPayloadFactory.SETTING_FILE, "wiremock-delay.json", "delay", "100")));
+        assertNull(preloader.get(Map.of(WiremockPayloadFactory.SETTING_FILE, "wiremock-delay.json", "delay", "200")));
+    }
+
+    @Test
+    public void changedFileIsRenderedAgain() throws IOException {
+        File dir = Files.createTempDirectory("preload").toFile();
+        File file = new File(dir, "delay.json");
+        write(file, "{\"delay\":${delay}}", 1_000_000_000L);
+        WiremockPreloader preloader = preloader(dir, true);
+        preloader.preload("PT1S|wiremock-change-mappings|file=delay.json;delay=100", WiremockEvent.CHANGE_EVENTS);
+        Map<String, String> settings = Map.of(WiremockPayloadFactory.SETTING_FILE, "delay.json", "delay", "100");
+        assertEquals("{\"delay\":100}", body(preloader.get(settings)));
+
+        write(file, "{\"delay\":${delay},\"edited\":true}", 2_000_000_000L);
+
+        assertEquals("{\"delay\":100,\"edited\":true}", body(preloader.get(settings)));
+    }
+
+    @Test
+    public void withoutFileChecksTheOwnerClearsTheEvents() throws IOException {
+        File dir = Files.createTempDirectory("preload").toFile();
+        File file = new File(dir, "delay.json");
+        write(file, "{\"delay\":${delay}}", 1_000_000_000L);
+        WiremockPreloader preloader = preloader(dir, false);
+        preloader.preload("PT1S|wiremock-change-mappings|file=delay.json;delay=100", WiremockEvent.CHANGE_EVENTS);
+        Map<String, String> settings = Map.of(WiremockPayloadFactory.SETTING_FILE, "delay.json", "delay", "100");
+
+        write(file, "{\"delay\":${delay},\"edited\":true}", 2_000_000_000L);
+        assertEquals("{\"delay\":100}", body(preloader.get(settings)));
+
+        preloader.clear();
+        assertNull(preloader.get(settings));
+    }
+
+    @Test
+    public void eventChecksTheFilesOnlyWithPreloadCheckFiles() throws IOException {
+        assertEquals(List.of("{\"delay\":100}", "{\"delay\":100}"), changeTwice(false));
+        assertEquals(List.of("{\"delay\":100}", "{\"delay\":100,\"edited\":true}"), changeTwice(true));
+    }
+
+    /**
+     * Send a pre-rendered event, edit its file and send it again.
+     * @return the bodies received by wiremock
+     */
+    private static List<String> changeTwice(boolean preloadCheckFiles) throws IOException {
+        File dir = Files.createTempDirectory("preload").toFile();
+        File file = new File(dir, "delay.json");
+        write(file, "{\"delay\":${delay}}", 1_000_000_000L);
+        List<String> received = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/__admin/mappings", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                received.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            exchange.sendResponseHeaders(201, -1);
+            exchange.close();
+        });
+        server.start();
+        WiremockEvent event = null;
+        try {
+            WiremockEventConfig eventConfig = new WiremockEventConfig();
+            eventConfig.setName("preloaded");
+            eventConfig.setWiremockFilesDir(dir.toString());
+            eventConfig.setWiremockUrl("http://localhost:" + server.getAddress().getPort());
+            eventConfig.setPreloadFiles(true);
+            eventConfig.setPreloadCheckFiles(preloadCheckFiles);
+            eventConfig.setScheduleScript("PT1S|wiremock-change-mappings|file=delay.json;delay=100");
+            event = new WiremockEvent(eventConfig.toContext(), TestConfig.builder().testRunId("preload-test-run").build().toContext(),
+                    new EventMessageBusSimple(), EventLoggerStdOut.INSTANCE);
+            event.beforeTest();
+            event.customEvent(CustomEvent.createFromLine("PT1S|wiremock-change-mappings|file=delay.json;delay=100"));
+            write(file, "{\"delay\":${delay},\"edited\":true}", 2_000_000_000L);
+            event.customEvent(CustomEvent.createFromLine("PT2S|wiremock-change-mappings|file=delay.json;delay=100"));
+            return received;
+        } finally {
+            if (event != null) {
+                event.afterTest();
+            }
+            server.stop(0);
+        }
+    }
+
+    private static WiremockPreloader preloader(File dir, boolean checkFiles) {
+        WiremockTemplateCache templateCache = new WiremockTemplateCache();
+        WiremockPayloadFactory payloadFactory = new WiremockPayloadFactory(dir, templateCache, 0, new WiremockMetricsInMemory(), EventLoggerStdOut.INSTANCE);
+        return new WiremockPreloader(dir, templateCache, payloadFactory, EventLoggerStdOut.INSTANCE, checkFiles);
+    }
+
+    private static void write(File file, String content, long lastModified) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        file.setLastModified(lastModified);
+        file.deleteOnExit();
+    }
+
+    private static String body(List<WiremockPayload> payloads) {
+        assertEquals(1, payloads.size());
+        return new String(payloads.get(0).getBody(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.sun.net.httpserver.HttpServer;
+import io.perfana.eventscheduler.EventMessageBusSimple;
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockQueuedDispatchTest {
+
+    private CloseableHttpClient httpClient;
+
+    @Before
+    public void createHttpClient() {
+        httpClient = HttpClients.createDefault();
+    }
+
+    @After
+    public void closeHttpClient() throws IOException {
+        httpClient.close();
+    }
+
+    @Test
+    public void newerChangeReplacesQueuedChange() throws InterruptedException {
+        WiremockQueuedDispatch queue = new WiremockQueuedDispatch(EventLoggerStdOut.INSTANCE);
+        WiremockClient node = new WiremockClient("http://node-1", EventLoggerStdOut.INSTANCE, httpClient, new WiremockMetricsInMemory());
+        List<WiremockClient> nodes = Collections.singletonList(node);
+        List<String> applied = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        queue.submit("slow", "a.json", nodes, (client, result) -> {
+            started.countDown();
+            await(release);
+            applied.add("slow");
+            result.uploaded();
+        }, result -> {});
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        for (String delay : Arrays.asList("100", "200", "300")) {
+            queue.submit("b " + delay, "b.json", nodes, change(applied, "b " + delay), result -> {});
+        }
+        queue.submit("a 400", "a.json", nodes, change(applied, "a 400"), result -> {});
+        release.countDown();
+
+        assertTrue(queue.drain(5_000));
+        queue.shutdown();
+        assertEquals(Arrays.asList("slow", "b 300", "a 400"), applied);
+        assertEquals(3, queue.getApplied(node.getBaseUrl()));
+        assertEquals(2, queue.getDropped(node.getBaseUrl()));
+    }
+
+    @Test
+    public void sameFileNameInOtherDirectoryIsAnotherTarget() throws InterruptedException {
+        WiremockQueuedDispatch queue = new WiremockQueuedDispatch(EventLoggerStdOut.INSTANCE);
+        WiremockClient node = new WiremockClient("http://node-1", EventLoggerStdOut.INSTANCE, httpClient, new WiremockMetricsInMemory());
+        List<WiremockClient> nodes = Collections.singletonList(node);
+        List<String> applied = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        String slow = target("slow.json", null);
+        String fast = target("dir-1/delay.json", null);
+        String other = target("dir-2/delay.json", null);
+        assertEquals(fast, target("./dir-1/../dir-1/delay.json", null));
+        assertTrue(!fast.equals(target("dir-1/delay.json", "group-a")));
+
+        queue.submit("slow", slow, nodes, (client, result) -> {
+            started.countDown();
+            await(release);
+            applied.add("slow");
+            result.uploaded();
+        }, result -> {});
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        queue.submit("dir-1 100", fast, nodes, change(applied, "dir-1 100"), result -> {});
+        queue.submit("dir-2 200", other, nodes, change(applied, "dir-2 200"), result -> {});
+        release.countDown();
+
+        assertTrue(queue.drain(5_000));
+        queue.shutdown();
+        assertEquals(Arrays.asList("slow", "dir-1 100", "dir-2 200"), applied);
+        assertEquals(0, queue.getDropped(node.getBaseUrl()));
+    }
+
+    @Test
+    public void newerChangeIsAppliedAfterChangesQueuedInBetween() throws InterruptedException {
+        WiremockQueuedDispatch queue = new WiremockQueuedDispatch(EventLoggerStdOut.INSTANCE);
+        WiremockClient node = new WiremockClient("http://node-1", EventLoggerStdOut.INSTANCE, httpClient, new WiremockMetricsInMemory());
+        List<WiremockClient> nodes = Collections.singletonList(node);
+        List<String> applied = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        queue.submit("slow", "slow.json", nodes, (client, result) -> {
+            started.countDown();
+            await(release);
+            applied.add("slow");
+            result.uploaded();
+        }, result -> {});
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // the directory contains the file: its older value must not end up active
+        queue.submit("file 100", "dir-a/x.json", nodes, change(applied, "file 100"), result -> {});
+        queue.submit("directory 200", "dir-a", nodes, change(applied, "directory 200"), result -> {});
+        queue.submit("file 300", "dir-a/x.json", nodes, change(applied, "file 300"), result -> {});
+        release.countDown();
+
+        assertTrue(queue.drain(5_000));
+        queue.shutdown();
+        assertEquals(Arrays.asList("slow", "directory 200", "file 300"), applied);
+        assertEquals(1, queue.getDropped(node.getBaseUrl()));
+    }
+
+    @Test
+    public void queuedEventIsNotMeasuredAsEventTotal() throws IOException {
+        assertEquals(Collections.singletonList(WiremockMetrics.Phase.EVENT_TOTAL), eventPhases(false));
+        assertEquals(Collections.singletonList(WiremockMetrics.Phase.EVENT_SUBMIT), eventPhases(true));
+    }
+
+    /**
+     * @return the event phases measured for one change event, with or without queued dispatch
+     */
+    private static List<WiremockMetrics.Phase> eventPhases(boolean queued) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(201, -1);
+            exchange.close();
+        });
+        server.start();
+        RecordingMetrics.phases.clear();
+        WiremockEvent event = null;
+        try {
+            WiremockEventConfig eventConfig = new WiremockEventConfig();
+            eventConfig.setName("queued");
+            eventConfig.setWiremockFilesDir(new File(".", "src/test/resources/wiremock-stubs").getAbsolutePath());
+            eventConfig.setWiremockUrl("http://localhost:" + server.getAddress().getPort());
+            eventConfig.setQueuedDispatch(queued);
+            eventConfig.setMetricsClass(RecordingMetrics.class.getName());
+            event = new WiremockEvent(eventConfig.toContext(), TestConfig.builder().testRunId("queue-test-run").build().toContext(),
+                    new EventMessageBusSimple(), EventLoggerStdOut.INSTANCE);
+            event.beforeTest();
+            event.customEvent(CustomEvent.createFromLine("PT1S|wiremock-change-mappings|file=wiremock-delay.json;delay=100"));
+            return new ArrayList<>(RecordingMetrics.phases);
+        } finally {
+            if (event != null) {
+                event.afterTest();
+            }
+            server.stop(0);
+        }
+    }
+
+    public static class RecordingMetrics extends WiremockMetricsInMemory {
+        private static final List<Phase> phases = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void recordTime(Phase phase, String node, long nanos) {
+            super.recordTime(phase, node, nanos);
+            if (phase == Phase.EVENT_TOTAL || phase == Phase.EVENT_SUBMIT) {
+                phases.add(phase);
+            }
+        }
+    }
+
+    private static String target(String file, String group) {
+        Map<String, String> settings = new HashMap<>();
+        settings.put(WiremockPayloadFactory.SETTING_FILE, file);
+        if (group != null) {
+            settings.put(WiremockNodeGroups.SETTING_GROUP, group);
+        }
+        WiremockPayload payload = new WiremockPayload(new File(file).getName(), new byte[0]);
+        return WiremockEvent.queueTarget(WiremockEvent.MAPPINGS_URI, settings, Collections.singletonList(payload));
+    }
+
+    private static BiConsumer<WiremockClient, WiremockNodeResult> change(List<String> applied, String value) {
+        return (client, result) -> {
+            applied.add(value);
+            result.uploaded();
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
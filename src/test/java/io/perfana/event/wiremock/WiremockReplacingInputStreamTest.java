@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class WiremockReplacingInputStreamTest {
+
+    @Test
+    public void replaceLikeTemplate() throws IOException {
+        Map<String, String> replacements = new HashMap<>();
+        replacements.put("delay", "4000");
+        replacements.put("delay-1", null);
+        replacements.put("b", "1");
+
+        assertSameAsTemplate("{ \"fixedDelayMilliseconds\": ${delay} }", replacements);
+        assertSameAsTemplate("${delay}${delay-1}${unknown}$${delay}", replacements);
+        assertSameAsTemplate("${a${b}} ${a$b} $ {delay} ${delay", replacements);
+        assertSameAsTemplate("no placeholders at all, only $ and { and }", replacements);
+        assertSameAsTemplate("ends with $", replacements);
+        assertSameAsTemplate("ends with ${", replacements);
+    }
+
+    @Test
+    public void replaceAfterburnerStubs() throws IOException {
+        String stubs = Files.readString(Paths.get("src/test/resources/wiremock-stubs/afterburner-stubs.json"));
+        Map<String, String> replacements = new HashMap<>();
+        replacements.put("delay", "5000");
+        assertSameAsTemplate(stubs, replacements);
+    }
+
+    private static void assertSameAsTemplate(String text, Map<String, String> replacements) throws IOException {
+        String expected = new String(WiremockTemplate.parse(text).render(replacements), StandardCharsets.UTF_8);
+
+        InputStream in = new WiremockReplacingInputStream(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), replacements);
+        assertEquals(expected, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockRequestJournalTest {
+
+    private final CountingClient node1 = new CountingClient("http://node-1");
+    private final CountingClient node2 = new CountingClient("http://node-2");
+    private final List<WiremockClient> nodes = Arrays.asList(node1, node2);
+    private final WiremockDispatcher dispatcher = new WiremockDispatcher(nodes, 1, Duration.ofSeconds(5), EventLoggerStdOut.INSTANCE);
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void onlyNodesAtTheThresholdAreReset() {
+        WiremockRequestJournal journal = new WiremockRequestJournal(dispatcher, Duration.ofSeconds(5), false, 10, EventLoggerStdOut.INSTANCE);
+        node1.requests.set(9);
+        node2.requests.set(10);
+
+        List<WiremockNodeResult> results = journal.reset("reset", nodes, false, 10);
+
+        assertEquals(1, results.get(0).getUnchanged());
+        assertEquals(0, results.get(0).getUploaded());
+        assertEquals(9, node1.requests.get());
+        assertEquals(1, results.get(1).getUploaded());
+        assertEquals(0, node2.requests.get());
+    }
+
+    @Test
+    public void captureTotalsIncludeTheRequestsStillInTheJournal() {
+        WiremockRequestJournal journal = new WiremockRequestJournal(dispatcher, Duration.ofSeconds(5), true, 0, EventLoggerStdOut.INSTANCE);
+        node1.requests.set(5);
+        journal.reset("reset", nodes, true, 0);
+        node1.requests.set(7);
+        node2.requests.set(4);
+        journal.reset("reset", nodes, true, 0);
+        node1.requests.set(3);
+
+        String summary = journal.summary(nodes);
+
+        assertTrue(summary, summary.contains("node http://node-1: resets=2, requests=15"));
+        assertTrue(summary, summary.contains("node http://node-2: resets=2, requests=4"));
+    }
+
+    @Test
+    public void periodicResetsDoNotWaitForTheEventDispatcher() throws InterruptedException {
+        WiremockRequestJournal journal = new WiremockRequestJournal(dispatcher, Duration.ofSeconds(5), false, 0, EventLoggerStdOut.INSTANCE);
+        CountDownLatch release = new CountDownLatch(1);
+        // keep the single thread of the event dispatcher busy
+        Thread event = new Thread(() -> dispatcher.dispatch("busy", Arrays.asList(node1), (client, result) -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        event.start();
+        try {
+            journal.start(nodes, 1);
+            long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+            while ((node1.resets.get() == 0 || node2.resets.get() == 0) && System.nanoTime() < deadlineNanos) {
+                Thread.sleep(50);
+            }
+            assertTrue("periodic reset while the event dispatcher is busy", node1.resets.get() > 0 && node2.resets.get() > 0);
+        } finally {
+            journal.stop();
+            release.countDown();
+            event.join();
+        }
+    }
+
+    private static class CountingClient extends WiremockClient {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicInteger resets = new AtomicInteger();
+
+        private CountingClient(String url) {
+            super(url, EventLoggerStdOut.INSTANCE, null, new WiremockMetricsInMemory());
+        }
+
+        @Override
+        long countRequests() {
+            return requests.get();
+        }
+
+        @Override
+        void resetRequests() {
+            requests.set(0);
+            resets.incrementAndGet();
+        }
+    }
+}
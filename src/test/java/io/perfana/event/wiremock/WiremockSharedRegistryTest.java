@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockSharedRegistryTest {
+
+    @Test
+    public void sharedUntilLastRelease() {
+        WiremockSharedRegistry registry = new WiremockSharedRegistry();
+        WiremockSharedRegistry.Lease<WiremockSharedRegistry.Content> first = registry.content("stubs", () -> new WiremockSharedRegistry.Content(null));
+        WiremockSharedRegistry.Lease<WiremockSharedRegistry.Content> second = registry.content("stubs", () -> new WiremockSharedRegistry.Content(null));
+        assertSame(first.get(), second.get());
+        first.get().getPrerendered().put("event", new WiremockPreloader.Prerendered(Collections.emptyList(), 0));
+
+        first.release();
+        first.release();
+        assertEquals(1, registry.size());
+        assertEquals(1, second.get().getPrerendered().size());
+
+        second.release();
+        assertEquals(0, registry.size());
+        assertTrue(second.get().getPrerendered().isEmpty());
+    }
+
+    @Test
+    public void httpClientPerNodesAndSettings() {
+        WiremockSharedRegistry registry = new WiremockSharedRegistry();
+        WiremockEventConfig config = new WiremockEventConfig();
+        config.setName("downstream-1");
+        WiremockSharedRegistry.Lease<CloseableHttpClient> first = registry.httpClient(config.toContext(), Arrays.asList("http://a", "http://b"));
+        config.setName("downstream-2");
+        WiremockSharedRegistry.Lease<CloseableHttpClient> second = registry.httpClient(config.toContext(), Arrays.asList("http://b", "http://a"));
+        config.setMaxConnectionsPerRoute(2);
+        WiremockSharedRegistry.Lease<CloseableHttpClient> other = registry.httpClient(config.toContext(), Arrays.asList("http://a", "http://b"));
+
+        assertSame(first.get(), second.get());
+        assertTrue(first.get() != other.get());
+        assertEquals(2, registry.size());
+
+        first.release();
+        second.release();
+        other.release();
+        assertEquals(0, registry.size());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class WiremockTemplateTest {
+
+    private static final String MESSAGE = "{\n" +
+            "  \"fixedDelayMilliseconds\": ${delay},\n" +
+            "  \"body\": \"${delay-1} and ${delay-2} and ${delay-1} ${unknown}\",\n" +
+            "  \"headers\": { \"X-Delay\": \"${delay}\" }\n" +
+            "}";
+
+    @Test
+    public void renderMatchesReplaceAll() {
+        Map<String, String> replacements = new LinkedHashMap<>();
+        replacements.put("delay", "4000");
+        replacements.put("delay-1", "100");
+        replacements.put("delay-2", "200");
+
+        assertRenderMatchesReplaceAll(MESSAGE, replacements);
+    }
+
+    @Test
+    public void renderNullReplacement() {
+        Map<String, String> replacements = new LinkedHashMap<>();
+        replacements.put("delay", null);
+        replacements.put("delay-1", "100");
+
+        assertRenderMatchesReplaceAll(MESSAGE, replacements);
+        assertEquals("{ \"fixedDelay\": null }", render("{ \"fixedDelay\": ${delay} }", replacements));
+    }
+
+    @Test
+    public void renderWithoutPlaceholders() {
+        String text = "{ \"fixedDelay\": 100, \"text\": \"$ { } ${\" }";
+        assertEquals(text, render(text, Collections.singletonMap("delay", "200")));
+        assertRenderMatchesReplaceAll(text, Collections.singletonMap("delay", "200"));
+    }
+
+    @Test
+    public void renderWithoutReplacementsReturnsSource() {
+        WiremockTemplate template = WiremockTemplate.parse(MESSAGE);
+        assertSame(template.render(Collections.emptyMap()), template.render(null));
+        assertEquals(MESSAGE, new String(template.render(null), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void renderNestedStart() {
+        Map<String, String> replacements = Collections.singletonMap("b", "1");
+        assertEquals("${a1}", render("${a${b}}", replacements));
+        assertRenderMatchesReplaceAll("${a${b}}", replacements);
+    }
+
+    @Test
+    public void renderAfterburnerStubs() throws IOException {
+        String stubs = Files.readString(Paths.get("src/test/resources/wiremock-stubs/afterburner-stubs.json"));
+        assertRenderMatchesReplaceAll(stubs, Collections.singletonMap("delay", "5000"));
+        assertEquals(Collections.singleton("delay"), WiremockTemplate.parse(stubs).getPlaceholderKeys());
+    }
+
+    private static String render(String text, Map<String, String> replacements) {
+        return new String(WiremockTemplate.parse(text).render(replacements), StandardCharsets.UTF_8);
+    }
+
+    private static void assertRenderMatchesReplaceAll(String text, Map<String, String> replacements) {
+        assertEquals(replaceAll(text, replacements), render(text, replacements));
+    }
+
+    /**
+     * The replacement semantics used before templates were introduced.
+     */
+    private static String replaceAll(String text, Map<String, String> replacements) {
+        String result = text;
+        for (Map.Entry<String, String> token : replacements.entrySet()) {
+            String replacement = token.getValue() == null ? "null" : token.getValue();
+            result = result.replaceAll("\\$\\{" + token.getKey() + "}", replacement);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.StubMapping;
+import io.perfana.eventscheduler.EventMessageBusSimple;
+import io.perfana.eventscheduler.api.CustomEvent;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Two-phase apply against a real wiremock: the staged mappings stay inactive until the switch stub is called.
+ */
+public class WiremockTwoPhaseActivationTest {
+
+    private static final String SCHEDULE = "PT1S|wiremock-change-mappings|file=mapping-delay.json;delay=100\n" +
+            "PT2S|wiremock-change-mappings|file=mapping-delay.json;delay=200";
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(wireMockConfig().dynamicPort());
+
+    @Test
+    public void stagedAheadAndActivatedByTheEvent() throws Exception {
+        WiremockEvent event = event("http://localhost:" + wireMockRule.port());
+        event.beforeTest();
+
+        // the first event is staged ahead, inactive: mapping and switch stub
+        awaitStubCount(2);
+        assertEquals(404, status("/delay"));
+
+        event.customEvent(CustomEvent.createFromLine("PT1S|wiremock-change-mappings|file=mapping-delay.json;delay=100"));
+        assertEquals(200, status("/delay"));
+        assertEquals("generation-1", wireMockRule.getAllScenarios().getScenarios().get(0).getState());
+
+        // the second event is staged ahead after the first is activated
+        awaitStubCount(4);
+        assertEquals(List.of(100), delays());
+
+        event.customEvent(CustomEvent.createFromLine("PT2S|wiremock-change-mappings|file=mapping-delay.json;delay=200"));
+        assertEquals(200, status("/delay"));
+        assertEquals("generation-2", wireMockRule.getAllScenarios().getScenarios().get(0).getState());
+        assertEquals("the previous generation is deleted", 2, wireMockRule.listAllStubMappings().getMappings().size());
+        assertEquals(List.of(200), delays());
+
+        event.afterTest();
+        assertEquals("the active copies and switch stub are deleted", 0, wireMockRule.listAllStubMappings().getMappings().size());
+    }
+
+    private WiremockEvent event(String wiremockUrl) {
+        WiremockEventConfig eventConfig = new WiremockEventConfig();
+        eventConfig.setName("twoPhase");
+        eventConfig.setWiremockFilesDir(new File(".", "src/test/resources/delta-stubs").getAbsolutePath());
+        eventConfig.setWiremockUrl(wiremockUrl);
+        eventConfig.setTwoPhaseApply(true);
+        eventConfig.setScheduleScript(SCHEDULE);
+        TestConfig testConfig = TestConfig.builder().testRunId("two-phase-test-run").build();
+        return new WiremockEvent(eventConfig.toContext(), testConfig.toContext(), new EventMessageBusSimple(), EventLoggerStdOut.INSTANCE);
+    }
+
+    /**
+     * @return the delays of the active generation: the mappings that require the current scenario state
+     */
+    private List<Integer> delays() {
+        String state = wireMockRule.getAllScenarios().getScenarios().get(0).getState();
+        return wireMockRule.listAllStubMappings().getMappings().stream()
+                .filter(mapping -> state.equals(mapping.getRequiredScenarioState()))
+                .map(StubMapping::getResponse)
+                .map(response -> response.getFixedDelayMilliseconds())
+                .collect(Collectors.toList());
+    }
+
+    private void awaitStubCount(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (wireMockRule.listAllStubMappings().getMappings().size() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(count, wireMockRule.listAllStubMappings().getMappings().size());
+    }
+
+    private int status(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + wireMockRule.port() + path).openConnection();
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.perfana.eventscheduler.api.CustomEvent;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockTwoPhaseApplyTest {
+
+    private static final String NODE = "http://node-1";
+    private static final String MAPPING = "{\"id\":\"0c0c0c0c-0000-4000-8000-000000000001\",\"request\":{\"method\":\"GET\",\"url\":\"/delay\"}," +
+            "\"response\":{\"status\":200,\"fixedDelayMilliseconds\":100}}";
+
+    @Test
+    public void mappingsAreStagedBehindANewGenerationWithASwitchStub() {
+        WiremockTwoPhaseApply twoPhaseApply = new WiremockTwoPhaseApply("my event");
+
+        WiremockTwoPhaseApply.Staged staged = twoPhaseApply.stage("change delay.json", payloads(MAPPING));
+
+        List<ObjectNode> mappings = WiremockMappings.mappings(WiremockMappings.parse(staged.getPayload().getBody()));
+        assertEquals(2, mappings.size());
+        assertEquals(staged.getIds(), List.of(WiremockMappings.id(mappings.get(0)), WiremockMappings.id(mappings.get(1))));
+
+        ObjectNode copy = mappings.get(0);
+        assertFalse(copy.get("id").asText().startsWith("0c0c0c0c"));
+        assertEquals(staged.getScenario(), copy.get("scenarioName").asText());
+        assertEquals("generation-1", copy.get("requiredScenarioState").asText());
+        assertEquals(100, copy.path("response").path("fixedDelayMilliseconds").asInt());
+
+        ObjectNode switchStub = mappings.get(1);
+        assertEquals(staged.getScenario(), switchStub.get("scenarioName").asText());
+        assertFalse("the switch stub matches in any state", switchStub.has("requiredScenarioState"));
+        assertEquals(staged.getState(), switchStub.get("newScenarioState").asText());
+        assertEquals("PUT", switchStub.path("request").path("method").asText());
+        assertEquals(staged.getSwitchPath(), switchStub.path("request").path("urlPath").asText());
+        assertTrue(staged.getSwitchPath().startsWith(WiremockTwoPhaseApply.SWITCH_PATH));
+
+        JsonNode importOptions = WiremockMappings.parse(staged.getPayload().getBody()).path(WiremockMappings.IMPORT_OPTIONS);
+        assertFalse(importOptions.path(WiremockMappings.DELETE_ALL_NOT_IN_IMPORT).asBoolean());
+    }
+
+    @Test
+    public void mappingsWithScenariosAreNotStaged() {
+        WiremockTwoPhaseApply twoPhaseApply = new WiremockTwoPhaseApply("my event");
+        String withScenario = "{\"request\":{\"url\":\"/a\"},\"response\":{\"status\":200},\"scenarioName\":\"mine\"}";
+        assertNull(twoPhaseApply.stage("change a.json", payloads(withScenario)));
+    }
+
+    @Test
+    public void olderGenerationsAreDeletedOnActivationAlsoWhenTheirActivationFailed() {
+        WiremockTwoPhaseApply twoPhaseApply = new WiremockTwoPhaseApply("my event");
+        WiremockTwoPhaseApply.Staged first = stageOnNode(twoPhaseApply);
+        assertEquals(Collections.emptyList(), twoPhaseApply.activated(NODE, first));
+
+        // staged, but the switch failed on the node
+        WiremockTwoPhaseApply.Staged failed = stageOnNode(twoPhaseApply);
+        WiremockTwoPhaseApply.Staged next = stageOnNode(twoPhaseApply);
+        WiremockTwoPhaseApply.Staged ahead = stageOnNode(twoPhaseApply);
+
+        List<String> expected = new ArrayList<>(first.getIds());
+        expected.addAll(failed.getIds());
+        assertEquals("the generation staged ahead is kept", expected, twoPhaseApply.activated(NODE, next));
+
+        twoPhaseApply.discarded(NODE, ahead);
+        WiremockTwoPhaseApply.Staged last = stageOnNode(twoPhaseApply);
+        assertEquals(next.getIds(), twoPhaseApply.activated(NODE, last));
+    }
+
+    @Test
+    public void remainingGenerationsAreLeftForCleanupAfterTheTest() {
+        WiremockTwoPhaseApply twoPhaseApply = new WiremockTwoPhaseApply("my event");
+        WiremockTwoPhaseApply.Staged first = stageOnNode(twoPhaseApply);
+        WiremockTwoPhaseApply.Staged active = stageOnNode(twoPhaseApply);
+        twoPhaseApply.activated(NODE, active);
+        WiremockTwoPhaseApply.Staged ahead = stageOnNode(twoPhaseApply);
+
+        List<String> expected = new ArrayList<>(active.getIds());
+        expected.addAll(ahead.getIds());
+        assertEquals(expected, twoPhaseApply.remaining(NODE));
+        assertFalse(twoPhaseApply.remaining(NODE).containsAll(first.getIds()));
+        assertEquals(Collections.emptyList(), twoPhaseApply.remaining("http://node-2"));
+    }
+
+    @Test
+    public void scenariosAndIdsAreUniquePerRun() {
+        WiremockTwoPhaseApply.Staged run1 = new WiremockTwoPhaseApply("my event").stage("change delay.json", payloads(MAPPING));
+        WiremockTwoPhaseApply.Staged run2 = new WiremockTwoPhaseApply("my event").stage("change delay.json", payloads(MAPPING));
+
+        assertEquals(run1.getState(), run2.getState());
+        assertFalse(run1.getScenario().equals(run2.getScenario()));
+        assertFalse(run1.getIds().stream().anyMatch(run2.getIds()::contains));
+    }
+
+    @Test
+    public void plannedEventsComeInOrderPerTarget() {
+        WiremockTwoPhaseApply twoPhaseApply = new WiremockTwoPhaseApply("my event");
+        CustomEvent fast = CustomEvent.createFromLine("PT10S|wiremock-change-mappings|file=delay.json;delay=100");
+        CustomEvent slow = CustomEvent.createFromLine("PT20S|wiremock-change-mappings|file=delay.json;delay=5000");
+        twoPhaseApply.plan("wiremock-change-mappings delay.json", fast);
+        twoPhaseApply.plan("wiremock-change-mappings delay.json", slow);
+
+        assertEquals(Collections.singleton("wiremock-change-mappings delay.json"), twoPhaseApply.plannedTargets());
+        assertEquals(fast, twoPhaseApply.nextPlanned("wiremock-change-mappings delay.json"));
+        assertEquals(slow, twoPhaseApply.nextPlanned("wiremock-change-mappings delay.json"));
+        assertNull(twoPhaseApply.nextPlanned("wiremock-change-mappings delay.json"));
+        assertNull(twoPhaseApply.nextPlanned("wiremock-change-mappings other.json"));
+    }
+
+    private static WiremockTwoPhaseApply.Staged stageOnNode(WiremockTwoPhaseApply twoPhaseApply) {
+        WiremockTwoPhaseApply.Staged staged = twoPhaseApply.stage("change delay.json", payloads(MAPPING));
+        twoPhaseApply.staged(NODE, staged);
+        return staged;
+    }
+
+    private static List<WiremockPayload> payloads(String mapping) {
+        return Collections.singletonList(new WiremockPayload("delay.json", mapping.getBytes(StandardCharsets.UTF_8)));
+    }
+}
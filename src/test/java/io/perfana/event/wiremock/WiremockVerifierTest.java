@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2024 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.wiremock;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WiremockVerifierTest {
+
+    private static final String NODE_MAPPINGS = "{\"mappings\":[" +
+            "{\"id\":\"6f7f1a3e-0000-4000-8000-000000000001\",\"request\":{\"method\":\"GET\",\"url\":\"/delay\"}," +
+            "\"response\":{\"status\":200,\"fixedDelayMilliseconds\":100,\"headers\":{\"Content-Type\":\"text/plain\"}}}," +
+            "{\"id\":\"6f7f1a3e-0000-4000-8000-000000000002\",\"request\":{\"method\":\"POST\",\"urlPath\":\"/orders\"}," +
+            "\"response\":{\"status\":201}}," +
+            "{\"id\":\"6f7f1a3e-0000-4000-8000-000000000003\",\"request\":{\"urlPattern\":\"/any/.*\"}," +
+            "\"response\":{\"status\":204}}" +
+            "]}";
+
+    private HttpServer server;
+    private CloseableHttpClient httpClient;
+    private WiremockVerifier verifier;
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(WiremockEvent.MAPPINGS_URI, exchange -> {
+            byte[] body = NODE_MAPPINGS.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        httpClient = HttpClients.createDefault();
+        verifier = new WiremockVerifier(new WiremockEventConfig().toContext(), new WiremockMetricsInMemory(), EventLoggerStdOut.INSTANCE);
+    }
+
+    @After
+    public void stop() throws IOException {
+        verifier.shutdown();
+        httpClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void findsMappingByIdOrByRequest() {
+        WiremockVerifier.ActualMappings actual = actual();
+
+        assertTrue(actual.contains(mapping("{\"id\":\"6f7f1a3e-0000-4000-8000-000000000001\",\"request\":{\"method\":\"GET\",\"url\":\"/delay\"},\"response\":{\"fixedDelayMilliseconds\":100}}")));
+        // wiremock assigned another id, found by method and url
+        assertTrue(actual.contains(mapping("{\"id\":\"00000000-0000-4000-8000-000000000009\",\"request\":{\"method\":\"POST\",\"urlPath\":\"/orders\"},\"response\":{\"status\":201}}")));
+        assertTrue(actual.contains(mapping("{\"request\":{\"method\":\"GET\",\"url\":\"/delay\"},\"response\":{\"status\":200}}")));
+        // without a method the request is compared with all mappings
+        assertTrue(actual.contains(mapping("{\"request\":{\"urlPattern\":\"/any/.*\"},\"response\":{\"status\":204}}")));
+    }
+
+    @Test
+    public void changedResponseOrOtherRequestIsMissing() {
+        WiremockVerifier.ActualMappings actual = actual();
+
+        assertFalse(actual.contains(mapping("{\"id\":\"6f7f1a3e-0000-4000-8000-000000000001\",\"request\":{\"method\":\"GET\",\"url\":\"/delay\"},\"response\":{\"fixedDelayMilliseconds\":200}}")));
+        assertFalse(actual.contains(mapping("{\"request\":{\"method\":\"GET\",\"url\":\"/orders\"},\"response\":{\"status\":201}}")));
+        assertFalse(actual.contains(mapping("{\"request\":{\"method\":\"POST\",\"url\":\"/orders\"},\"response\":{\"status\":201}}")));
+        assertFalse(actual.contains(mapping("{\"request\":{\"url\":\"/other\"},\"response\":{\"status\":200}}")));
+    }
+
+    @Test
+    public void verifyReportsMissingMappings() {
+        WiremockClient client = new WiremockClient("http://localhost:" + server.getAddress().getPort(), EventLoggerStdOut.INSTANCE,
+                httpClient, new WiremockMetricsInMemory());
+        String sent = "{\"mappings\":[" +
+                "{\"request\":{\"method\":\"GET\",\"url\":\"/delay\"},\"response\":{\"fixedDelayMilliseconds\":100}}," +
+                "{\"request\":{\"method\":\"GET\",\"url\":\"/delay\"},\"response\":{\"fixedDelayMilliseconds\":300}}]}";
+
+        verifier.verify("change", Collections.singletonList(new WiremockPayload("a.json", sent.getBytes(StandardCharsets.UTF_8))),
+                WiremockEvent.MAPPINGS_URI, Collections.emptyMap(), Collections.singletonList(client));
+        List<WiremockVerifier.Result> results = verifier.awaitResults(5_000);
+
+        assertEquals(1, results.size());
+        assertFalse(results.get(0).isSuccess());
+        assertTrue(results.get(0).toString(), results.get(0).toString().contains("missing=1"));
+        assertTrue(WiremockVerifier.failures(results).contains("1 of 2 mappings not found as sent"));
+    }
+
+    @Test
+    public void noFailuresWhenAllVerified() {
+        assertNull(WiremockVerifier.failures(new ArrayList<>()));
+    }
+
+    private static WiremockVerifier.ActualMappings actual() {
+        return new WiremockVerifier.ActualMappings(WiremockMappings.mappings(WiremockMappings.parse(NODE_MAPPINGS.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private static ObjectNode mapping(String json) {
+        return (ObjectNode) WiremockMappings.parse(json.getBytes(StandardCharsets.UTF_8));
+    }
+}